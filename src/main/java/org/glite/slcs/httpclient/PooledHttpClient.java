@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.httpclient;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+/**
+ * PooledHttpClient is a {@link HttpClient} using a
+ * {@link PooledHttpConnectionManager}. Always release the method connection
+ * after reading the response, to return it to the pool.
+ * 
+ * @author Valery Tschopp <tschopp@switch.ch>
+ * @see PooledHttpClientBuilder
+ */
+public class PooledHttpClient extends HttpClient {
+
+    /** The pool */
+    private PooledHttpConnectionManager connectionManager_ = null;
+
+    /** The idle connection evictor, can be null */
+    private IdleConnectionTimeoutThread evictor_ = null;
+
+    PooledHttpClient(PooledHttpConnectionManager connectionManager,
+            IdleConnectionTimeoutThread evictor) {
+        super(connectionManager);
+        this.connectionManager_ = connectionManager;
+        this.evictor_ = evictor;
+    }
+
+    /**
+     * @return The connection pool, with its utilisation metrics.
+     */
+    public PooledHttpConnectionManager getConnectionManager() {
+        return connectionManager_;
+    }
+
+    /**
+     * Stops the idle connection evictor and closes all pooled connections.
+     */
+    public void shutdown() {
+        if (evictor_ != null) {
+            evictor_.shutdown();
+        }
+        connectionManager_.shutdown();
+    }
+
+}
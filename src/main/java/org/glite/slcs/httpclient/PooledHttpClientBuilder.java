@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.httpclient;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.glite.slcs.httpclient.ssl.ExtendedProtocolSocketFactory;
+
+/**
+ * PooledHttpClientBuilder creates a {@link HttpClient} sharing a pool of
+ * persistent (keep-alive) connections between threads. The connections are
+ * created with an {@link ExtendedProtocolSocketFactory}, so reusing a pooled
+ * connection saves the TLS handshake.
+ * <p>
+ * Example:
+ * 
+ * <pre>
+ * PooledHttpClient client = new PooledHttpClientBuilder(socketFactory)
+ *         .setHost(&quot;slcs.switch.ch&quot;, 443)
+ *         .setMaxConnectionsPerHost(4)
+ *         .setMaxTotalConnections(20)
+ *         .build();
+ * GetMethod get = new GetMethod(&quot;/SLCS/login&quot;);
+ * try {
+ *     client.executeMethod(get);
+ *     ...
+ * } finally {
+ *     get.releaseConnection();
+ * }
+ * ...
+ * client.shutdown();
+ * </pre>
+ * 
+ * </p>
+ * <p>
+ * The protocol is set on the default host configuration: use relative URLs.
+ * Absolute https URLs use the globally registered protocol (see
+ * {@link Protocol#registerProtocol(String, Protocol)}).
+ * </p>
+ * 
+ * @author Valery Tschopp <tschopp@switch.ch>
+ */
+public class PooledHttpClientBuilder {
+
+    /** Default maximal number of connections per host */
+    static public final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+
+    /** Default maximal total number of connections */
+    static public final int DEFAULT_MAX_TOTAL_CONNECTIONS = 20;
+
+    /** Default time (millis) after which an idle connection is closed */
+    static public final long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+    /** Default interval (millis) between two idle connection evictions */
+    static public final long DEFAULT_EVICTION_INTERVAL = 10 * 1000;
+
+    /** The protocol socket factory */
+    private ProtocolSocketFactory socketFactory_ = null;
+
+    /** The default host, can be null */
+    private String host_ = null;
+
+    /** The default port */
+    private int port_ = 443;
+
+    private int maxConnectionsPerHost_ = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+    private int maxTotalConnections_ = DEFAULT_MAX_TOTAL_CONNECTIONS;
+
+    private int connectionTimeout_ = 0;
+
+    private int soTimeout_ = 0;
+
+    private long poolTimeout_ = 0;
+
+    private boolean staleChecking_ = true;
+
+    private long idleTimeout_ = DEFAULT_IDLE_TIMEOUT;
+
+    private long evictionInterval_ = DEFAULT_EVICTION_INTERVAL;
+
+    /**
+     * Creates a builder for the given socket factory.
+     * 
+     * @param socketFactory
+     *            The (secure) protocol socket factory, typically an
+     *            {@link ExtendedProtocolSocketFactory}.
+     */
+    public PooledHttpClientBuilder(ProtocolSocketFactory socketFactory) {
+        if (socketFactory == null) {
+            throw new IllegalArgumentException("ProtocolSocketFactory may not be null");
+        }
+        this.socketFactory_ = socketFactory;
+    }
+
+    /**
+     * Sets the default host of the client.
+     * 
+     * @param host
+     *            The host name.
+     * @param port
+     *            The port.
+     * @return this builder
+     */
+    public PooledHttpClientBuilder setHost(String host, int port) {
+        this.host_ = host;
+        this.port_ = port;
+        return this;
+    }
+
+    /**
+     * @param max
+     *            The maximal number of connections per host.
+     * @return this builder
+     */
+    public PooledHttpClientBuilder setMaxConnectionsPerHost(int max) {
+        this.maxConnectionsPerHost_ = max;
+        return this;
+    }
+
+    /**
+     * @param max
+     *            The maximal total number of connections.
+     * @return this builder
+     */
+    public PooledHttpClientBuilder setMaxTotalConnections(int max) {
+        this.maxTotalConnections_ = max;
+        return this;
+    }
+
+    /**
+     * @param timeout
+     *            The connect timeout in millis, <code>0</code> for none.
+     * @return this builder
+     */
+    public PooledHttpClientBuilder setConnectionTimeout(int timeout) {
+        this.connectionTimeout_ = timeout;
+        return this;
+    }
+
+    /**
+     * @param timeout
+     *            The socket read timeout in millis, <code>0</code> for none.
+     * @return this builder
+     */
+    public PooledHttpClientBuilder setSoTimeout(int timeout) {
+        this.soTimeout_ = timeout;
+        return this;
+    }
+
+    /**
+     * @param timeout
+     *            The time in millis to wait for a free connection of the
+     *            pool, <code>0</code> to wait forever.
+     * @return this builder
+     */
+    public PooledHttpClientBuilder setPoolTimeout(long timeout) {
+        this.poolTimeout_ = timeout;
+        return this;
+    }
+
+    /**
+     * @param enabled
+     *            <code>true</code> to check a pooled connection before
+     *            reusing it. Default is <code>true</code>.
+     * @return this builder
+     */
+    public PooledHttpClientBuilder setStaleCheckingEnabled(boolean enabled) {
+        this.staleChecking_ = enabled;
+        return this;
+    }
+
+    /**
+     * Sets the idle connection eviction.
+     * 
+     * @param idleTimeout
+     *            The time in millis after which an idle connection is
+     *            closed, <code>0</code> to never evict idle connections.
+     * @param interval
+     *            The interval in millis between two evictions.
+     * @return this builder
+     */
+    public PooledHttpClientBuilder setIdleTimeout(long idleTimeout,
+            long interval) {
+        this.idleTimeout_ = idleTimeout;
+        this.evictionInterval_ = interval;
+        return this;
+    }
+
+    /**
+     * Creates the pooled client. Each call creates a new pool.
+     * 
+     * @return The new client, to {@link PooledHttpClient#shutdown()} after
+     *         use.
+     */
+    public PooledHttpClient build() {
+        PooledHttpConnectionManager connectionManager = new PooledHttpConnectionManager();
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost_);
+        params.setMaxTotalConnections(maxTotalConnections_);
+        params.setConnectionTimeout(connectionTimeout_);
+        params.setSoTimeout(soTimeout_);
+        params.setStaleCheckingEnabled(staleChecking_);
+        params.setTcpNoDelay(true);
+
+        IdleConnectionTimeoutThread evictor = null;
+        if (idleTimeout_ > 0) {
+            evictor = new IdleConnectionTimeoutThread();
+            evictor.setName("PooledHttpClient-IdleConnectionTimeout");
+            evictor.setConnectionTimeout(idleTimeout_);
+            evictor.setTimeoutInterval(evictionInterval_);
+            evictor.addConnectionManager(connectionManager);
+            evictor.start();
+        }
+
+        PooledHttpClient client = new PooledHttpClient(connectionManager,
+                                                       evictor);
+        client.getParams().setConnectionManagerTimeout(poolTimeout_);
+        if (host_ != null) {
+            Protocol protocol = new Protocol("https", socketFactory_, port_);
+            client.getHostConfiguration().setHost(host_, port_, protocol);
+        }
+        return client;
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.httpclient;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+
+/**
+ * PooledHttpConnectionManager is a {@link MultiThreadedHttpConnectionManager}
+ * which keeps utilisation metrics of its connection pool: connections in use,
+ * peak usage, leases, kept-alive connections reused and time spent waiting
+ * for a free connection.
+ * <p>
+ * The leased connections are tracked until they are released, or until they
+ * are garbage collected without being released, when the pool reclaims them.
+ *
+ * @author Valery Tschopp <tschopp@switch.ch>
+ * @see PooledHttpClientBuilder
+ */
+public class PooledHttpConnectionManager extends
+        MultiThreadedHttpConnectionManager {
+
+    /**
+     * The leased connections, weakly referenced: a connection never released
+     * is removed when it is garbage collected.
+     */
+    private Map<HttpConnection, Boolean> leased_ = new WeakHashMap<HttpConnection, Boolean>();
+
+    /** Maximal number of connections leased at the same time */
+    private AtomicInteger peakInUse_ = new AtomicInteger();
+
+    /** Number of leases */
+    private AtomicLong leases_ = new AtomicLong();
+
+    /** Number of leases returning an already open connection */
+    private AtomicLong reused_ = new AtomicLong();
+
+    /** Total time (millis) waiting for a connection */
+    private AtomicLong waitTime_ = new AtomicLong();
+
+    public HttpConnection getConnectionWithTimeout(
+            HostConfiguration hostConfiguration, long timeout)
+            throws ConnectionPoolTimeoutException {
+        long start = System.currentTimeMillis();
+        HttpConnection connection = super.getConnectionWithTimeout(hostConfiguration,
+                                                                   timeout);
+        waitTime_.addAndGet(System.currentTimeMillis() - start);
+        leases_.incrementAndGet();
+        if (connection.isOpen()) {
+            reused_.incrementAndGet();
+        }
+        int inUse;
+        synchronized (leased_) {
+            leased_.put(connection, Boolean.TRUE);
+            inUse = leased_.size();
+        }
+        int peak = peakInUse_.get();
+        while (inUse > peak && !peakInUse_.compareAndSet(peak, inUse)) {
+            peak = peakInUse_.get();
+        }
+        return connection;
+    }
+
+    public void releaseConnection(HttpConnection connection) {
+        super.releaseConnection(connection);
+        synchronized (leased_) {
+            if (leased_.remove(connection) != null) {
+                return;
+            }
+            // released through the leased connection: the pooled connection
+            // it wraps is released, and it no longer has a connection manager
+            Iterator<HttpConnection> leased = leased_.keySet().iterator();
+            while (leased.hasNext()) {
+                if (leased.next().getHttpConnectionManager() == null) {
+                    leased.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of connections currently leased.
+     */
+    public int getLeasedCount() {
+        synchronized (leased_) {
+            return leased_.size();
+        }
+    }
+
+    /**
+     * @return The number of open connections waiting in the pool.
+     */
+    public int getIdleCount() {
+        return Math.max(0, getConnectionsInPool() - getLeasedCount());
+    }
+
+    /**
+     * @return The maximal number of connections leased at the same time.
+     */
+    public int getPeakLeasedCount() {
+        return peakInUse_.get();
+    }
+
+    /**
+     * @return The number of connections leased.
+     */
+    public long getLeaseCount() {
+        return leases_.get();
+    }
+
+    /**
+     * @return The number of leases served by an open (kept-alive)
+     *         connection.
+     */
+    public long getReusedCount() {
+        return reused_.get();
+    }
+
+    /**
+     * @return The total time in millis spent waiting for a connection.
+     */
+    public long getWaitTime() {
+        return waitTime_.get();
+    }
+
+    /**
+     * @return The ratio of leased connections over the maximal total number
+     *         of connections, between <code>0.0</code> and <code>1.0</code>.
+     */
+    public double getUtilisation() {
+        int max = getParams().getMaxTotalConnections();
+        if (max <= 0) {
+            return 0.0;
+        }
+        return (double) getLeasedCount() / max;
+    }
+
+}
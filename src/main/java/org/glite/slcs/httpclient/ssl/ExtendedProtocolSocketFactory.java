@@ -16,13 +16,14 @@
  */
 package org.glite.slcs.httpclient.ssl;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
@@ -31,19 +32,33 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
-import javax.net.SocketFactory;
 import javax.net.ssl.KeyManager;
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509KeyManager;
 import javax.net.ssl.X509TrustManager;
 
 import org.apache.commons.httpclient.ConnectTimeoutException;
 import org.apache.commons.httpclient.params.HttpConnectionParams;
 import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
 import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
+import org.glite.slcs.config.FileConfigurationEvent;
+import org.glite.slcs.config.FileConfigurationListener;
+import org.glite.slcs.config.FileConfigurationMonitor;
+import org.glite.slcs.pki.CertificateBundle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -91,12 +106,19 @@ import org.slf4j.LoggerFactory;
  * </pre>
  * 
  * </p>
+ * <p>
+ * The key and trust material can be reloaded without creating a new factory,
+ * either explicitly with {@link #reload()} or automatically when the keystore
+ * or truststore files change with {@link #startMonitoring(long)}. The
+ * existing sockets are not affected, the new handshakes use the new material.
+ * </p>
  * 
  * @author Valery Tschopp <tschopp@switch.ch>
  */
-public class ExtendedProtocolSocketFactory implements SecureProtocolSocketFactory {
+public class ExtendedProtocolSocketFactory implements SecureProtocolSocketFactory,
+        FileConfigurationListener {
 
-    private static String SSL_CONTEXT_PROTOCOL = "SSL";
+    private static String SSL_CONTEXT_PROTOCOL = "TLS";
 
     /** Log object for this class. */
     private static final Logger LOG = LoggerFactory.getLogger(ExtendedProtocolSocketFactory.class);
@@ -104,6 +126,48 @@ public class ExtendedProtocolSocketFactory implements SecureProtocolSocketFactor
     /** The SSLContext used by the factory to create the SSL sockets */
     private SSLContext sslContext_ = null;
 
+    /** The reloadable key manager of the SSLContext */
+    private ReloadableX509KeyManager keyManager_ = null;
+
+    /** The reloadable trust manager of the SSLContext */
+    private ReloadableX509TrustManager trustManager_ = null;
+
+    /** The keystore path, if loaded from file */
+    private String keystorePath_ = null;
+
+    /** The keystore password, if loaded from file */
+    private String keystorePassword_ = null;
+
+    /** The truststore path, if loaded from file */
+    private String truststorePath_ = null;
+
+    /** The key and trust material was loaded from files, and can be reloaded */
+    private boolean loadedFromFiles_ = false;
+
+    /** Number of full handshakes of the created sockets */
+    private AtomicLong fullHandshakes_ = new AtomicLong(0);
+
+    /** Number of abbreviated (resumed session) handshakes of the created sockets */
+    private AtomicLong resumedHandshakes_ = new AtomicLong(0);
+
+    /** TLS handshake timeout (millis), 0 for the read timeout */
+    private volatile int handshakeTimeout_ = 0;
+
+    /** TCP_NODELAY socket option */
+    private volatile boolean tcpNoDelay_ = true;
+
+    /** SO_KEEPALIVE socket option */
+    private volatile boolean keepAlive_ = true;
+
+    /** The trust decision cache set for the extended trust managers */
+    private TrustDecisionCache trustDecisionCache_ = null;
+
+    /** The trust decision cache was set, possibly to null to disable it */
+    private boolean trustDecisionCacheSet_ = false;
+
+    /** The keystore and truststore file monitors */
+    private List<FileConfigurationMonitor> monitors_ = new ArrayList<FileConfigurationMonitor>();
+
     /**
      * Extends the trust capabilities of the ProtocolSocketFactory with the
      * given TrustStore.
@@ -142,8 +206,12 @@ public class ExtendedProtocolSocketFactory implements SecureProtocolSocketFactor
             GeneralSecurityException {
         super();
 
+        this.keystorePath_ = keystorePath;
+        this.keystorePassword_ = keystorePassword;
+        this.truststorePath_ = truststorePath;
+        this.loadedFromFiles_ = true;
         KeyStore keystore = null;
-        KeyStore truststore = null;
+        X509TrustManager trustManager = null;
         if (keystorePath != null && keystorePassword != null) {
             try {
                 LOG.debug("Create the KeyStore[" + keystorePath + "]");
@@ -159,7 +227,7 @@ public class ExtendedProtocolSocketFactory implements SecureProtocolSocketFactor
         if (truststorePath != null) {
             try {
                 LOG.debug("Create TrustStore[" + truststorePath + "]");
-                truststore = createTrustStore(truststorePath);
+                trustManager = loadX509TrustManager(truststorePath);
             } catch (GeneralSecurityException e) {
                 LOG.error("Failed to create the TrustStore: " + truststorePath,
                         e);
@@ -171,10 +239,14 @@ public class ExtendedProtocolSocketFactory implements SecureProtocolSocketFactor
                 throw e;
             }
         }
+        else {
+            trustManager = createX509TrustManager((KeyStore) null);
+        }
 
         // create the SSL context
-        this.sslContext_ = createSSLContext(keystore, keystorePassword,
-                truststore);
+        this.sslContext_ = createSSLContext(createX509KeyManager(keystore,
+                                                                 keystorePassword),
+                                            trustManager);
 
     }
 
@@ -197,24 +269,53 @@ public class ExtendedProtocolSocketFactory implements SecureProtocolSocketFactor
             String keystorePassword, KeyStore truststore) throws IOException,
             GeneralSecurityException {
         // create the SSL context
-        this.sslContext_ = createSSLContext(keystore, keystorePassword,
-                truststore);
+        this.sslContext_ = createSSLContext(createX509KeyManager(keystore,
+                                                                 keystorePassword),
+                                            createX509TrustManager(truststore));
+    }
+
+    /**
+     * Loads the truststore file or CA bundle, and creates the extended
+     * {@link X509TrustManager}. A CA directory or a PEM bundle file
+     * (<code>*.pem</code>) is indexed with a {@link CertificateBundle}, its
+     * CA are only decoded when a server certificate chain refers to them.
+     * 
+     * @param path
+     *            The truststore filename in classpath or the absolute
+     *            filename, or the CA directory or bundle file.
+     * @return The trust manager.
+     * @throws GeneralSecurityException
+     *             If an error occurs while creating the {@link TrustManager}.
+     * @throws IOException
+     *             If an error occurs while loading the truststore.
+     */
+    private X509TrustManager loadX509TrustManager(String path)
+            throws GeneralSecurityException, IOException {
+        File file = new File(path);
+        if (file.isDirectory() || (file.isFile() && path.endsWith(".pem"))) {
+            LOG.debug("Load truststore from CA bundle: " + path);
+            CertificateBundle bundle = new CertificateBundle();
+            bundle.load(file);
+            X509TrustManager defaultTrustManager = createX509TrustManager((KeyStore) null);
+            LOG.debug("Installing the ExtendedTrustX509TrustManager");
+            return new ExtendedX509TrustManager(bundle, defaultTrustManager);
+        }
+        return createX509TrustManager(createTrustStore(path));
     }
 
     /**
      * Creates and loads a truststore.
      * 
      * @param path
-     *            The truststore filename in classpath or the absolute filename
+     *            The truststore filename in classpath or the absolute
+     *            filename
      * @return A new initialized {@link KeyStore} containing the trust anchors.
-     * @throws KeyStoreException
-     * @throws NoSuchAlgorithmException
-     * @throws CertificateException
+     * @throws GeneralSecurityException
      * @throws IOException
      *             If an error occurs while loading the truststore.
      */
-    private KeyStore createTrustStore(String path) throws KeyStoreException,
-            NoSuchAlgorithmException, CertificateException, IOException {
+    private KeyStore createTrustStore(String path)
+            throws GeneralSecurityException, IOException {
         if (path == null) {
             throw new IllegalArgumentException(
                     "Trust keystore path may not be null");
@@ -227,7 +328,11 @@ public class ExtendedProtocolSocketFactory implements SecureProtocolSocketFactor
             is = new FileInputStream(path);
         }
         KeyStore keystore = KeyStore.getInstance(KeyStore.getDefaultType());
-        keystore.load(is, null);
+        try {
+            keystore.load(is, null);
+        } finally {
+            is.close();
+        }
         return keystore;
     }
 
@@ -264,7 +369,11 @@ public class ExtendedProtocolSocketFactory implements SecureProtocolSocketFactor
             is = new FileInputStream(path);
         }
         KeyStore keystore = KeyStore.getInstance(KeyStore.getDefaultType());
-        keystore.load(is, password.toCharArray());
+        try {
+            keystore.load(is, password.toCharArray());
+        } finally {
+            is.close();
+        }
         return keystore;
     }
 
@@ -322,34 +431,72 @@ public class ExtendedProtocolSocketFactory implements SecureProtocolSocketFactor
      * Creates the {@link SSLContext} used by the {@link ProtocolSocketFactory}
      * to create SSL sockets.
      * 
-     * @param keystore
-     *            The already loaded keystore object
-     * @param keystorePassword
-     *            The password of the keystore.
-     * @param truststore
-     *            The already loaded truststore object
+     * @param keyManager
+     *            The key manager, or <code>null</code>.
+     * @param trustManager
+     *            The trust manager.
      * @return The initialized {@link SSLContext}
      * @throws GeneralSecurityException
-     *             If an error occurs while creating the {@link KeyManager} or
-     *             the {@link TrustManager} or while initializing the
-     *             {@link SSLContext}
+     *             If an error occurs while initializing the {@link SSLContext}
      */
-    private SSLContext createSSLContext(KeyStore keystore,
-            String keystorePassword, KeyStore truststore)
-            throws GeneralSecurityException {
-        KeyManager[] keymanagers = null;
-        TrustManager[] trustmanagers = null;
+    private SSLContext createSSLContext(X509KeyManager keyManager,
+            X509TrustManager trustManager) throws GeneralSecurityException {
         SSLContext sslcontext = null;
         LOG.debug("Create the extended SSLContext");
-        if (keystore != null && keystorePassword != null) {
-            try {
-                LOG.debug("Create the KeyManagers");
-                keymanagers = createKeyManagers(keystore, keystorePassword);
-            } catch (GeneralSecurityException e) {
-                LOG.error("Failed to create the KeyManagers", e);
-                throw e;
+        keyManager_ = new ReloadableX509KeyManager(keyManager);
+        trustManager_ = new ReloadableX509TrustManager(trustManager);
+        try {
+            sslcontext = SSLContext.getInstance(SSL_CONTEXT_PROTOCOL);
+            sslcontext.init(new KeyManager[] { keyManager_ },
+                            new TrustManager[] { trustManager_ }, null);
+        } catch (GeneralSecurityException e) {
+            // e.printStackTrace();
+            LOG.error("Failed to initialize the SSL context", e);
+            throw e;
+        }
+        return sslcontext;
+
+    }
+
+    /**
+     * Creates the {@link X509KeyManager} for the keystore.
+     * 
+     * @return The key manager or <code>null</code> if there is no keystore.
+     * @throws GeneralSecurityException
+     *             If an error occurs while creating the {@link KeyManager}.
+     */
+    private X509KeyManager createX509KeyManager(KeyStore keystore,
+            String keystorePassword) throws GeneralSecurityException {
+        if (keystore == null || keystorePassword == null) {
+            return null;
+        }
+        KeyManager[] keymanagers = null;
+        try {
+            LOG.debug("Create the KeyManagers");
+            keymanagers = createKeyManagers(keystore, keystorePassword);
+        } catch (GeneralSecurityException e) {
+            LOG.error("Failed to create the KeyManagers", e);
+            throw e;
+        }
+        for (int i = 0; i < keymanagers.length; i++) {
+            if (keymanagers[i] instanceof X509KeyManager) {
+                return (X509KeyManager) keymanagers[i];
             }
         }
+        throw new KeyStoreException("No X509KeyManager available");
+    }
+
+    /**
+     * Creates the extended {@link X509TrustManager} for the truststore, or the
+     * default JSSE one if there is no truststore.
+     * 
+     * @return The trust manager.
+     * @throws GeneralSecurityException
+     *             If an error occurs while creating the {@link TrustManager}.
+     */
+    private X509TrustManager createX509TrustManager(KeyStore truststore)
+            throws GeneralSecurityException {
+        TrustManager[] trustmanagers = null;
         if (truststore != null) {
             try {
                 LOG.debug("Create the extended TrustManagers");
@@ -359,16 +506,293 @@ public class ExtendedProtocolSocketFactory implements SecureProtocolSocketFactor
                 throw e;
             }
         }
-        try {
-            sslcontext = SSLContext.getInstance(SSL_CONTEXT_PROTOCOL);
-            sslcontext.init(keymanagers, trustmanagers, null);
-        } catch (GeneralSecurityException e) {
-            // e.printStackTrace();
-            LOG.error("Failed to initialize the SSL context", e);
-            throw e;
+        else {
+            TrustManagerFactory tmfactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmfactory.init((KeyStore) null);
+            trustmanagers = tmfactory.getTrustManagers();
         }
-        return sslcontext;
+        for (int i = 0; i < trustmanagers.length; i++) {
+            if (trustmanagers[i] instanceof X509TrustManager) {
+                return (X509TrustManager) trustmanagers[i];
+            }
+        }
+        throw new KeyStoreException("No X509TrustManager available");
+    }
 
+    /**
+     * Reloads the keystore and truststore files, and replaces the key and
+     * trust material of the {@link SSLContext}. The cached client sessions
+     * are invalidated, the new handshakes use the new material. If the
+     * reload fails, the previous material remains in use.
+     * 
+     * @throws IllegalStateException
+     *             If the factory was not created from keystore and truststore
+     *             files, use {@link #reload(KeyStore, String, KeyStore)}.
+     * @throws IOException
+     *             If an error occurs while loading the keystore or the
+     *             truststore.
+     * @throws GeneralSecurityException
+     *             If an error occurs while creating the managers.
+     */
+    public synchronized void reload() throws IOException,
+            GeneralSecurityException {
+        checkLoadedFromFiles();
+        KeyStore keystore = null;
+        X509TrustManager trustManager = null;
+        if (keystorePath_ != null && keystorePassword_ != null) {
+            LOG.debug("Reload the KeyStore[" + keystorePath_ + "]");
+            keystore = createKeyStore(keystorePath_, keystorePassword_);
+        }
+        if (truststorePath_ != null) {
+            LOG.debug("Reload the TrustStore[" + truststorePath_ + "]");
+            trustManager = loadX509TrustManager(truststorePath_);
+        }
+        else {
+            trustManager = createX509TrustManager((KeyStore) null);
+        }
+        setManagers(createX509KeyManager(keystore, keystorePassword_),
+                    trustManager);
+    }
+
+    /**
+     * Reloading a factory created with already loaded {@link KeyStore}s would
+     * replace its key and trust material with nothing.
+     * 
+     * @throws IllegalStateException
+     *             If the factory was not created from files.
+     */
+    private void checkLoadedFromFiles() {
+        if (!loadedFromFiles_) {
+            throw new IllegalStateException(
+                    "Factory not created from keystore and truststore files, nothing to reload");
+        }
+    }
+
+    /**
+     * Replaces the key and trust material of the {@link SSLContext}. The
+     * cached client sessions are invalidated, the new handshakes use the new
+     * material.
+     * 
+     * @param keystore
+     *            The already loaded keystore object, or <code>null</code>.
+     * @param keystorePassword
+     *            The password of the keystore.
+     * @param truststore
+     *            The already loaded truststore object, or <code>null</code>
+     *            for the JSSE default trust.
+     * @throws GeneralSecurityException
+     *             If an error occurs while creating the managers.
+     */
+    public synchronized void reload(KeyStore keystore,
+            String keystorePassword, KeyStore truststore)
+            throws GeneralSecurityException {
+        X509KeyManager keyManager = createX509KeyManager(keystore,
+                                                         keystorePassword);
+        X509TrustManager trustManager = createX509TrustManager(truststore);
+        setManagers(keyManager, trustManager);
+    }
+
+    /**
+     * Swaps the key and trust managers, both already created, and
+     * invalidates the cached client sessions.
+     */
+    private void setManagers(X509KeyManager keyManager,
+            X509TrustManager trustManager) {
+        keyManager_.setDelegate(keyManager);
+        if (trustDecisionCache_ != null) {
+            // the cached decisions were made with the old trust anchors
+            trustDecisionCache_.clear();
+        }
+        applyTrustDecisionCache(trustManager);
+        trustManager_.setDelegate(trustManager);
+        invalidateSessions();
+        LOG.info("SSLContext key and trust material reloaded");
+    }
+
+    /**
+     * Invalidates the cached client sessions, to force a full handshake.
+     */
+    private void invalidateSessions() {
+        SSLSessionContext sessionContext = sslContext_.getClientSessionContext();
+        if (sessionContext == null) {
+            return;
+        }
+        Enumeration<byte[]> ids = sessionContext.getIds();
+        while (ids.hasMoreElements()) {
+            SSLSession session = sessionContext.getSession(ids.nextElement());
+            if (session != null) {
+                session.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Starts to monitor the keystore and truststore files, and reloads them
+     * when they change. Only the files found in the file system are
+     * monitored, not the ones loaded from the classpath.
+     * 
+     * @param interval
+     *            The time (millis) between 2 checks.
+     * @throws IllegalStateException
+     *             If the factory was not created from keystore and truststore
+     *             files.
+     */
+    public synchronized void startMonitoring(long interval) {
+        checkLoadedFromFiles();
+        stopMonitoring();
+        String[] paths = { keystorePassword_ != null ? keystorePath_ : null,
+                truststorePath_ };
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i] == null) {
+                continue;
+            }
+            File file = new File(paths[i]);
+            if (!file.exists()) {
+                LOG.debug("Not monitored (not in file system): " + paths[i]);
+                continue;
+            }
+            FileConfigurationMonitor monitor = new FileConfigurationMonitor(file,
+                                                                            interval);
+            monitor.addFileConfigurationListener(this);
+            monitor.start();
+            monitors_.add(monitor);
+        }
+    }
+
+    /**
+     * Stops to monitor the keystore and truststore files.
+     */
+    public synchronized void stopMonitoring() {
+        for (FileConfigurationMonitor monitor : monitors_) {
+            monitor.shutdown();
+        }
+        monitors_.clear();
+    }
+
+    /**
+     * Reloads the keystore and truststore when a monitored file changed.
+     * 
+     * @see org.glite.slcs.config.FileConfigurationListener#fileConfigurationChanged(org.glite.slcs.config.FileConfigurationEvent)
+     */
+    public void fileConfigurationChanged(FileConfigurationEvent event) {
+        if (event.getType() == FileConfigurationEvent.FILE_MODIFIED) {
+            try {
+                reload();
+            } catch (IOException e) {
+                LOG.error("Failed to reload the keystore or truststore", e);
+            } catch (GeneralSecurityException e) {
+                LOG.error("Failed to reload the keystore or truststore", e);
+            }
+        }
+    }
+
+    /**
+     * Creates a client {@link SSLEngine} with the key and trust material of
+     * this factory, for a non-blocking {@link SSLEngineChannel}. The engine
+     * shares the client session cache of the sockets.
+     * 
+     * @param host
+     *            The server host name, used to resume the sessions.
+     * @param port
+     *            The server port.
+     * @return The new SSL engine in client mode.
+     */
+    public SSLEngine createSSLEngine(String host, int port) {
+        SSLEngine engine = getSSLContext().createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        return engine;
+    }
+
+    /**
+     * Sets the maximal number of cached client sessions. The sessions are
+     * cached by server host and port, and resumed by the next handshakes with
+     * the same server (TLS 1.2 session ID or TLS 1.3 session ticket).
+     * 
+     * @param size
+     *            The cache size, <code>0</code> for no limit.
+     */
+    public void setSessionCacheSize(int size) {
+        SSLSessionContext sessionContext = sslContext_.getClientSessionContext();
+        if (sessionContext != null) {
+            sessionContext.setSessionCacheSize(size);
+        }
+    }
+
+    /**
+     * Sets the time during which a cached client session can be resumed.
+     * 
+     * @param seconds
+     *            The session timeout in seconds, <code>0</code> for no limit.
+     */
+    public void setSessionTimeout(int seconds) {
+        SSLSessionContext sessionContext = sslContext_.getClientSessionContext();
+        if (sessionContext != null) {
+            sessionContext.setSessionTimeout(seconds);
+        }
+    }
+
+    /**
+     * @return The number of full handshakes of the sockets created by this
+     *         factory.
+     */
+    public long getFullHandshakeCount() {
+        return fullHandshakes_.get();
+    }
+
+    /**
+     * @return The number of resumed session handshakes of the sockets created
+     *         by this factory.
+     */
+    public long getResumedHandshakeCount() {
+        return resumedHandshakes_.get();
+    }
+
+    /**
+     * Registers the handshake counter on the SSL socket.
+     * 
+     * @param socket
+     *            The created socket.
+     * @return The socket.
+     */
+    private Socket configureSocket(Socket socket) {
+        if (socket instanceof SSLSocket) {
+            ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCounter());
+        }
+        return socket;
+    }
+
+    /**
+     * Counts the full and resumed handshakes. A resumed session was created
+     * before the socket.
+     */
+    private class HandshakeCounter implements HandshakeCompletedListener {
+
+        private long created_ = System.currentTimeMillis();
+
+        public void handshakeCompleted(HandshakeCompletedEvent event) {
+            if (event.getSession().getCreationTime() < created_) {
+                resumedHandshakes_.incrementAndGet();
+                LOG.debug("resumed handshake");
+            }
+            else {
+                fullHandshakes_.incrementAndGet();
+                LOG.debug("full handshake");
+            }
+        }
+    }
+
+    /**
+     * @return The reloadable trust manager of the {@link SSLContext}.
+     */
+    ReloadableX509TrustManager getTrustManager() {
+        return trustManager_;
+    }
+
+    /**
+     * @return The reloadable key manager of the {@link SSLContext}.
+     */
+    ReloadableX509KeyManager getKeyManager() {
+        return keyManager_;
     }
 
     /**
@@ -381,33 +805,36 @@ public class ExtendedProtocolSocketFactory implements SecureProtocolSocketFactor
     }
 
     /**
-     * Attempts to get a new socket connection to the given host within the
-     * given time limit.
+     * Connects a new SSL socket to the given host, in three phases with their
+     * own timeout: DNS resolution, TCP connect (connection timeout of the
+     * parameters) and TLS handshake ({@link #setHandshakeTimeout(int)}).
+     * The socket options TCP_NODELAY, SO_KEEPALIVE and the read timeout
+     * (SO_TIMEOUT of the parameters) are applied.
      * <p>
-     * To circumvent the limitations of older JREs that do not support connect
-     * timeout a controller thread is executed. The controller thread attempts
-     * to create a new socket within the given limit of time. If socket
-     * constructor does not return until the timeout expires, the controller
-     * terminates and throws an {@link ConnectTimeoutException}
+     * The connect path does not hold any monitor while blocking, it can be
+     * used from lightweight (virtual) threads. A failure reports the time
+     * spent in each phase.
      * </p>
      * 
      * @param host
      *            the host name/IP
      * @param port
      *            the port on the host
-     * @param clientHost
+     * @param localAddress
      *            the local host name/IP to bind the socket to
-     * @param clientPort
+     * @param localPort
      *            the port on the local machine
      * @param params
      *            {@link HttpConnectionParams Http connection parameters}
      * 
-     * @return Socket a new socket
+     * @return Socket a new connected SSL socket, handshake completed
      * 
      * @throws IOException
      *             if an I/O error occurs while creating the socket
      * @throws UnknownHostException
      *             if the IP address of the host cannot be determined
+     * @throws ConnectTimeoutException
+     *             if the TCP connect or the TLS handshake timed out
      */
     public Socket createSocket(final String host, final int port,
             final InetAddress localAddress, final int localPort,
@@ -416,18 +843,148 @@ public class ExtendedProtocolSocketFactory implements SecureProtocolSocketFactor
         if (params == null) {
             throw new IllegalArgumentException("Parameters may not be null");
         }
-        int timeout = params.getConnectionTimeout();
-        SocketFactory socketfactory = getSSLContext().getSocketFactory();
-        if (timeout == 0) {
-            return socketfactory.createSocket(host, port, localAddress,
-                    localPort);
-        }
-        Socket socket = socketfactory.createSocket();
-        SocketAddress localaddr = new InetSocketAddress(localAddress, localPort);
-        SocketAddress remoteaddr = new InetSocketAddress(host, port);
-        socket.bind(localaddr);
-        socket.connect(remoteaddr, timeout);
-        return socket;
+        int connectTimeout = params.getConnectionTimeout();
+        int readTimeout = params.getSoTimeout();
+        long start = System.nanoTime();
+
+        // DNS
+        InetAddress address;
+        try {
+            address = InetAddress.getByName(host);
+        } catch (UnknownHostException e) {
+            String message = host + ": DNS lookup failed after "
+                    + elapsedMillis(start) + " ms";
+            LOG.warn(message);
+            UnknownHostException uhe = new UnknownHostException(message);
+            uhe.initCause(e);
+            throw uhe;
+        }
+        long dnsTime = elapsedMillis(start);
+
+        // TCP
+        long tcpStart = System.nanoTime();
+        Socket tcpSocket = new Socket();
+        SSLSocket socket = null;
+        try {
+            tcpSocket.setTcpNoDelay(tcpNoDelay_);
+            tcpSocket.setKeepAlive(keepAlive_);
+            tcpSocket.setSoTimeout(readTimeout);
+            tcpSocket.bind(new InetSocketAddress(localAddress, localPort));
+            try {
+                tcpSocket.connect(new InetSocketAddress(address, port),
+                                  connectTimeout);
+            } catch (SocketTimeoutException e) {
+                throw new ConnectTimeoutException(host + ":" + port
+                        + ": TCP connect timed out after "
+                        + elapsedMillis(tcpStart) + " ms (DNS " + dnsTime
+                        + " ms)");
+            }
+            long tcpTime = elapsedMillis(tcpStart);
+
+            // TLS
+            long tlsStart = System.nanoTime();
+            socket = (SSLSocket) configureSocket(getSSLContext().getSocketFactory().createSocket(tcpSocket,
+                                                                                                 host,
+                                                                                                 port,
+                                                                                                 true));
+            if (handshakeTimeout_ > 0) {
+                socket.setSoTimeout(handshakeTimeout_);
+            }
+            try {
+                socket.startHandshake();
+            } catch (SocketTimeoutException e) {
+                throw new ConnectTimeoutException(host + ":" + port
+                        + ": TLS handshake timed out after "
+                        + elapsedMillis(tlsStart) + " ms (DNS " + dnsTime
+                        + " ms, TCP " + tcpTime + " ms)");
+            }
+            socket.setSoTimeout(readTimeout);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(host + ":" + port + " connected: DNS " + dnsTime
+                        + " ms, TCP " + tcpTime + " ms, TLS "
+                        + elapsedMillis(tlsStart) + " ms");
+            }
+            return socket;
+        } catch (IOException e) {
+            LOG.warn("Failed to connect " + host + ":" + port + ": " + e);
+            closeQuietly(socket != null ? socket : tcpSocket);
+            throw e;
+        }
+    }
+
+    /**
+     * Sets the TLS handshake timeout of the sockets created with
+     * {@link HttpConnectionParams}.
+     * 
+     * @param timeout
+     *            The timeout in millis, <code>0</code> to use the read
+     *            timeout.
+     */
+    public void setHandshakeTimeout(int timeout) {
+        this.handshakeTimeout_ = timeout;
+    }
+
+    /**
+     * Enables or disables TCP_NODELAY (Nagle's algorithm disabled) on the
+     * sockets created with {@link HttpConnectionParams}. Default is
+     * <code>true</code>.
+     * 
+     * @param tcpNoDelay
+     *            <code>true</code> to enable TCP_NODELAY.
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay_ = tcpNoDelay;
+    }
+
+    /**
+     * Enables or disables SO_KEEPALIVE on the sockets created with
+     * {@link HttpConnectionParams}. Default is <code>true</code>.
+     * 
+     * @param keepAlive
+     *            <code>true</code> to enable SO_KEEPALIVE.
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive_ = keepAlive;
+    }
+
+    /**
+     * Sets the cache of the server certificate chain trust decisions of the
+     * {@link ExtendedX509TrustManager}. The setting is kept by the factory
+     * and applied to the trust manager created by each reload. Per default
+     * each trust manager has its own {@link TrustDecisionCache}.
+     * 
+     * @param cache
+     *            The trust decision cache, or <code>null</code> to disable
+     *            the caching.
+     */
+    public synchronized void setTrustDecisionCache(TrustDecisionCache cache) {
+        trustDecisionCache_ = cache;
+        trustDecisionCacheSet_ = true;
+        applyTrustDecisionCache(trustManager_.getDelegate());
+    }
+
+    /**
+     * Applies the trust decision cache setting, if any, to an
+     * {@link ExtendedX509TrustManager}.
+     */
+    private void applyTrustDecisionCache(X509TrustManager trustManager) {
+        if (trustDecisionCacheSet_
+                && trustManager instanceof ExtendedX509TrustManager) {
+            ((ExtendedX509TrustManager) trustManager)
+                    .setTrustDecisionCache(trustDecisionCache_);
+        }
+    }
+
+    static private long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000L;
+    }
+
+    static private void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignored
+        }
     }
 
     /**
@@ -435,8 +992,8 @@ public class ExtendedProtocolSocketFactory implements SecureProtocolSocketFactor
      */
     public Socket createSocket(String host, int port, InetAddress clientHost,
             int clientPort) throws IOException, UnknownHostException {
-        return getSSLContext().getSocketFactory().createSocket(host, port,
-                clientHost, clientPort);
+        return configureSocket(getSSLContext().getSocketFactory().createSocket(host,
+                port, clientHost, clientPort));
     }
 
     /**
@@ -444,7 +1001,8 @@ public class ExtendedProtocolSocketFactory implements SecureProtocolSocketFactor
      */
     public Socket createSocket(String host, int port) throws IOException,
             UnknownHostException {
-        return getSSLContext().getSocketFactory().createSocket(host, port);
+        return configureSocket(getSSLContext().getSocketFactory().createSocket(host,
+                port));
     }
 
     /**
@@ -452,7 +1010,7 @@ public class ExtendedProtocolSocketFactory implements SecureProtocolSocketFactor
      */
     public Socket createSocket(Socket socket, String host, int port,
             boolean autoClose) throws IOException, UnknownHostException {
-        return getSSLContext().getSocketFactory().createSocket(socket, host,
-                port, autoClose);
+        return configureSocket(getSSLContext().getSocketFactory().createSocket(socket,
+                host, port, autoClose));
     }
 }
@@ -16,6 +16,7 @@
  */
 package org.glite.slcs.httpclient.ssl;
 
+import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -27,11 +28,22 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.net.ssl.X509TrustManager;
+import javax.security.auth.x500.X500Principal;
 
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.asn1.x509.X509Extension;
+import org.bouncycastle.x509.extension.X509ExtensionUtil;
+import org.glite.slcs.pki.CertificateBundle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,6 +63,21 @@ public class ExtendedX509TrustManager implements X509TrustManager {
      */
     private List<X509Certificate> trustedIssuers_ = null;
 
+    /** The trusted certificates, for hash lookup */
+    private Set<X509Certificate> trustedCertificates_ = null;
+
+    /** The trusted issuers indexed by subject DN */
+    private Map<X500Principal, List<X509Certificate>> trustedIssuersBySubject_ = null;
+
+    /** The trusted issuers indexed by subject key identifier (hex) */
+    private Map<String, List<X509Certificate>> trustedIssuersByKeyId_ = null;
+
+    /** The trusted CA bundle, decoded on lookup, or null for a trust store */
+    private CertificateBundle trustedBundle_ = null;
+
+    /** Cache of the server chain trust decisions, can be null */
+    private volatile TrustDecisionCache trustDecisionCache_ = new TrustDecisionCache();
+
     /** Log object for this class. */
     private static final Logger LOG = LoggerFactory.getLogger(ExtendedX509TrustManager.class);
 
@@ -75,6 +102,16 @@ public class ExtendedX509TrustManager implements X509TrustManager {
 
         defaultTrustManager_ = defaultTrustManager;
         trustedIssuers_ = createTrustedIssuers(trustStore);
+        trustedCertificates_ = new HashSet<X509Certificate>(trustedIssuers_);
+        trustedIssuersBySubject_ = new HashMap<X500Principal, List<X509Certificate>>();
+        trustedIssuersByKeyId_ = new HashMap<String, List<X509Certificate>>();
+        for (X509Certificate issuer : trustedIssuers_) {
+            addToIndex(trustedIssuersBySubject_, issuer.getSubjectX500Principal(), issuer);
+            String keyId = getSubjectKeyIdentifier(issuer);
+            if (keyId != null) {
+                addToIndex(trustedIssuersByKeyId_, keyId, issuer);
+            }
+        }
 
         if (LOG.isDebugEnabled()) {
             // dumpTrustStore(trustStore);
@@ -82,6 +119,34 @@ public class ExtendedX509TrustManager implements X509TrustManager {
         }
     }
 
+    /**
+     * Constructor for ExtendedX509TrustManager with the additional trusted CA
+     * of a {@link CertificateBundle}. The trusted CA are looked up by subject
+     * DN in the bundle index, and only decoded when a server certificate
+     * chain refers to them.
+     * 
+     * @param bundle
+     *            The CA bundle containing the additional trusted CA.
+     * @param defaultTrustManager
+     *            The default JSSE X509TrustManager
+     */
+    public ExtendedX509TrustManager(CertificateBundle bundle,
+            X509TrustManager defaultTrustManager) {
+        super();
+        if (bundle == null) {
+            throw new IllegalArgumentException("CA bundle may not be null");
+        }
+        if (defaultTrustManager == null) {
+            throw new IllegalArgumentException("Default X509TrustManager may not be null");
+        }
+
+        defaultTrustManager_ = defaultTrustManager;
+        trustedBundle_ = bundle;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Trusted Issuers: " + bundle.size() + " CA in bundle");
+        }
+    }
+
     static protected List<X509Certificate> createTrustedIssuers(KeyStore truststore)
             throws KeyStoreException {
         List<X509Certificate> trustedcerts = new ArrayList<X509Certificate>();
@@ -96,6 +161,64 @@ public class ExtendedX509TrustManager implements X509TrustManager {
         return trustedcerts;
     }
 
+    static private <K> void addToIndex(Map<K, List<X509Certificate>> index,
+            K key, X509Certificate cert) {
+        List<X509Certificate> certs = index.get(key);
+        if (certs == null) {
+            certs = new ArrayList<X509Certificate>(1);
+            index.put(key, certs);
+        }
+        certs.add(cert);
+    }
+
+    /**
+     * @return The subject key identifier (hex) of the certificate or
+     *         <code>null</code> if the certificate doesn't have the
+     *         extension.
+     */
+    static protected String getSubjectKeyIdentifier(X509Certificate cert) {
+        byte[] extension = cert.getExtensionValue(X509Extension.subjectKeyIdentifier.getId());
+        if (extension == null) {
+            return null;
+        }
+        try {
+            SubjectKeyIdentifier ski = SubjectKeyIdentifier.getInstance(X509ExtensionUtil.fromExtensionValue(extension));
+            return byteArrayToHex(ski.getKeyIdentifier());
+        } catch (IOException e) {
+            LOG.warn("Invalid SubjectKeyIdentifier: " + cert.getSubjectX500Principal());
+            return null;
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Invalid SubjectKeyIdentifier: " + cert.getSubjectX500Principal());
+            return null;
+        }
+    }
+
+    /**
+     * @return The authority key identifier (hex) of the certificate or
+     *         <code>null</code> if the certificate doesn't have the
+     *         extension or the key identifier.
+     */
+    static protected String getAuthorityKeyIdentifier(X509Certificate cert) {
+        byte[] extension = cert.getExtensionValue(X509Extension.authorityKeyIdentifier.getId());
+        if (extension == null) {
+            return null;
+        }
+        try {
+            AuthorityKeyIdentifier aki = AuthorityKeyIdentifier.getInstance(X509ExtensionUtil.fromExtensionValue(extension));
+            byte[] keyId = aki.getKeyIdentifier();
+            if (keyId == null) {
+                return null;
+            }
+            return byteArrayToHex(keyId);
+        } catch (IOException e) {
+            LOG.warn("Invalid AuthorityKeyIdentifier: " + cert.getSubjectX500Principal());
+            return null;
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Invalid AuthorityKeyIdentifier: " + cert.getSubjectX500Principal());
+            return null;
+        }
+    }
+
     static private void dumpTrustedIssuers(List<X509Certificate> trustedIssuers) {
         LOG.debug("Trusted Issuers:");
         for (X509Certificate cert : trustedIssuers) {
@@ -183,6 +306,38 @@ public class ExtendedX509TrustManager implements X509TrustManager {
                 }
             }
         }
+        TrustDecisionCache cache = trustDecisionCache_;
+        if (cache != null) {
+            TrustDecisionCache.Decision decision = cache.get(chain, authType);
+            if (decision != null) {
+                if (decision.isTrusted()) {
+                    LOG.debug("Trusted certificate chain (cached)");
+                    return;
+                }
+                LOG.debug("Untrusted certificate chain (cached)");
+                CertificateException cause = decision.getCause();
+                throw new CertificateException(cause.getMessage(), cause);
+            }
+        }
+        try {
+            checkServerTrustedUncached(chain, authType);
+        } catch (CertificateException e) {
+            if (cache != null) {
+                cache.putUntrusted(chain, authType, e);
+            }
+            throw e;
+        }
+        if (cache != null) {
+            cache.putTrusted(chain, authType);
+        }
+    }
+
+    /**
+     * Checks the server certificate chain with the default JSSE TrustManager,
+     * and then with the trusted issuers.
+     */
+    private void checkServerTrustedUncached(X509Certificate[] chain,
+            String authType) throws CertificateException {
         try {
             // delegate to default JSSE TrustManager
             defaultTrustManager_.checkServerTrusted(chain, authType);
@@ -216,6 +371,26 @@ public class ExtendedX509TrustManager implements X509TrustManager {
         }
     }
 
+    /**
+     * Sets the cache of the server certificate chain trust decisions. Per
+     * default a {@link TrustDecisionCache} with the default size and
+     * time-to-live is used.
+     * 
+     * @param cache
+     *            The trust decision cache, or <code>null</code> to disable
+     *            the caching.
+     */
+    public void setTrustDecisionCache(TrustDecisionCache cache) {
+        this.trustDecisionCache_ = cache;
+    }
+
+    /**
+     * @return The trust decision cache, or <code>null</code> if disabled.
+     */
+    public TrustDecisionCache getTrustDecisionCache() {
+        return trustDecisionCache_;
+    }
+
     /**
      * Checks if the certificate is store in our trust store.
      * 
@@ -225,7 +400,53 @@ public class ExtendedX509TrustManager implements X509TrustManager {
      *         hashtable as value.
      */
     protected boolean isCertificateTrusted(X509Certificate cert) {
-        return trustedIssuers_.contains(cert);
+        if (trustedBundle_ != null) {
+            return getBundleCertificates(cert.getSubjectX500Principal()).contains(cert);
+        }
+        return trustedCertificates_.contains(cert);
+    }
+
+    /**
+     * Returns the trusted issuers which may have signed the certificate:
+     * the issuers matching the certificate authority key identifier, or else
+     * the issuers matching the certificate issuer DN.
+     * 
+     * @param cert
+     *            The X509 certificate to check.
+     * @return The candidate issuers, empty if none match.
+     */
+    protected List<X509Certificate> getCandidateIssuers(X509Certificate cert) {
+        if (trustedBundle_ != null) {
+            // the bundle is only indexed by subject DN
+            return getBundleCertificates(cert.getIssuerX500Principal());
+        }
+        List<X509Certificate> candidates = null;
+        String keyId = getAuthorityKeyIdentifier(cert);
+        if (keyId != null) {
+            candidates = trustedIssuersByKeyId_.get(keyId);
+        }
+        if (candidates == null) {
+            candidates = trustedIssuersBySubject_.get(cert.getIssuerX500Principal());
+        }
+        if (candidates == null) {
+            return Collections.emptyList();
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns the bundle certificates with the given subject DN, decoded on
+     * the first lookup.
+     * 
+     * @return The certificates, empty if none match or can not be decoded.
+     */
+    private List<X509Certificate> getBundleCertificates(X500Principal subject) {
+        try {
+            return trustedBundle_.getCertificates(subject);
+        } catch (GeneralSecurityException e) {
+            LOG.warn("Failed to decode the trusted CA: " + subject, e);
+            return Collections.emptyList();
+        }
     }
 
     /**
@@ -241,7 +462,7 @@ public class ExtendedX509TrustManager implements X509TrustManager {
         //TODO: checks CA CRL
         // checks if an trusted issuer have signed the certificate
         boolean trusted = false;
-        for (X509Certificate issuer : trustedIssuers_) {
+        for (X509Certificate issuer : getCandidateIssuers(cert)) {
             PublicKey issuerPublicKey = issuer.getPublicKey();
             try {
                 if (LOG.isDebugEnabled()) {
@@ -266,16 +487,25 @@ public class ExtendedX509TrustManager implements X509TrustManager {
 
     /**
      * Merges the system wide accepted issuers and the own ones and returns
-     * them.
+     * them. All the certificates of a CA bundle are decoded.
      * 
      * @return Array of X509 certificates of the accepted issuers.
      * @see javax.net.ssl.X509TrustManager#getAcceptedIssuers()
      */
     public X509Certificate[] getAcceptedIssuers() {
         X509Certificate[] defaultAcceptedIssuers = defaultTrustManager_.getAcceptedIssuers();
+        List<X509Certificate> trustedIssuers = trustedIssuers_;
+        if (trustedBundle_ != null) {
+            try {
+                trustedIssuers = trustedBundle_.getCertificates();
+            } catch (GeneralSecurityException e) {
+                LOG.warn("Failed to decode the trusted CA bundle", e);
+                trustedIssuers = Collections.emptyList();
+            }
+        }
 
         // merge JSSE default and trusted CA from truststore
-        int length = trustedIssuers_.size() + defaultAcceptedIssuers.length;
+        int length = trustedIssuers.size() + defaultAcceptedIssuers.length;
         X509Certificate[] allAcceptedIssuers = new X509Certificate[length];
         int i = 0;
         for (int j = 0; j < defaultAcceptedIssuers.length; j++) {
@@ -283,7 +513,7 @@ public class ExtendedX509TrustManager implements X509TrustManager {
             allAcceptedIssuers[i] = certificate;
             i++;
         }
-        for (X509Certificate certificate : trustedIssuers_) {
+        for (X509Certificate certificate : trustedIssuers) {
             allAcceptedIssuers[i] = certificate;
             i++;
         }
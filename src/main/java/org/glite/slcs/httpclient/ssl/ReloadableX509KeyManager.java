@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.httpclient.ssl;
+
+import java.net.Socket;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509KeyManager;
+
+/**
+ * ReloadableX509KeyManager delegates to a {@link X509KeyManager} which can be
+ * atomically replaced, for example when the client credential is renewed.
+ * The handshakes in progress complete with the previous delegate, the new
+ * handshakes use the new one.
+ * <p>
+ * Without delegate, no client credential is available.
+ *
+ * @author Valery Tschopp <tschopp@switch.ch>
+ */
+public class ReloadableX509KeyManager extends X509ExtendedKeyManager {
+
+    /** The current delegate, can be null */
+    private volatile X509KeyManager delegate_ = null;
+
+    /**
+     * Creates a reloadable key manager.
+     *
+     * @param delegate
+     *            The initial delegate, can be <code>null</code>.
+     */
+    public ReloadableX509KeyManager(X509KeyManager delegate) {
+        this.delegate_ = delegate;
+    }
+
+    /**
+     * Replaces the delegate.
+     *
+     * @param delegate
+     *            The new delegate, can be <code>null</code>.
+     */
+    public void setDelegate(X509KeyManager delegate) {
+        this.delegate_ = delegate;
+    }
+
+    /**
+     * @return The current delegate, can be <code>null</code>.
+     */
+    public X509KeyManager getDelegate() {
+        return delegate_;
+    }
+
+    public String chooseClientAlias(String[] keyType, Principal[] issuers,
+            Socket socket) {
+        X509KeyManager delegate = delegate_;
+        if (delegate == null) {
+            return null;
+        }
+        return delegate.chooseClientAlias(keyType, issuers, socket);
+    }
+
+    public String chooseServerAlias(String keyType, Principal[] issuers,
+            Socket socket) {
+        X509KeyManager delegate = delegate_;
+        if (delegate == null) {
+            return null;
+        }
+        return delegate.chooseServerAlias(keyType, issuers, socket);
+    }
+
+    public String chooseEngineClientAlias(String[] keyType,
+            Principal[] issuers, SSLEngine engine) {
+        X509KeyManager delegate = delegate_;
+        if (delegate instanceof X509ExtendedKeyManager) {
+            return ((X509ExtendedKeyManager) delegate).chooseEngineClientAlias(keyType,
+                                                                               issuers,
+                                                                               engine);
+        }
+        return null;
+    }
+
+    public String chooseEngineServerAlias(String keyType, Principal[] issuers,
+            SSLEngine engine) {
+        X509KeyManager delegate = delegate_;
+        if (delegate instanceof X509ExtendedKeyManager) {
+            return ((X509ExtendedKeyManager) delegate).chooseEngineServerAlias(keyType,
+                                                                               issuers,
+                                                                               engine);
+        }
+        return null;
+    }
+
+    public X509Certificate[] getCertificateChain(String alias) {
+        X509KeyManager delegate = delegate_;
+        if (delegate == null) {
+            return null;
+        }
+        return delegate.getCertificateChain(alias);
+    }
+
+    public String[] getClientAliases(String keyType, Principal[] issuers) {
+        X509KeyManager delegate = delegate_;
+        if (delegate == null) {
+            return null;
+        }
+        return delegate.getClientAliases(keyType, issuers);
+    }
+
+    public String[] getServerAliases(String keyType, Principal[] issuers) {
+        X509KeyManager delegate = delegate_;
+        if (delegate == null) {
+            return null;
+        }
+        return delegate.getServerAliases(keyType, issuers);
+    }
+
+    public PrivateKey getPrivateKey(String alias) {
+        X509KeyManager delegate = delegate_;
+        if (delegate == null) {
+            return null;
+        }
+        return delegate.getPrivateKey(alias);
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.httpclient.ssl;
+
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * ReloadableX509TrustManager delegates to a {@link X509TrustManager} which can
+ * be atomically replaced, for example when a trusted CA is added to the
+ * truststore. The handshakes in progress complete with the previous
+ * delegate, the new handshakes use the new one.
+ *
+ * @author Valery Tschopp <tschopp@switch.ch>
+ */
+public class ReloadableX509TrustManager implements X509TrustManager {
+
+    /** The current delegate */
+    private volatile X509TrustManager delegate_ = null;
+
+    /**
+     * Creates a reloadable trust manager.
+     *
+     * @param delegate
+     *            The initial delegate.
+     */
+    public ReloadableX509TrustManager(X509TrustManager delegate) {
+        setDelegate(delegate);
+    }
+
+    /**
+     * Replaces the delegate.
+     *
+     * @param delegate
+     *            The new delegate.
+     */
+    public void setDelegate(X509TrustManager delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("X509TrustManager delegate may not be null");
+        }
+        this.delegate_ = delegate;
+    }
+
+    /**
+     * @return The current delegate.
+     */
+    public X509TrustManager getDelegate() {
+        return delegate_;
+    }
+
+    public void checkClientTrusted(X509Certificate[] chain, String authType)
+            throws CertificateException {
+        delegate_.checkClientTrusted(chain, authType);
+    }
+
+    public void checkServerTrusted(X509Certificate[] chain, String authType)
+            throws CertificateException {
+        delegate_.checkServerTrusted(chain, authType);
+    }
+
+    public X509Certificate[] getAcceptedIssuers() {
+        return delegate_.getAcceptedIssuers();
+    }
+
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.httpclient.ssl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SSLEngineChannel is a non-blocking SSL/TLS {@link ByteChannel} over a
+ * {@link SocketChannel}, driven by an {@link SSLEngine}. Many channels can be
+ * multiplexed on a single thread with a {@link java.nio.channels.Selector}.
+ * <p>
+ * None of the methods block: {@link #doHandshake()}, {@link #read(ByteBuffer)}
+ * and {@link #write(ByteBuffer)} progress as far as the socket allows, and
+ * must be called again when the socket is ready for the
+ * {@link #getInterestOps() interest operations}. The encrypted data not yet
+ * written to the socket is kept and sent by {@link #flush()}.
+ * <p>
+ * The delegated tasks of the engine (certificate validation, key exchange)
+ * are run in the calling thread.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * SocketChannel socketChannel = SocketChannel.open();
+ * socketChannel.configureBlocking(false);
+ * socketChannel.connect(new InetSocketAddress(host, port));
+ * SSLEngineChannel channel = new SSLEngineChannel(socketChannel,
+ *         factory.createSSLEngine(host, port));
+ * ...
+ * // when connected and ready
+ * if (channel.doHandshake()) {
+ *     channel.write(request);
+ * }
+ * socketChannel.register(selector, channel.getInterestOps(), channel);
+ * </pre>
+ *
+ * @author Valery Tschopp <tschopp@switch.ch>
+ * @see ExtendedProtocolSocketFactory#createSSLEngine(String, int)
+ */
+public class SSLEngineChannel implements ByteChannel {
+
+    /** Log object for this class. */
+    private static final Logger LOG = LoggerFactory.getLogger(SSLEngineChannel.class);
+
+    /** Empty application buffer for the handshake wrap */
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /** The underlying socket channel */
+    private SocketChannel channel_ = null;
+
+    /** The SSL engine */
+    private SSLEngine engine_ = null;
+
+    /** Encrypted data read from the socket, in fill mode */
+    private ByteBuffer netIn_ = null;
+
+    /** Encrypted data to write to the socket, in drain mode */
+    private ByteBuffer netOut_ = null;
+
+    /** Decrypted application data not yet read, in fill mode */
+    private ByteBuffer appIn_ = null;
+
+    /** Handshake started */
+    private boolean handshakeStarted_ = false;
+
+    /** Initial handshake completed */
+    private boolean handshakeCompleted_ = false;
+
+    /** End of stream reached on the socket or closed by the peer */
+    private boolean inboundClosed_ = false;
+
+    /**
+     * Creates a SSL channel over the socket channel.
+     *
+     * @param channel
+     *            The socket channel, connected or connecting, in non-blocking
+     *            mode.
+     * @param engine
+     *            The SSL engine, in client or server mode.
+     */
+    public SSLEngineChannel(SocketChannel channel, SSLEngine engine) {
+        if (channel == null) {
+            throw new IllegalArgumentException("SocketChannel may not be null");
+        }
+        if (engine == null) {
+            throw new IllegalArgumentException("SSLEngine may not be null");
+        }
+        this.channel_ = channel;
+        this.engine_ = engine;
+        SSLSession session = engine.getSession();
+        this.netIn_ = ByteBuffer.allocate(session.getPacketBufferSize());
+        this.netOut_ = ByteBuffer.allocate(session.getPacketBufferSize());
+        this.netOut_.limit(0);
+        this.appIn_ = ByteBuffer.allocate(session.getApplicationBufferSize());
+    }
+
+    /**
+     * Progresses the SSL handshake without blocking.
+     *
+     * @return <code>true</code> if the handshake is completed,
+     *         <code>false</code> if the socket must be ready for the
+     *         {@link #getInterestOps() interest operations} to continue.
+     * @throws IOException
+     *             If the handshake failed or the connection was closed.
+     */
+    public boolean doHandshake() throws IOException {
+        if (handshakeCompleted_) {
+            return flush();
+        }
+        if (!channel_.isConnected() && !channel_.finishConnect()) {
+            return false;
+        }
+        if (!handshakeStarted_) {
+            LOG.debug("begin handshake");
+            engine_.beginHandshake();
+            handshakeStarted_ = true;
+        }
+        while (true) {
+            HandshakeStatus status = engine_.getHandshakeStatus();
+            switch (status) {
+            case NOT_HANDSHAKING:
+            case FINISHED:
+                if (!flush()) {
+                    return false;
+                }
+                LOG.debug("handshake completed");
+                handshakeCompleted_ = true;
+                return true;
+            case NEED_TASK:
+                runDelegatedTasks();
+                break;
+            case NEED_WRAP:
+                if (!flush()) {
+                    return false;
+                }
+                wrap(EMPTY);
+                break;
+            default:
+                // NEED_UNWRAP
+                if (!flush()) {
+                    return false;
+                }
+                SSLEngineResult result = unwrap();
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    int read = channel_.read(netIn_);
+                    if (read < 0) {
+                        inboundClosed_ = true;
+                        throw new EOFException("Connection closed during handshake");
+                    }
+                    if (read == 0) {
+                        return false;
+                    }
+                }
+                else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("SSLEngine closed during handshake");
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the decrypted application data without blocking.
+     *
+     * @param dst
+     *            The buffer to read into.
+     * @return The number of bytes read, <code>0</code> if no data is
+     *         available yet, or <code>-1</code> if the connection is closed.
+     * @throws IOException
+     *             If an error occurs.
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        if (!handshakeCompleted_ && !doHandshake()) {
+            return 0;
+        }
+        while (appIn_.position() == 0) {
+            if (inboundClosed_) {
+                return -1;
+            }
+            SSLEngineResult result = unwrap();
+            processPostHandshake();
+            switch (result.getStatus()) {
+            case BUFFER_UNDERFLOW:
+                int read = channel_.read(netIn_);
+                if (read < 0) {
+                    inboundClosed_ = true;
+                    return -1;
+                }
+                if (read == 0) {
+                    return 0;
+                }
+                break;
+            case CLOSED:
+                inboundClosed_ = true;
+                break;
+            default:
+                // OK: application data or post handshake message
+                break;
+            }
+        }
+        appIn_.flip();
+        int length = Math.min(appIn_.remaining(), dst.remaining());
+        int limit = appIn_.limit();
+        appIn_.limit(appIn_.position() + length);
+        dst.put(appIn_);
+        appIn_.limit(limit);
+        appIn_.compact();
+        return length;
+    }
+
+    /**
+     * Encrypts and writes the application data without blocking. The
+     * encrypted data which can not be written immediately is kept, and sent
+     * by {@link #flush()}.
+     *
+     * @param src
+     *            The buffer to write.
+     * @return The number of bytes consumed from the buffer.
+     * @throws IOException
+     *             If an error occurs.
+     */
+    public int write(ByteBuffer src) throws IOException {
+        if (!handshakeCompleted_ && !doHandshake()) {
+            return 0;
+        }
+        int consumed = 0;
+        while (src.hasRemaining() && flush()) {
+            SSLEngineResult result = wrap(src);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("SSLEngine closed");
+            }
+            consumed += result.bytesConsumed();
+        }
+        flush();
+        return consumed;
+    }
+
+    /**
+     * Writes the pending encrypted data to the socket without blocking.
+     *
+     * @return <code>true</code> if all the encrypted data was written.
+     * @throws IOException
+     *             If an error occurs.
+     */
+    public boolean flush() throws IOException {
+        while (netOut_.hasRemaining()) {
+            if (channel_.write(netOut_) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The {@link SelectionKey} operations the socket must be ready
+     *         for to continue: {@link SelectionKey#OP_CONNECT},
+     *         {@link SelectionKey#OP_WRITE} or {@link SelectionKey#OP_READ}.
+     */
+    public int getInterestOps() {
+        if (channel_.isConnectionPending()) {
+            return SelectionKey.OP_CONNECT;
+        }
+        if (netOut_.hasRemaining()) {
+            return SelectionKey.OP_WRITE;
+        }
+        if (!handshakeCompleted_
+                && engine_.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+            return SelectionKey.OP_WRITE;
+        }
+        return SelectionKey.OP_READ;
+    }
+
+    /**
+     * @return <code>true</code> if the initial handshake is completed.
+     */
+    public boolean isHandshakeCompleted() {
+        return handshakeCompleted_;
+    }
+
+    /**
+     * @return The SSL session of the engine.
+     */
+    public SSLSession getSession() {
+        return engine_.getSession();
+    }
+
+    /**
+     * @return The underlying socket channel.
+     */
+    public SocketChannel getSocketChannel() {
+        return channel_;
+    }
+
+    public boolean isOpen() {
+        return channel_.isOpen();
+    }
+
+    /**
+     * Sends the close_notify alert, if possible without blocking, and closes
+     * the socket channel.
+     *
+     * @throws IOException
+     *             If an error occurs while closing the socket channel.
+     */
+    public void close() throws IOException {
+        try {
+            engine_.closeOutbound();
+            if (handshakeStarted_ && flush()) {
+                wrap(EMPTY);
+                flush();
+            }
+        } catch (IOException e) {
+            LOG.debug("Failed to send close_notify: " + e);
+        } finally {
+            channel_.close();
+        }
+    }
+
+    /**
+     * Encrypts the application data into the empty network output buffer,
+     * enlarging the buffer if needed.
+     */
+    private SSLEngineResult wrap(ByteBuffer src) throws SSLException {
+        while (true) {
+            netOut_.clear();
+            SSLEngineResult result;
+            try {
+                result = engine_.wrap(src, netOut_);
+            } finally {
+                netOut_.flip();
+            }
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                // nothing wrapped, the buffer is empty
+                netOut_.clear();
+                netOut_ = enlarge(netOut_, engine_.getSession().getPacketBufferSize());
+                continue;
+            }
+            if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Decrypts the network input buffer into the application input buffer,
+     * enlarging the buffers if needed.
+     */
+    private SSLEngineResult unwrap() throws SSLException {
+        while (true) {
+            netIn_.flip();
+            SSLEngineResult result;
+            try {
+                result = engine_.unwrap(netIn_, appIn_);
+            } finally {
+                netIn_.compact();
+            }
+            switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                appIn_ = enlarge(appIn_, engine_.getSession().getApplicationBufferSize());
+                break;
+            case BUFFER_UNDERFLOW:
+                if (netIn_.position() == netIn_.capacity()) {
+                    netIn_ = enlarge(netIn_, engine_.getSession().getPacketBufferSize());
+                }
+                return result;
+            default:
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Handles the post handshake messages (TLS 1.3 session tickets, key
+     * updates) received with the application data.
+     */
+    private void processPostHandshake() throws IOException {
+        while (true) {
+            HandshakeStatus status = engine_.getHandshakeStatus();
+            if (status == HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+            }
+            else if (status == HandshakeStatus.NEED_WRAP) {
+                if (!flush()) {
+                    return;
+                }
+                wrap(EMPTY);
+                flush();
+            }
+            else {
+                return;
+            }
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine_.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * @return A larger buffer containing the data of the buffer, in fill
+     *         mode.
+     */
+    static private ByteBuffer enlarge(ByteBuffer buffer, int minCapacity) {
+        int capacity = Math.max(minCapacity, buffer.capacity() * 2);
+        ByteBuffer enlarged = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        enlarged.put(buffer);
+        return enlarged;
+    }
+
+}
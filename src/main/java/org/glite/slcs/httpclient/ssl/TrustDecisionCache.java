@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.httpclient.ssl;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import org.glite.slcs.util.LRUCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TrustDecisionCache caches the positive and negative trust decisions of the
+ * server certificate chains, keyed by the chain fingerprint (SHA-256) and
+ * the authentication type. A decision expires after its time-to-live, and is
+ * never served after the <code>notAfter</code> date of a chain certificate.
+ *
+ * @author Valery Tschopp <tschopp@switch.ch>
+ * @see ExtendedX509TrustManager#setTrustDecisionCache(TrustDecisionCache)
+ */
+public class TrustDecisionCache {
+
+    /** Log object for this class. */
+    private static final Logger LOG = LoggerFactory.getLogger(TrustDecisionCache.class);
+
+    /** Default maximal number of cached decisions */
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    /** Default time-to-live (millis) of a positive decision: 5 minutes */
+    public static final long DEFAULT_TRUSTED_TTL = 5 * 60 * 1000;
+
+    /** Default time-to-live (millis) of a negative decision: 30 seconds */
+    public static final long DEFAULT_UNTRUSTED_TTL = 30 * 1000;
+
+    /** Fingerprint digest algorithm */
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /** The cached decisions */
+    private LRUCache<String, Decision> decisions_ = null;
+
+    /** Positive decision time-to-live */
+    private long trustedTTL_ = DEFAULT_TRUSTED_TTL;
+
+    /** Negative decision time-to-live */
+    private long untrustedTTL_ = DEFAULT_UNTRUSTED_TTL;
+
+    /**
+     * Creates a cache with the default size and time-to-live.
+     */
+    public TrustDecisionCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TRUSTED_TTL, DEFAULT_UNTRUSTED_TTL);
+    }
+
+    /**
+     * Creates a trust decision cache.
+     *
+     * @param maxSize
+     *            The maximal number of cached decisions.
+     * @param trustedTTL
+     *            The time-to-live (millis) of a positive decision.
+     * @param untrustedTTL
+     *            The time-to-live (millis) of a negative decision,
+     *            <code>0</code> to not cache negative decisions.
+     */
+    public TrustDecisionCache(int maxSize, long trustedTTL, long untrustedTTL) {
+        this.decisions_ = new LRUCache<String, Decision>(maxSize);
+        this.trustedTTL_ = trustedTTL;
+        this.untrustedTTL_ = untrustedTTL;
+    }
+
+    /**
+     * Returns the cached decision for the chain.
+     *
+     * @param chain
+     *            The certificate chain.
+     * @param authType
+     *            The authentication type.
+     * @return The decision or <code>null</code> if not cached.
+     */
+    public Decision get(X509Certificate[] chain, String authType) {
+        String key = getKey(chain, authType);
+        if (key == null) {
+            return null;
+        }
+        return decisions_.get(key);
+    }
+
+    /**
+     * Caches the positive decision for the chain.
+     *
+     * @param chain
+     *            The trusted certificate chain.
+     * @param authType
+     *            The authentication type.
+     */
+    public void putTrusted(X509Certificate[] chain, String authType) {
+        put(chain, authType, new Decision(null), trustedTTL_);
+    }
+
+    /**
+     * Caches the negative decision for the chain.
+     *
+     * @param chain
+     *            The untrusted certificate chain.
+     * @param authType
+     *            The authentication type.
+     * @param cause
+     *            The reason why the chain is not trusted.
+     */
+    public void putUntrusted(X509Certificate[] chain, String authType,
+            CertificateException cause) {
+        if (untrustedTTL_ > 0) {
+            put(chain, authType, new Decision(cause), untrustedTTL_);
+        }
+    }
+
+    private void put(X509Certificate[] chain, String authType,
+            Decision decision, long ttl) {
+        String key = getKey(chain, authType);
+        if (key == null) {
+            return;
+        }
+        long expirationTime = System.currentTimeMillis() + ttl;
+        for (int i = 0; i < chain.length; i++) {
+            long notAfter = chain[i].getNotAfter().getTime();
+            if (notAfter < expirationTime) {
+                expirationTime = notAfter;
+            }
+        }
+        decisions_.put(key, decision, expirationTime);
+    }
+
+    /**
+     * Removes all the cached decisions.
+     */
+    public void clear() {
+        decisions_.clear();
+    }
+
+    /**
+     * @return The number of decisions served from the cache.
+     */
+    public long getHitCount() {
+        return decisions_.getHitCount();
+    }
+
+    /**
+     * @return The number of lookups without cached decision.
+     */
+    public long getMissCount() {
+        return decisions_.getMissCount();
+    }
+
+    /**
+     * @return The cache key: the authentication type and the chain
+     *         fingerprint, or <code>null</code> if the chain can not be
+     *         encoded.
+     */
+    static private String getKey(X509Certificate[] chain, String authType) {
+        if (chain == null || chain.length == 0) {
+            return null;
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            for (int i = 0; i < chain.length; i++) {
+                md.update(chain[i].getEncoded());
+            }
+            StringBuffer sb = new StringBuffer();
+            sb.append(authType).append(':');
+            byte[] digest = md.digest();
+            for (int i = 0; i < digest.length; i++) {
+                int b = digest[i] & 0xff;
+                if (b < 0x10) {
+                    sb.append('0');
+                }
+                sb.append(Integer.toHexString(b));
+            }
+            return sb.toString();
+        } catch (CertificateEncodingException e) {
+            LOG.warn("Failed to encode certificate chain: " + e);
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            LOG.error("Digest " + DIGEST_ALGORITHM + " not available", e);
+            return null;
+        }
+    }
+
+    /**
+     * A cached trust decision.
+     */
+    static public class Decision {
+
+        private CertificateException cause_;
+
+        Decision(CertificateException cause) {
+            this.cause_ = cause;
+        }
+
+        /**
+         * @return <code>true</code> if the chain is trusted.
+         */
+        public boolean isTrusted() {
+            return cause_ == null;
+        }
+
+        /**
+         * @return The reason why the chain is not trusted, or
+         *         <code>null</code> if trusted.
+         */
+        public CertificateException getCause() {
+            return cause_;
+        }
+    }
+
+}
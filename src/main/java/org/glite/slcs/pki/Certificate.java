@@ -18,12 +18,18 @@ package org.glite.slcs.pki;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.security.GeneralSecurityException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.glite.slcs.pki.bouncycastle.Codec;
-import org.glite.slcs.util.Utils;
+import org.glite.slcs.pki.bouncycastle.PEMCertificateReader;
+import org.glite.slcs.util.SecureFileWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,6 +53,9 @@ public class Certificate {
     /** the certificate chain if any */
     private X509Certificate[] chain_;
 
+    /** DER encoding of the certificate, never modified */
+    private byte[] encoded_;
+
     /**
      * Read a PEM source to extract the certificate and its chain. The
      * certificate must be the first in the source, all others are considered as
@@ -65,23 +74,23 @@ public class Certificate {
         if (LOG.isDebugEnabled()) {
             LOG.debug("read cert and chain...");
         }
-        X509Certificate certificates[]= Codec.readPEMEncodedCertificates(reader);
+        PEMCertificateReader certificates= new PEMCertificateReader(reader);
 
-        // check array size
-        int length= certificates.length;
-        if (length < 1) {
+        // The first is the main cert
+        X509Certificate cert= certificates.readCertificate();
+        if (cert == null) {
             LOG.error("No X509 certificate found in source");
             throw new GeneralSecurityException("No valid X509 certificates found");
         }
-
-        // The first is the main cert
-        X509Certificate cert= certificates[0];
         // all others go in the chain
         X509Certificate chain[]= null;
-        int chainLength= length - 1;
-        if (chainLength > 0) {
-            chain= new X509Certificate[chainLength];
-            System.arraycopy(certificates, 1, chain, 0, chainLength);
+        List<X509Certificate> chainCerts= new ArrayList<X509Certificate>();
+        X509Certificate chainCert;
+        while ((chainCert= certificates.readCertificate()) != null) {
+            chainCerts.add(chainCert);
+        }
+        if (!chainCerts.isEmpty()) {
+            chain= chainCerts.toArray(new X509Certificate[chainCerts.size()]);
         }
         return new Certificate(cert, chain);
     }
@@ -94,7 +103,7 @@ public class Certificate {
      * @param chain
      *            The chain as an array of X509Ceritificate.
      * @throws GeneralSecurityException
-     *             If the certificate is null.
+     *             If the certificate is null or can not be encoded.
      */
     public Certificate(X509Certificate cert, X509Certificate[] chain)
             throws GeneralSecurityException {
@@ -103,6 +112,8 @@ public class Certificate {
         }
         this.cert_= cert;
         this.chain_= chain;
+        // X509Certificate.getEncoded() returns a new copy on each call
+        this.encoded_= cert.getEncoded();
     }
 
     /**
@@ -141,13 +152,8 @@ public class Certificate {
      * @throws IOException
      */
     public void storePEM(File file) throws IOException {
-        boolean permOk= Utils.setFilePermissions(file, CRT_FILE_PERMISSION);
-        if (!permOk) {
-            LOG.warn("Failed to set permission: " + CRT_FILE_PERMISSION
-                    + " for file: " + file);
-        }
-        Codec.storePEMEncoded(this.cert_, this.chain_, file);
-
+        String pem= Codec.getPEMEncoded(cert_, chain_);
+        SecureFileWriter.write(file, pem, CRT_FILE_PERMISSION);
     }
 
     /**
@@ -167,6 +173,50 @@ public class Certificate {
         return sb.toString();
     }
 
+    /**
+     * @return A copy of the DER encoded certificate, without the chain.
+     */
+    public byte[] getDEREncoded() {
+        return encoded_.clone();
+    }
+
+    /**
+     * Returns a read-only view of the DER encoded certificate, without copy.
+     * Each call returns a new buffer, positioned at the beginning.
+     * 
+     * @return The DER encoding buffer.
+     */
+    public ByteBuffer getDEREncodedBuffer() {
+        return ByteBuffer.wrap(encoded_).asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the DER encoded certificate in the stream, without copy.
+     * 
+     * @param out
+     *            The output stream, not closed.
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(encoded_);
+    }
+
+    /**
+     * Writes the DER encoded certificate in the channel, without copy.
+     * 
+     * @param channel
+     *            The channel, not closed.
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer= ByteBuffer.wrap(encoded_);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
     /**
      * @return the X509 certificate
      */
@@ -0,0 +1,537 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.pki;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.Security;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.glite.slcs.util.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CertificateBundle is an index of the X509 certificates contained in PEM or
+ * DER encoded bundle files (CA bundles, CA directories). The files are memory
+ * mapped and only the certificate offsets and subject DN are read at load
+ * time. A certificate is decoded the first time it is requested.
+ * <p>
+ * A file containing a <code>-----BEGIN CERTIFICATE-----</code> marker is read
+ * as PEM, any other file as concatenated DER certificates. For a PEM block
+ * only the Base64 prefix up to the subject DN is decoded at load time, the
+ * whole block when the subject does not fit in the first
+ * {@value #PEM_SUBJECT_PREFIX} bytes.
+ * <p>
+ * The index is keyed by the DER encoded subject DN, a lookup must use the
+ * same encoding, like the issuer {@link X500Principal} of a certificate
+ * issued by the CA.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * CertificateBundle bundle = new CertificateBundle();
+ * bundle.load(new File(&quot;/etc/grid-security/certificates&quot;));
+ * List&lt;X509Certificate&gt; issuers = bundle.getCertificates(cert.getIssuerX500Principal());
+ * </pre>
+ *
+ * @author Valery Tschopp &lt;tschopp@switch.ch&gt;
+ */
+public class CertificateBundle {
+
+    /** Logging */
+    static private Logger LOG = LoggerFactory.getLogger(CertificateBundle.class);
+
+    static {
+        // add only once
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            LOG.info("add BouncyCastle security provider");
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    /** PEM certificate begin marker */
+    static private final byte[] PEM_BEGIN = "-----BEGIN CERTIFICATE-----".getBytes();
+
+    /** PEM certificate end marker */
+    static private final byte[] PEM_END = "-----END CERTIFICATE-----".getBytes();
+
+    /** Decoded length of a PEM block read for the subject DN at load time */
+    static private final int PEM_SUBJECT_PREFIX = 1024;
+
+    /** DER SEQUENCE tag */
+    static private final int DER_SEQUENCE = 0x30;
+
+    /** The indexed certificates, in load order */
+    private List<Entry> entries_ = new ArrayList<Entry>();
+
+    /** The certificate entries, keyed by subject DN */
+    private Map<SubjectKey, List<Entry>> index_ = new HashMap<SubjectKey, List<Entry>>();
+
+    /** The X.509 certificate factory, not thread-safe */
+    private CertificateFactory certificateFactory_ = null;
+
+    /** Number of decoded certificates */
+    private AtomicInteger decoded_ = new AtomicInteger(0);
+
+    /**
+     * Creates an empty bundle.
+     *
+     * @throws GeneralSecurityException
+     *             If the X.509 certificate factory is not available.
+     */
+    public CertificateBundle() throws GeneralSecurityException {
+        certificateFactory_ = CertificateFactory.getInstance("X.509",
+                BouncyCastleProvider.PROVIDER_NAME);
+    }
+
+    /**
+     * Loads and indexes the certificates of the PEM or DER encoded file, or of
+     * all the files in the directory. The files which do not contain
+     * certificates are ignored.
+     *
+     * @param file
+     *            The bundle file or directory.
+     * @return The number of certificates indexed.
+     * @throws IOException
+     *             If an error occurs while mapping or reading a file.
+     */
+    public synchronized int load(File file) throws IOException {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files == null) {
+                throw new IOException("Can not list directory: " + file);
+            }
+            // same order at each start
+            Arrays.sort(files);
+            int count = 0;
+            for (int i = 0; i < files.length; i++) {
+                if (files[i].isFile()) {
+                    count += load(files[i]);
+                }
+            }
+            return count;
+        }
+        ByteBuffer buffer = map(file);
+        int count;
+        if (indexOf(buffer, PEM_BEGIN, 0) >= 0) {
+            count = indexPEM(buffer, file);
+        }
+        else {
+            count = indexDER(buffer, file);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(count + " certificates indexed in " + file);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the certificates with the given subject DN.
+     *
+     * @param subject
+     *            The subject DN.
+     * @return The list of certificates, empty if none match.
+     * @throws GeneralSecurityException
+     *             If a certificate can not be decoded.
+     */
+    public List<X509Certificate> getCertificates(X500Principal subject)
+            throws GeneralSecurityException {
+        List<Entry> entries;
+        synchronized (this) {
+            entries = index_.get(new SubjectKey(subject.getEncoded()));
+            if (entries == null) {
+                return Collections.emptyList();
+            }
+            entries = new ArrayList<Entry>(entries);
+        }
+        List<X509Certificate> certificates = new ArrayList<X509Certificate>(entries.size());
+        for (Entry entry : entries) {
+            certificates.add(decode(entry));
+        }
+        return certificates;
+    }
+
+    /**
+     * Returns all the certificates of the bundle, in load order. All the
+     * certificates are decoded.
+     *
+     * @return The list of certificates.
+     * @throws GeneralSecurityException
+     *             If a certificate can not be decoded.
+     */
+    public List<X509Certificate> getCertificates()
+            throws GeneralSecurityException {
+        List<Entry> entries;
+        synchronized (this) {
+            entries = new ArrayList<Entry>(entries_);
+        }
+        List<X509Certificate> certificates = new ArrayList<X509Certificate>(entries.size());
+        for (Entry entry : entries) {
+            certificates.add(decode(entry));
+        }
+        return certificates;
+    }
+
+    /**
+     * @param subject
+     *            The subject DN.
+     * @return <code>true</code> if the bundle contains a certificate with the
+     *         given subject DN, without decoding it.
+     */
+    public synchronized boolean containsSubject(X500Principal subject) {
+        return index_.containsKey(new SubjectKey(subject.getEncoded()));
+    }
+
+    /**
+     * Creates a truststore containing all the certificates of the bundle as
+     * trusted certificate entries.
+     *
+     * @return The new truststore.
+     * @throws GeneralSecurityException
+     *             If a certificate can not be decoded or stored.
+     * @throws IOException
+     *             Should never occurs for an empty keystore.
+     */
+    public KeyStore createTrustStore() throws GeneralSecurityException,
+            IOException {
+        KeyStore truststore = KeyStore.getInstance(KeyStore.getDefaultType());
+        truststore.load(null, null);
+        List<X509Certificate> certificates = getCertificates();
+        for (int i = 0; i < certificates.size(); i++) {
+            truststore.setCertificateEntry("ca-" + i, certificates.get(i));
+        }
+        return truststore;
+    }
+
+    /**
+     * @return The number of indexed certificates.
+     */
+    public synchronized int size() {
+        return entries_.size();
+    }
+
+    /**
+     * @return The number of certificates decoded so far.
+     */
+    public int getDecodedCount() {
+        return decoded_.get();
+    }
+
+    /**
+     * Decodes the certificate of the entry, only once.
+     */
+    private X509Certificate decode(Entry entry) throws GeneralSecurityException {
+        synchronized (entry) {
+            if (entry.certificate_ == null) {
+                byte[] der = entry.getDER();
+                synchronized (certificateFactory_) {
+                    entry.certificate_ = (X509Certificate) certificateFactory_.generateCertificate(new ByteArrayInputStream(der));
+                }
+                decoded_.incrementAndGet();
+            }
+            return entry.certificate_;
+        }
+    }
+
+    /**
+     * Memory maps the file read-only.
+     */
+    static private ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // the mapping remains valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Indexes all the PEM certificate blocks of the buffer.
+     */
+    private int indexPEM(ByteBuffer buffer, File file) {
+        int count = 0;
+        int position = 0;
+        while (true) {
+            int begin = indexOf(buffer, PEM_BEGIN, position);
+            if (begin < 0) {
+                break;
+            }
+            int start = begin + PEM_BEGIN.length;
+            int end = indexOf(buffer, PEM_END, start);
+            if (end < 0) {
+                LOG.warn("Truncated PEM certificate at offset " + begin
+                        + " in " + file);
+                break;
+            }
+            position = end + PEM_END.length;
+            Entry entry = new Entry(buffer, start, end - start, true);
+            byte[] subject = readSubject(ByteBuffer.wrap(entry.getDER(PEM_SUBJECT_PREFIX)), 0);
+            if (subject == null) {
+                // subject beyond the prefix
+                subject = readSubject(ByteBuffer.wrap(entry.getDER()), 0);
+            }
+            if (subject == null) {
+                LOG.warn("Invalid PEM certificate at offset " + begin + " in "
+                        + file);
+                continue;
+            }
+            add(subject, entry);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Indexes all the concatenated DER certificates of the buffer.
+     */
+    private int indexDER(ByteBuffer buffer, File file) {
+        int count = 0;
+        int position = 0;
+        while (position < buffer.limit()) {
+            int length = getTLVLength(buffer, position);
+            byte[] subject = null;
+            if (length > 0 && buffer.get(position) == DER_SEQUENCE) {
+                subject = readSubject(buffer, position);
+            }
+            if (subject == null) {
+                if (count == 0) {
+                    LOG.debug("No DER certificate in " + file);
+                }
+                else {
+                    LOG.warn("Invalid DER certificate at offset " + position
+                            + " in " + file);
+                }
+                break;
+            }
+            add(subject, new Entry(buffer, position, length, false));
+            position += length;
+            count++;
+        }
+        return count;
+    }
+
+    private void add(byte[] subject, Entry entry) {
+        entries_.add(entry);
+        SubjectKey key = new SubjectKey(subject);
+        List<Entry> entries = index_.get(key);
+        if (entries == null) {
+            entries = new ArrayList<Entry>(1);
+            index_.put(key, entries);
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * Reads the subject DN of the DER encoded certificate starting at the
+     * offset, without decoding the certificate.
+     *
+     * <pre>
+     * Certificate ::= SEQUENCE { tbsCertificate, ... }
+     * TBSCertificate ::= SEQUENCE { [0] version OPTIONAL, serialNumber,
+     *     signature, issuer, validity, subject, ... }
+     * </pre>
+     *
+     * @return The DER encoded subject or <code>null</code> if the structure
+     *         is invalid.
+     */
+    static private byte[] readSubject(ByteBuffer der, int offset) {
+        try {
+            // enter Certificate and TBSCertificate
+            int position = getContentOffset(der, offset);
+            position = getContentOffset(der, position);
+            // skip optional version
+            if ((der.get(position) & 0xff) == 0xa0) {
+                position += getTLVLength(der, position);
+            }
+            // skip serialNumber, signature, issuer, validity
+            for (int i = 0; i < 4; i++) {
+                int length = getTLVLength(der, position);
+                if (length <= 0) {
+                    return null;
+                }
+                position += length;
+            }
+            int length = getTLVLength(der, position);
+            if (length <= 0 || der.get(position) != DER_SEQUENCE) {
+                return null;
+            }
+            byte[] subject = new byte[length];
+            for (int i = 0; i < length; i++) {
+                subject[i] = der.get(position + i);
+            }
+            return subject;
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The offset of the content of the TLV at the offset.
+     */
+    static private int getContentOffset(ByteBuffer der, int offset) {
+        int first = der.get(offset + 1) & 0xff;
+        if (first < 0x80) {
+            return offset + 2;
+        }
+        return offset + 2 + (first & 0x7f);
+    }
+
+    /**
+     * @return The total length (tag, length and content) of the TLV at the
+     *         offset, or <code>-1</code> if the length is not supported.
+     */
+    static private int getTLVLength(ByteBuffer der, int offset) {
+        int first = der.get(offset + 1) & 0xff;
+        if (first < 0x80) {
+            return 2 + first;
+        }
+        int lengthBytes = first & 0x7f;
+        if (lengthBytes == 0 || lengthBytes > 3) {
+            // indefinite or too long
+            return -1;
+        }
+        int length = 0;
+        for (int i = 0; i < lengthBytes; i++) {
+            length = (length << 8) | (der.get(offset + 2 + i) & 0xff);
+        }
+        return 2 + lengthBytes + length;
+    }
+
+    /**
+     * @return The offset of the pattern in the buffer, starting at from, or
+     *         <code>-1</code> if not found.
+     */
+    static private int indexOf(ByteBuffer buffer, byte[] pattern, int from) {
+        int last = buffer.limit() - pattern.length;
+        for (int i = from; i <= last; i++) {
+            int j = 0;
+            while (j < pattern.length && buffer.get(i + j) == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A certificate location in a mapped file.
+     */
+    static private class Entry {
+
+        private ByteBuffer buffer_;
+
+        private int offset_;
+
+        private int length_;
+
+        private boolean pem_;
+
+        /** Decoded certificate, guarded by this */
+        private X509Certificate certificate_ = null;
+
+        Entry(ByteBuffer buffer, int offset, int length, boolean pem) {
+            this.buffer_ = buffer;
+            this.offset_ = offset;
+            this.length_ = length;
+            this.pem_ = pem;
+        }
+
+        /**
+         * @return The DER encoded certificate.
+         */
+        byte[] getDER() {
+            byte[] bytes = new byte[length_];
+            ByteBuffer view = buffer_.duplicate();
+            view.position(offset_);
+            view.get(bytes);
+            if (pem_) {
+                return Base64.decode(bytes);
+            }
+            return bytes;
+        }
+
+        /**
+         * @return The first bytes, at most maxLength, of the DER encoded
+         *         certificate. Only the needed Base64 characters of a PEM
+         *         block are decoded.
+         */
+        byte[] getDER(int maxLength) {
+            if (!pem_) {
+                return getDER();
+            }
+            // 4 Base64 characters for 3 bytes, line breaks skipped
+            byte[] chars = new byte[(maxLength / 3) * 4];
+            int count = 0;
+            for (int i = offset_; i < offset_ + length_ && count < chars.length; i++) {
+                byte b = buffer_.get(i);
+                if (b != '\n' && b != '\r' && b != ' ' && b != '\t') {
+                    chars[count++] = b;
+                }
+            }
+            return Base64.decode(Arrays.copyOf(chars, count));
+        }
+    }
+
+    /**
+     * The DER encoded subject DN as index key.
+     */
+    static private class SubjectKey {
+
+        private byte[] der_;
+
+        private int hashCode_;
+
+        SubjectKey(byte[] der) {
+            this.der_ = der;
+            this.hashCode_ = Arrays.hashCode(der);
+        }
+
+        public int hashCode() {
+            return hashCode_;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SubjectKey)) {
+                return false;
+            }
+            return Arrays.equals(der_, ((SubjectKey) obj).der_);
+        }
+    }
+
+}
@@ -16,12 +16,19 @@
  */
 package org.glite.slcs.pki;
 
+import java.util.List;
+import java.util.Set;
+
 import org.bouncycastle.asn1.DERObjectIdentifier;
 import org.bouncycastle.asn1.x509.X509Extension;
 
 /**
  * CertificateExtension wrapper class to create certificate
  * extension.
+ * <p>
+ * The KeyUsage, ExtendedKeyUsage, SubjectAltName and CertificatePolicies
+ * extensions are decoded once in typed values, to compare them without
+ * parsing them again.
  * 
  * @author Valery Tschopp <tschopp@switch.ch>
  */
@@ -39,8 +46,14 @@ public class CertificateExtension {
     /** The extension name */
     private String name_= null;
 
-    /** the extension value as a descriptive string */
-    private String value_= null;
+    /** the extension value as a descriptive string, null until decoded */
+    private volatile String value_= null;
+
+    /** the decoded typed value, null if not supported */
+    private volatile Object decodedValue_= null;
+
+    /** is the typed value decoded? */
+    private volatile boolean decoded_= false;
 
     /**
      * Creates an non-critical extension with the given extension OID and name
@@ -64,7 +77,8 @@ public class CertificateExtension {
      * Creates an extension with the given extension OID and X509Extension
      * object.
      * <p>
-     * The name is set to the OID and the value is set to NotParsed.
+     * The name and the value are decoded from the extension, the value is
+     * NotParsed for an unsupported extension.
      * 
      * @param oid
      *            The extension OID
@@ -75,7 +89,11 @@ public class CertificateExtension {
      */
     protected CertificateExtension(DERObjectIdentifier oid,
             X509Extension extension, boolean critical) {
-        this(oid, oid.getId(), extension, "NotParsed", critical);
+        this(oid,
+             CertificateExtensionDecoder.getName(oid),
+             extension,
+             null,
+             critical);
     }
 
     /**
@@ -134,7 +152,97 @@ public class CertificateExtension {
      * @return the extension named value(s).
      */
     public String getValue() {
-        return value_;
+        String value= value_;
+        if (value == null) {
+            value= CertificateExtensionDecoder.getFormalValue(oid_,
+                                                              getDecodedValue());
+            if (value == null) {
+                value= "NotParsed";
+            }
+            value_= value;
+        }
+        return value;
+    }
+
+    /**
+     * @return The KeyUsage bitmask (sum of the
+     *         {@link org.bouncycastle.asn1.x509.KeyUsage} values), or
+     *         <code>-1</code> if not a KeyUsage extension.
+     */
+    public int getKeyUsage() {
+        Object value= getDecodedValue();
+        if (value instanceof Integer) {
+            return ((Integer) value).intValue();
+        }
+        return -1;
+    }
+
+    /**
+     * @return The unmodifiable set of key purpose OIDs, or <code>null</code>
+     *         if not an ExtendedKeyUsage extension.
+     */
+    @SuppressWarnings("unchecked")
+    public Set<String> getKeyPurposeIds() {
+        if (!X509Extension.extendedKeyUsage.equals(oid_)) {
+            return null;
+        }
+        return (Set<String>) getDecodedValue();
+    }
+
+    /**
+     * @return The unmodifiable list of alternative names, prefixed with the
+     *         type (<code>email:</code>, <code>dns:</code>, ...), or
+     *         <code>null</code> if not a SubjectAltName extension.
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getSubjectAltNames() {
+        if (!X509Extension.subjectAlternativeName.equals(oid_)) {
+            return null;
+        }
+        return (List<String>) getDecodedValue();
+    }
+
+    /**
+     * @return The unmodifiable list of policy OIDs, or <code>null</code> if
+     *         not a CertificatePolicies extension.
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getPolicyOIDs() {
+        if (!X509Extension.certificatePolicies.equals(oid_)) {
+            return null;
+        }
+        return (List<String>) getDecodedValue();
+    }
+
+    /**
+     * Compares the decoded values of the extensions, for example a requested
+     * extension with the configured one. The criticality is ignored.
+     * 
+     * @param other
+     *            The other extension.
+     * @return <code>true</code> if both extensions have the same OID and the
+     *         same decoded value, or the same encoded value if not decodable.
+     */
+    public boolean hasSameValue(CertificateExtension other) {
+        if (other == null || !oid_.equals(other.oid_)) {
+            return false;
+        }
+        Object value= getDecodedValue();
+        if (value == null) {
+            return extension_.getValue().equals(other.extension_.getValue());
+        }
+        return value.equals(other.getDecodedValue());
+    }
+
+    /**
+     * @return The typed value, decoded once.
+     */
+    private Object getDecodedValue() {
+        if (!decoded_) {
+            decodedValue_= CertificateExtensionDecoder.decode(oid_, extension_);
+            decoded_= true;
+        }
+        return decodedValue_;
     }
 
     /*
@@ -189,7 +297,7 @@ public class CertificateExtension {
         sb.append(" oid=\"").append(oid_).append('"');
         sb.append(" critical=\"").append(critical_).append('"');
         sb.append('>');
-        sb.append(value_);
+        sb.append(getValue());
         sb.append("</CertificateExtension>");
         return sb.toString();
     }
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.pki;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DEREncodable;
+import org.bouncycastle.asn1.DERObjectIdentifier;
+import org.bouncycastle.asn1.DERString;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.asn1.x509.PolicyInformation;
+import org.bouncycastle.asn1.x509.X509Extension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes the X.509 extension values created by the
+ * {@link CertificateExtensionFactory} in typed values:
+ * <ul>
+ * <li>KeyUsage: the usage bitmask (<code>Integer</code>), see
+ * {@link KeyUsage}
+ * <li>ExtendedKeyUsage: the set of key purpose OIDs (<code>Set&lt;String&gt;</code>)
+ * <li>SubjectAltName: the list of prefixed alternative names (<code>List&lt;String&gt;</code>),
+ * like <code>email:john.doe@example.com</code> or <code>dns:www.example.com</code>
+ * <li>CertificatePolicies: the list of policy OIDs (<code>List&lt;String&gt;</code>)
+ * </ul>
+ * The typed values are immutable.
+ *
+ * @author Valery Tschopp <tschopp@switch.ch>
+ */
+class CertificateExtensionDecoder {
+
+    /** Logging */
+    private static Logger LOG= LoggerFactory.getLogger(CertificateExtensionDecoder.class);
+
+    /** KeyUsage names, in bit order, also parsed by the factory */
+    static final String[] KEY_USAGE_NAMES= { "DigitalSignature",
+            "NonRepudiation", "KeyEncipherment", "DataEncipherment",
+            "KeyAgreement", "KeyCertSign", "CRLSign", "EncipherOnly",
+            "DecipherOnly" };
+
+    /** KeyUsage bits, matching the names */
+    static final int[] KEY_USAGE_BITS= { KeyUsage.digitalSignature,
+            KeyUsage.nonRepudiation, KeyUsage.keyEncipherment,
+            KeyUsage.dataEncipherment, KeyUsage.keyAgreement,
+            KeyUsage.keyCertSign, KeyUsage.cRLSign, KeyUsage.encipherOnly,
+            KeyUsage.decipherOnly };
+
+    /** ExtendedKeyUsage names, also parsed by the factory */
+    static final String[] KEY_PURPOSE_NAMES= { "AnyExtendedKeyUsage",
+            "ServerAuth", "ClientAuth", "CodeSigning", "EmailProtection",
+            "IPSecEndSystem", "IPSecTunnel", "IPSecUser", "TimeStamping",
+            "OCSPSigning", "Smartcardlogon" };
+
+    /** ExtendedKeyUsage purposes, matching the names */
+    static final KeyPurposeId[] KEY_PURPOSE_IDS= {
+            KeyPurposeId.anyExtendedKeyUsage, KeyPurposeId.id_kp_serverAuth,
+            KeyPurposeId.id_kp_clientAuth, KeyPurposeId.id_kp_codeSigning,
+            KeyPurposeId.id_kp_emailProtection,
+            KeyPurposeId.id_kp_ipsecEndSystem, KeyPurposeId.id_kp_ipsecTunnel,
+            KeyPurposeId.id_kp_ipsecUser, KeyPurposeId.id_kp_timeStamping,
+            KeyPurposeId.id_kp_OCSPSigning, KeyPurposeId.id_kp_smartcardlogon };
+
+    /**
+     * Decodes the extension value.
+     *
+     * @param oid
+     *            The extension OID.
+     * @param extension
+     *            The X509Extension.
+     * @return The typed value or <code>null</code> if the extension is not
+     *         supported or can not be decoded.
+     */
+    static Object decode(DERObjectIdentifier oid, X509Extension extension) {
+        if (oid == null || extension == null) {
+            return null;
+        }
+        try {
+            ASN1Object value= ASN1Object.fromByteArray(extension.getValue().getOctets());
+            if (oid.equals(X509Extension.keyUsage)) {
+                return Integer.valueOf(DERBitString.getInstance(value).intValue());
+            }
+            else if (oid.equals(X509Extension.extendedKeyUsage)) {
+                Set<String> purposes= new LinkedHashSet<String>();
+                ASN1Sequence seq= ASN1Sequence.getInstance(value);
+                for (int i= 0; i < seq.size(); i++) {
+                    purposes.add(DERObjectIdentifier.getInstance(seq.getObjectAt(i)).getId());
+                }
+                return Collections.unmodifiableSet(purposes);
+            }
+            else if (oid.equals(X509Extension.subjectAlternativeName)) {
+                GeneralName[] names= GeneralNames.getInstance(value).getNames();
+                List<String> altNames= new ArrayList<String>(names.length);
+                for (int i= 0; i < names.length; i++) {
+                    altNames.add(getPrefixedName(names[i]));
+                }
+                return Collections.unmodifiableList(altNames);
+            }
+            else if (oid.equals(X509Extension.certificatePolicies)) {
+                ASN1Sequence seq= ASN1Sequence.getInstance(value);
+                List<String> policies= new ArrayList<String>(seq.size());
+                for (int i= 0; i < seq.size(); i++) {
+                    policies.add(PolicyInformation.getInstance(seq.getObjectAt(i)).getPolicyIdentifier().getId());
+                }
+                return Collections.unmodifiableList(policies);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to decode extension " + oid + ": " + e);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Failed to decode extension " + oid + ": " + e);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the formal name of the extension, as used by the
+     * {@link CertificateExtensionFactory}.
+     *
+     * @param oid
+     *            The extension OID.
+     * @return The name, or the OID if not supported.
+     */
+    static String getName(DERObjectIdentifier oid) {
+        if (oid.equals(X509Extension.keyUsage)) {
+            return "KeyUsage";
+        }
+        else if (oid.equals(X509Extension.extendedKeyUsage)) {
+            return "ExtendedKeyUsage";
+        }
+        else if (oid.equals(X509Extension.subjectAlternativeName)) {
+            return "SubjectAltName";
+        }
+        else if (oid.equals(X509Extension.certificatePolicies)) {
+            return "CertificatePolicies";
+        }
+        return oid.getId();
+    }
+
+    /**
+     * Returns the formal value of the decoded value, as used by the
+     * {@link CertificateExtensionFactory}: a comma separated list of names.
+     *
+     * @param oid
+     *            The extension OID.
+     * @param decoded
+     *            The typed value.
+     * @return The formal value, or <code>null</code> if not decoded.
+     */
+    static String getFormalValue(DERObjectIdentifier oid, Object decoded) {
+        if (decoded == null) {
+            return null;
+        }
+        StringBuffer sb= new StringBuffer();
+        if (decoded instanceof Integer) {
+            int usage= ((Integer) decoded).intValue();
+            for (int i= 0; i < KEY_USAGE_BITS.length; i++) {
+                if ((usage & KEY_USAGE_BITS[i]) != 0) {
+                    append(sb, KEY_USAGE_NAMES[i]);
+                }
+            }
+        }
+        else if (oid.equals(X509Extension.extendedKeyUsage)) {
+            for (Object purpose : (Set<?>) decoded) {
+                append(sb, getKeyPurposeName((String) purpose));
+            }
+        }
+        else {
+            for (Object item : (List<?>) decoded) {
+                append(sb, (String) item);
+            }
+        }
+        return sb.toString();
+    }
+
+    static private String getKeyPurposeName(String oid) {
+        for (int i= 0; i < KEY_PURPOSE_IDS.length; i++) {
+            if (KEY_PURPOSE_IDS[i].getId().equals(oid)) {
+                return KEY_PURPOSE_NAMES[i];
+            }
+        }
+        return oid;
+    }
+
+    static private String getPrefixedName(GeneralName name) {
+        DEREncodable value= name.getName();
+        String string= (value instanceof DERString) ? ((DERString) value).getString()
+                : value.toString();
+        switch (name.getTagNo()) {
+        case GeneralName.rfc822Name:
+            return "email:" + string;
+        case GeneralName.dNSName:
+            return "dns:" + string;
+        case GeneralName.uniformResourceIdentifier:
+            return "uri:" + string;
+        default:
+            return name.getTagNo() + ":" + string;
+        }
+    }
+
+    static private void append(StringBuffer sb, String value) {
+        if (sb.length() > 0) {
+            sb.append(',');
+        }
+        sb.append(value);
+    }
+
+    private CertificateExtensionDecoder() {
+    }
+
+}
@@ -16,6 +16,10 @@
  */
 package org.glite.slcs.pki;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
@@ -30,6 +34,7 @@ import org.bouncycastle.asn1.x509.KeyPurposeId;
 import org.bouncycastle.asn1.x509.KeyUsage;
 import org.bouncycastle.asn1.x509.PolicyInformation;
 import org.bouncycastle.asn1.x509.X509Extension;
+import org.glite.slcs.util.LRUCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,6 +48,52 @@ public class CertificateExtensionFactory {
     /** Logging */
     private static Logger LOG= LoggerFactory.getLogger(CertificateExtensionFactory.class);
 
+    /** Extension types */
+    private static final int KEY_USAGE= 1;
+    private static final int EXTENDED_KEY_USAGE= 2;
+    private static final int CERTIFICATE_POLICIES= 3;
+    private static final int SUBJECT_ALT_NAME= 4;
+
+    /** Extension types by lower case name and by OID */
+    private static final Map<String, Integer> EXTENSION_TYPES= new HashMap<String, Integer>();
+
+    /** KeyUsage bits by lower case name */
+    private static final Map<String, Integer> KEY_USAGES= new HashMap<String, Integer>();
+
+    /** ExtendedKeyUsage purposes by lower case name */
+    private static final Map<String, KeyPurposeId> KEY_PURPOSES= new HashMap<String, KeyPurposeId>();
+
+    /** Maximal number of cached extensions and profiles */
+    private static final int CACHE_SIZE= 256;
+
+    /** Created extensions, keyed by id and values */
+    private static final LRUCache<String, CertificateExtension> CACHE= new LRUCache<String, CertificateExtension>(CACHE_SIZE);
+
+    /** Compiled profiles, keyed by ids and values */
+    private static final LRUCache<String, CertificateExtensionProfile> PROFILES= new LRUCache<String, CertificateExtensionProfile>(CACHE_SIZE);
+
+    static {
+        addExtensionType(X509Extension.keyUsage, "KeyUsage", KEY_USAGE);
+        addExtensionType(X509Extension.extendedKeyUsage, "ExtendedKeyUsage", EXTENDED_KEY_USAGE);
+        addExtensionType(X509Extension.certificatePolicies, "CertificatePolicies", CERTIFICATE_POLICIES);
+        addExtensionType(X509Extension.subjectAlternativeName, "SubjectAltName", SUBJECT_ALT_NAME);
+
+        for (int i= 0; i < CertificateExtensionDecoder.KEY_USAGE_NAMES.length; i++) {
+            KEY_USAGES.put(CertificateExtensionDecoder.KEY_USAGE_NAMES[i].toLowerCase(),
+                           CertificateExtensionDecoder.KEY_USAGE_BITS[i]);
+        }
+        for (int i= 0; i < CertificateExtensionDecoder.KEY_PURPOSE_NAMES.length; i++) {
+            KEY_PURPOSES.put(CertificateExtensionDecoder.KEY_PURPOSE_NAMES[i].toLowerCase(),
+                             CertificateExtensionDecoder.KEY_PURPOSE_IDS[i]);
+        }
+    }
+
+    static private void addExtensionType(DERObjectIdentifier oid,
+            String name, int type) {
+        EXTENSION_TYPES.put(oid.getId(), type);
+        EXTENSION_TYPES.put(name.toLowerCase(), type);
+    }
+
     /**
      * Creates a CertificateExtension. The id can be the OID or the name as
      * defined below. The values is a comma separated list of value(s)
@@ -92,6 +143,9 @@ public class CertificateExtensionFactory {
      * CertificateExtension subjectAltNameExtension = 
      *       CertificateExtensionFactory.createCertificateExtension("SubjectAltName", "email:john.doe@example.com,dns:www.exmaple.com");
      * </pre>
+     * <p>
+     * The created extensions are immutable and cached: the same id and values
+     * return the same instance.
      * 
      * @param id
      *            The name or the OID of the extension.
@@ -102,126 +156,134 @@ public class CertificateExtensionFactory {
      */
     static public CertificateExtension createCertificateExtension(String id,
             String values) {
+        StringBuilder key= new StringBuilder();
+        appendCacheKey(key, id);
+        appendCacheKey(key, values);
+        CertificateExtension extension= CACHE.get(key.toString());
+        if (extension == null) {
+            extension= compileCertificateExtension(id, values);
+            if (extension != null) {
+                CACHE.put(key.toString(), extension);
+            }
+        }
+        return extension;
+    }
+
+    /**
+     * Creates an immutable {@link CertificateExtensionProfile} with the
+     * extensions (id and comma separated list of values) of the map. The
+     * profiles are cached, and can be shared by threads.
+     * 
+     * @param idValues
+     *            The map of extension name or OID and extension value(s), in
+     *            the extensions order.
+     * @return The compiled profile.
+     * @throws IllegalArgumentException
+     *             if an extension id is not supported.
+     * @see #createCertificateExtension(String, String)
+     */
+    static public CertificateExtensionProfile createCertificateExtensionProfile(
+            Map<String, String> idValues) {
+        StringBuilder sb= new StringBuilder();
+        for (Map.Entry<String, String> idValue : idValues.entrySet()) {
+            appendCacheKey(sb, idValue.getKey());
+            appendCacheKey(sb, idValue.getValue());
+        }
+        String key= sb.toString();
+        CertificateExtensionProfile profile= PROFILES.get(key);
+        if (profile == null) {
+            List<CertificateExtension> extensions= new ArrayList<CertificateExtension>(idValues.size());
+            for (Map.Entry<String, String> idValue : idValues.entrySet()) {
+                CertificateExtension extension= createCertificateExtension(idValue.getKey(),
+                                                                           idValue.getValue());
+                if (extension == null) {
+                    throw new IllegalArgumentException("Unsupported CertificateExtension: "
+                            + idValue.getKey());
+                }
+                extensions.add(extension);
+            }
+            profile= new CertificateExtensionProfile(extensions);
+            PROFILES.put(key, profile);
+        }
+        return profile;
+    }
+
+    /**
+     * Appends the length prefixed string to the cache key, so that the keys
+     * of different ids and values never collide, whatever characters they
+     * contain.
+     */
+    static private void appendCacheKey(StringBuilder key, String value) {
+        if (value == null) {
+            key.append("-1:");
+        }
+        else {
+            key.append(value.length()).append(':').append(value);
+        }
+    }
+
+    /**
+     * Parses the values and creates the CertificateExtension.
+     * 
+     * @see #createCertificateExtension(String, String)
+     */
+    static private CertificateExtension compileCertificateExtension(String id,
+            String values) {
         if (LOG.isDebugEnabled()) {
             LOG.debug("id:" + id + " value(s):" + values);
         }
-        if (id.equals(X509Extension.keyUsage.getId())
-                || id.equalsIgnoreCase("KeyUsage")) {
+        Integer type= EXTENSION_TYPES.get(id.toLowerCase());
+        if (type == null) {
+            LOG.error("Unsupported CertificateExtension: " + id);
+            return null;
+        }
+        StringTokenizer st= new StringTokenizer(values, ",");
+        switch (type.intValue()) {
+        case KEY_USAGE:
             // parse the comma separated list of key usage
             int usage= 0;
-            StringTokenizer st= new StringTokenizer(values, ",");
             while (st.hasMoreElements()) {
-                String keyUsage= (String) st.nextElement();
-                keyUsage= keyUsage.trim();
-
-                if (keyUsage.equalsIgnoreCase("DigitalSignature")) {
-                    usage+= KeyUsage.digitalSignature;
-                }
-                else if (keyUsage.equalsIgnoreCase("NonRepudiation")) {
-                    usage+= KeyUsage.nonRepudiation;
-                }
-                else if (keyUsage.equalsIgnoreCase("KeyEncipherment")) {
-                    usage+= KeyUsage.keyEncipherment;
-                }
-                else if (keyUsage.equalsIgnoreCase("DataEncipherment")) {
-                    usage+= KeyUsage.dataEncipherment;
-                }
-                else if (keyUsage.equalsIgnoreCase("KeyAgreement")) {
-                    usage+= KeyUsage.keyAgreement;
-                }
-                else if (keyUsage.equalsIgnoreCase("KeyCertSign")) {
-                    usage+= KeyUsage.keyCertSign;
-                }
-                else if (keyUsage.equalsIgnoreCase("CRLSign")) {
-                    usage+= KeyUsage.cRLSign;
-                }
-                else if (keyUsage.equalsIgnoreCase("EncipherOnly")) {
-                    usage+= KeyUsage.encipherOnly;
-                }
-                else if (keyUsage.equalsIgnoreCase("DecipherOnly")) {
-                    usage+= KeyUsage.decipherOnly;
+                String keyUsage= ((String) st.nextElement()).trim();
+                Integer bit= KEY_USAGES.get(keyUsage.toLowerCase());
+                if (bit != null) {
+                    usage+= bit.intValue();
                 }
                 else {
                     LOG.error("Unknown KeyUsage: " + keyUsage);
                 }
-
             }
             return createKeyUsageExtension(usage, values);
-        }
-        else if (id.equals(X509Extension.extendedKeyUsage.getId())
-                || id.equalsIgnoreCase("ExtendedKeyUsage")) {
+        case EXTENDED_KEY_USAGE:
             // value is a comma separated list of keyPurpose
             Vector<DERObjectIdentifier> keyPurposeIds= new Vector<DERObjectIdentifier>();
-            StringTokenizer st= new StringTokenizer(values, ",");
             while (st.hasMoreElements()) {
-                String keyPurpose= (String) st.nextElement();
-                keyPurpose= keyPurpose.trim();
-                if (keyPurpose.equalsIgnoreCase("AnyExtendedKeyUsage")) {
-                    keyPurposeIds.add(KeyPurposeId.anyExtendedKeyUsage);
-                }
-                else if (keyPurpose.equalsIgnoreCase("ServerAuth")) {
-                    keyPurposeIds.add(KeyPurposeId.id_kp_serverAuth);
-                }
-                else if (keyPurpose.equalsIgnoreCase("ClientAuth")) {
-                    keyPurposeIds.add(KeyPurposeId.id_kp_clientAuth);
-                }
-                else if (keyPurpose.equalsIgnoreCase("CodeSigning")) {
-                    keyPurposeIds.add(KeyPurposeId.id_kp_codeSigning);
-                }
-                else if (keyPurpose.equalsIgnoreCase("EmailProtection")) {
-                    keyPurposeIds.add(KeyPurposeId.id_kp_emailProtection);
-                }
-                else if (keyPurpose.equalsIgnoreCase("IPSecEndSystem")) {
-                    keyPurposeIds.add(KeyPurposeId.id_kp_ipsecEndSystem);
-                }
-                else if (keyPurpose.equalsIgnoreCase("IPSecTunnel")) {
-                    keyPurposeIds.add(KeyPurposeId.id_kp_ipsecTunnel);
-                }
-                else if (keyPurpose.equalsIgnoreCase("IPSecUser")) {
-                    keyPurposeIds.add(KeyPurposeId.id_kp_ipsecUser);
-                }
-                else if (keyPurpose.equalsIgnoreCase("TimeStamping")) {
-                    keyPurposeIds.add(KeyPurposeId.id_kp_timeStamping);
-                }
-                else if (keyPurpose.equalsIgnoreCase("OCSPSigning")) {
-                    keyPurposeIds.add(KeyPurposeId.id_kp_OCSPSigning);
-                }
-                else if (keyPurpose.equalsIgnoreCase("Smartcardlogon")) {
-                    keyPurposeIds.add(KeyPurposeId.id_kp_smartcardlogon);
+                String keyPurpose= ((String) st.nextElement()).trim();
+                KeyPurposeId keyPurposeId= KEY_PURPOSES.get(keyPurpose.toLowerCase());
+                if (keyPurposeId != null) {
+                    keyPurposeIds.add(keyPurposeId);
                 }
                 else {
                     LOG.error("Unknown ExtendedKeyUsage: " + keyPurpose);
                 }
             }
             return createExtendedKeyUsageExtension(keyPurposeIds, values);
-        }
-        else if (id.equals(X509Extension.certificatePolicies.getId())
-                || id.equalsIgnoreCase("CertificatePolicies")) {
+        case CERTIFICATE_POLICIES:
             // values is a comma separated list of policyOIDs
             Vector<String> policyOIDs= new Vector<String>();
-            StringTokenizer st= new StringTokenizer(values, ",");
             while (st.hasMoreElements()) {
-                String policyOID= (String) st.nextElement();
-                policyOID= policyOID.trim();
-                policyOIDs.add(policyOID);
+                policyOIDs.add(((String) st.nextElement()).trim());
             }
             return createCertificatePoliciesExtension(policyOIDs, values);
-        }
-        else if (id.equals(X509Extension.subjectAlternativeName.getId())
-                || id.equalsIgnoreCase("SubjectAltName")) {
-            // values is a comma separated list of altername names prefixed with
-            // the type (email: or dns:)
+        case SUBJECT_ALT_NAME:
+        default:
+            // values is a comma separated list of altername
+            // names prefixed with the type (email: or dns:)
             Vector<String> typedSubjectAltNames= new Vector<String>();
-            StringTokenizer st= new StringTokenizer(values, ",");
             while (st.hasMoreElements()) {
-                String typedAltName= (String) st.nextElement();
-                typedAltName= typedAltName.trim();
-                typedSubjectAltNames.add(typedAltName);
+                typedSubjectAltNames.add(((String) st.nextElement()).trim());
             }
             return createSubjectAltNameExtension(typedSubjectAltNames, values);
         }
-        LOG.error("Unsupported CertificateExtension: " + id);
-        return null;
     }
 
     /**
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.pki;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Vector;
+
+import org.bouncycastle.asn1.ASN1Set;
+import org.bouncycastle.asn1.DERObjectIdentifier;
+import org.bouncycastle.asn1.x509.X509Extension;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.glite.slcs.pki.bouncycastle.PKCS10;
+
+/**
+ * CertificateExtensionProfile is an immutable set of certificate extensions,
+ * encoded once as {@link X509Extensions} and shared by all the certificate
+ * requests using the profile. A profile can be used by many threads.
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * Map&lt;String, String&gt; extensions = new LinkedHashMap&lt;String, String&gt;();
+ * extensions.put(&quot;KeyUsage&quot;, &quot;DigitalSignature,KeyEncipherment&quot;);
+ * extensions.put(&quot;ExtendedKeyUsage&quot;, &quot;ClientAuth&quot;);
+ * CertificateExtensionProfile profile = CertificateExtensionFactory.createCertificateExtensionProfile(extensions);
+ * CertificateRequest csr = CertificateRequest.createCertificateRequest(keys, subject, profile);
+ * </pre>
+ * 
+ * @author Valery Tschopp <tschopp@switch.ch>
+ * @see CertificateExtensionFactory#createCertificateExtensionProfile(java.util.Map)
+ */
+public class CertificateExtensionProfile {
+
+    /** The certificate extensions, unmodifiable */
+    private List<CertificateExtension> extensions_= null;
+
+    /** The encoded extensions, or null if empty */
+    private X509Extensions x509Extensions_= null;
+
+    /** The DER encoded extensions */
+    private byte[] encoded_= null;
+
+    /** The PKCS#9 extension request attribute, shared by the requests */
+    private ASN1Set extensionRequest_= null;
+
+    /**
+     * Creates a profile with the given extensions, in order.
+     * 
+     * @param certificateExtensions
+     *            The certificate extensions.
+     */
+    public CertificateExtensionProfile(
+            List<CertificateExtension> certificateExtensions) {
+        List<CertificateExtension> extensions= new ArrayList<CertificateExtension>(certificateExtensions);
+        this.extensions_= Collections.unmodifiableList(extensions);
+        if (!extensions.isEmpty()) {
+            Vector<DERObjectIdentifier> ordering= new Vector<DERObjectIdentifier>();
+            Hashtable<DERObjectIdentifier, X509Extension> extensionsMap= new Hashtable<DERObjectIdentifier, X509Extension>();
+            for (CertificateExtension extension : extensions) {
+                if (!extensionsMap.containsKey(extension.getOID())) {
+                    ordering.add(extension.getOID());
+                }
+                extensionsMap.put(extension.getOID(), extension.getExtension());
+            }
+            this.x509Extensions_= new X509Extensions(ordering, extensionsMap);
+            this.encoded_= x509Extensions_.getDEREncoded();
+        }
+        this.extensionRequest_= PKCS10.createExtensionRequest(x509Extensions_);
+    }
+
+    /**
+     * @return The unmodifiable list of certificate extensions.
+     */
+    public List<CertificateExtension> getCertificateExtensions() {
+        return extensions_;
+    }
+
+    /**
+     * @return The X509Extensions or <code>null</code> if the profile is
+     *         empty. The object is shared and must not be modified.
+     */
+    public X509Extensions getX509Extensions() {
+        return x509Extensions_;
+    }
+
+    /**
+     * @return The PKCS#10 extension request attributes, shared and immutable.
+     * @see PKCS10#createExtensionRequest(X509Extensions)
+     */
+    public ASN1Set getExtensionRequest() {
+        return extensionRequest_;
+    }
+
+    /**
+     * @return A copy of the DER encoded X509Extensions, or <code>null</code>
+     *         if the profile is empty.
+     */
+    public byte[] getEncoded() {
+        if (encoded_ == null) {
+            return null;
+        }
+        return encoded_.clone();
+    }
+
+    /**
+     * @return The number of extensions.
+     */
+    public int size() {
+        return extensions_.size();
+    }
+
+}
@@ -26,7 +26,7 @@ import java.security.PublicKey;
 
 import org.glite.slcs.pki.bouncycastle.Codec;
 import org.glite.slcs.pki.bouncycastle.KeyPairGenerator;
-import org.glite.slcs.util.Utils;
+import org.glite.slcs.util.SecureFileWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,8 +41,17 @@ public class CertificateKeys {
     /** Logging */
     static private Logger LOG = LoggerFactory.getLogger(CertificateKeys.class);
 
+    /** RSA keys algorithm */
+    public static final String RSA = "RSA";
+
+    /**
+     * Elliptic curve keys algorithm. The key size selects the NIST curve: 256
+     * for P-256, 384 for P-384.
+     */
+    public static final String ECDSA = "ECDSA";
+
     /** Default keys algorithm */
-    private static final String KEY_ALGORITHM = "RSA";
+    private static final String KEY_ALGORITHM = RSA;
 
     /** Default keys size */
     private static final int KEY_SIZE = 1024;
@@ -56,6 +65,12 @@ public class CertificateKeys {
     /** The private key password */
     private char[] password_ = null;
 
+    /** The private key encryption algorithm */
+    private String keyEncryption_ = Codec.KEY_ENCRYPTION_DESEDE;
+
+    /** The PBKDF2 iteration count of the PKCS#8 encryption */
+    private int iterationCount_ = Codec.DEFAULT_ITERATION_COUNT;
+
     /**
      * Creates a new key pair (private and public) for the given key size. The
      * password is used to store the private key crypted.
@@ -69,14 +84,53 @@ public class CertificateKeys {
      */
     public CertificateKeys(int keySize, char[] password)
             throws GeneralSecurityException {
+        this(KEY_ALGORITHM, keySize, password);
+    }
+
+    /**
+     * Creates a new key pair (private and public) for the given algorithm and
+     * key size. The password is used to store the private key crypted.
+     * 
+     * @param algorithm
+     *            The keys algorithm: {@link #RSA} or {@link #ECDSA}.
+     * @param keySize
+     *            The keys size. For {@link #ECDSA} keys, 256 or 384.
+     * @param password
+     *            The password to store the private key crypted.
+     * @throws GeneralSecurityException
+     *             If an error occurs.
+     */
+    public CertificateKeys(String algorithm, int keySize, char[] password)
+            throws GeneralSecurityException {
         try {
-            KeyPairGenerator generator = new KeyPairGenerator(KEY_ALGORITHM);
+            KeyPairGenerator generator = new KeyPairGenerator(algorithm);
             generator.initialize(keySize);
             keyPair_ = generator.generateKeyPair();
             password_ = password;
         } catch (NoSuchAlgorithmException e) {
-            // shoud never occurs
-            LOG.error("Failed to create keys", e);
+            LOG.error("Failed to create " + algorithm + " keys", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the keys with a key pair taken from the given pool. The password
+     * is used to store the private key crypted.
+     *
+     * @param pool
+     *            The {@link KeyPairPool} to draw the key pair from.
+     * @param password
+     *            The password to store the private key crypted.
+     * @throws GeneralSecurityException
+     *             If no key pair can be acquired from the pool.
+     */
+    public CertificateKeys(KeyPairPool pool, char[] password)
+            throws GeneralSecurityException {
+        try {
+            keyPair_ = pool.acquire();
+            password_ = password;
+        } catch (GeneralSecurityException e) {
+            LOG.error("Failed to acquire keys from pool", e);
             throw e;
         }
     }
@@ -136,6 +190,17 @@ public class CertificateKeys {
 
     }
 
+    /**
+     * @return The keys algorithm or <code>null</code> if the key pair doesn't
+     *         exist
+     */
+    public String getAlgorithm() {
+        if (keyPair_ == null) {
+            return null;
+        }
+        return keyPair_.getPublic().getAlgorithm();
+    }
+
     /**
      * Sets the private key encryption password.
      * 
@@ -156,6 +221,29 @@ public class CertificateKeys {
         this.password_ = password;
     }
 
+    /**
+     * Sets the algorithm used to encrypt the private key when the password is
+     * set. The default is the legacy OpenSSL
+     * {@link Codec#KEY_ENCRYPTION_DESEDE} encryption.
+     * <p>
+     * The PKCS#8 encryptions (like {@link Codec#KEY_ENCRYPTION_AES_256_CBC})
+     * derive the key with PBKDF2: a higher iteration count costs more for an
+     * attacker, but also for each key stored.
+     * 
+     * @param algorithm
+     *            The encryption algorithm.
+     * @param iterationCount
+     *            The PBKDF2 iteration count, ignored by the legacy encryption.
+     */
+    public void setKeyEncryption(String algorithm, int iterationCount) {
+        if (algorithm == null || iterationCount < 1) {
+            throw new IllegalArgumentException("Invalid key encryption: "
+                    + algorithm + " " + iterationCount);
+        }
+        this.keyEncryption_ = algorithm;
+        this.iterationCount_ = iterationCount;
+    }
+
     /**
      * Stores the private key in PEM format in the given filename. If the
      * password is set the private key is store encrypted.
@@ -180,31 +268,26 @@ public class CertificateKeys {
      *             If an IO error occurs.
      */
     public void storePEMPrivate(File file) throws IOException {
-        boolean permOk = Utils.setFilePermissions(file, KEY_FILE_PERMISSION);
-        if (!permOk) {
-            LOG.warn("Failed to set permissions: " + KEY_FILE_PERMISSION
-                    + " for file: " + file);
-        }
-        if (password_ != null) {
-            Codec.storePEMEncoded(getPrivate(), password_, file);
-        }
-        else {
-            Codec.storePEMEncoded(getPrivate(), file);
-        }
+        SecureFileWriter.write(file, getPEMPrivate(), KEY_FILE_PERMISSION);
     }
 
     /**
      * Gets the private key PEM encoded. If the password is set, the PEM block
-     * is crypted.
+     * is crypted with the key encryption algorithm.
      * 
      * @return The PEM encoded private key.
      * @throws IOException
+     *             If the encoding or the encryption fails.
      */
     public String getPEMPrivate() throws IOException {
         if (password_ != null) {
-            return Codec.getPEMEncoded(getPrivate(), password_);
+            return Codec.getPEMEncoded(getPrivate(), password_, keyEncryption_, iterationCount_);
+        }
+        String pem = Codec.getPEMEncoded(getPrivate());
+        if (pem == null) {
+            throw new IOException("Failed to PEM encode the private key");
         }
-        return Codec.getPEMEncoded(getPrivate());
+        return pem;
     }
 
     /**
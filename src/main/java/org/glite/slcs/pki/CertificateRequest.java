@@ -23,15 +23,18 @@ import java.io.Reader;
 import java.security.GeneralSecurityException;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 
 import org.bouncycastle.asn1.DERObjectIdentifier;
 import org.bouncycastle.asn1.x509.X509Extension;
 import org.bouncycastle.asn1.x509.X509Extensions;
 import org.glite.slcs.pki.bouncycastle.PKCS10;
-import org.glite.slcs.util.Utils;
+import org.glite.slcs.util.SecureFileWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,6 +57,11 @@ public class CertificateRequest {
      */
     private PKCS10 pkcs10_= null;
 
+    /**
+     * Certificate extensions, parsed lazily
+     */
+    private volatile ParsedExtensions parsedExtensions_= null;
+
     /**
      * Creates a certificate request for the given keys and principal (DN).
      * 
@@ -99,7 +107,128 @@ public class CertificateRequest {
      */
     public CertificateRequest(CertificateKeys keys, String subject,
             List<CertificateExtension> certificateExtensions) throws GeneralSecurityException {
+        this(keys,
+             subject,
+             certificateExtensions,
+             PKCS10.getSignatureAlgorithm(keys.getPublic()));
+    }
+
+    /**
+     * Creates a certificate request for the given keys, subject and
+     * extensions, signed with the given signature algorithm.
+     * 
+     * @param keys
+     *            The CertificateKeys
+     * @param subject
+     *            The certificate request subject (DN).
+     * @param extensions
+     *            An List of certificate extensions.
+     * @param signatureAlgorithm
+     *            The signature algorithm (SHA1WithRSA, SHA256WithECDSA, ...)
+     *            matching the keys algorithm.
+     * @throws GeneralSecurityException
+     *             If an error occurs while creating the object.
+     * @see PKCS10#getSignatureAlgorithm(java.security.PublicKey)
+     */
+    public CertificateRequest(CertificateKeys keys, String subject,
+            List<CertificateExtension> certificateExtensions,
+            String signatureAlgorithm) throws GeneralSecurityException {
+        this(keys,
+             subject,
+             createX509Extensions(certificateExtensions),
+             signatureAlgorithm);
+    }
+
+    /**
+     * Creates a certificate request for the given keys, subject and compiled
+     * extensions profile.
+     * 
+     * @param keys
+     *            The CertificateKeys
+     * @param subject
+     *            The certificate request subject (DN).
+     * @param profile
+     *            The certificate extensions profile.
+     * @return The new certificate request.
+     * @throws GeneralSecurityException
+     *             If an error occurs while creating the object.
+     * @see CertificateExtensionFactory#createCertificateExtensionProfile(java.util.Map)
+     */
+    static public CertificateRequest createCertificateRequest(
+            CertificateKeys keys, String subject,
+            CertificateExtensionProfile profile)
+            throws GeneralSecurityException {
+        return createCertificateRequest(keys,
+                                        subject,
+                                        profile,
+                                        PKCS10.getSignatureAlgorithm(keys.getPublic()));
+    }
+
+    /**
+     * Creates a certificate request for the given keys, subject and compiled
+     * extensions profile, signed with the given signature algorithm. The
+     * extension request attribute of the profile is shared, not rebuilt.
+     * 
+     * @param keys
+     *            The CertificateKeys
+     * @param subject
+     *            The certificate request subject (DN).
+     * @param profile
+     *            The certificate extensions profile.
+     * @param signatureAlgorithm
+     *            The signature algorithm matching the keys algorithm.
+     * @return The new certificate request.
+     * @throws GeneralSecurityException
+     *             If an error occurs while creating the object.
+     */
+    static public CertificateRequest createCertificateRequest(
+            CertificateKeys keys, String subject,
+            CertificateExtensionProfile profile, String signatureAlgorithm)
+            throws GeneralSecurityException {
+        PKCS10 pkcs10= new PKCS10(subject,
+                                  keys.getPublic(),
+                                  keys.getPrivate(),
+                                  signatureAlgorithm,
+                                  profile.getExtensionRequest(),
+                                  PKCS10.VERIFY_SIGNED_REQUEST);
+        return new CertificateRequest(pkcs10);
+    }
+
+    /**
+     * Creates a certificate request for the given keys, subject and already
+     * encoded extensions, signed with the given signature algorithm.
+     * 
+     * @param keys
+     *            The CertificateKeys
+     * @param subject
+     *            The certificate request subject (DN).
+     * @param x509extensions
+     *            The X509Extensions or <code>null</code>.
+     * @param signatureAlgorithm
+     *            The signature algorithm matching the keys algorithm.
+     * @throws GeneralSecurityException
+     *             If an error occurs while creating the object.
+     */
+    CertificateRequest(CertificateKeys keys, String subject,
+            X509Extensions x509extensions, String signatureAlgorithm)
+            throws GeneralSecurityException {
+        this.pkcs10_= new PKCS10(subject,
+                                 keys.getPublic(),
+                                 keys.getPrivate(),
+                                 x509extensions,
+                                 signatureAlgorithm);
+    }
 
+    /**
+     * Creates the X509Extensions for the given certificate extensions.
+     * 
+     * @param certificateExtensions
+     *            The List of certificate extensions, can be <code>null</code>.
+     * @return The X509Extensions or <code>null</code> if the list is null or
+     *         empty.
+     */
+    static X509Extensions createX509Extensions(
+            List<CertificateExtension> certificateExtensions) {
         X509Extensions x509extensions= null;
         if (certificateExtensions != null && !certificateExtensions.isEmpty()) {
             Hashtable<DERObjectIdentifier,X509Extension> extensionsMap= new Hashtable<DERObjectIdentifier, X509Extension>();
@@ -108,10 +237,7 @@ public class CertificateRequest {
             }
             x509extensions= new X509Extensions(extensionsMap);
         }
-        this.pkcs10_= new PKCS10(subject,
-                                 keys.getPublic(),
-                                 keys.getPrivate(),
-                                 x509extensions);
+        return x509extensions;
     }
 
     /**
@@ -126,28 +252,48 @@ public class CertificateRequest {
 
     /**
      * Returns a List of certificate extensions contained in the certificate
-     * request.
+     * request. The extensions are parsed once, the returned list is a copy.
      * 
      * @return The List of CertificateExtension
      */
     public List<CertificateExtension> getCertificateExtensions() {
-        List<CertificateExtension> certificateExtensions= new ArrayList<CertificateExtension>();
-        X509Extensions x509Extensions= pkcs10_.getX509Extensions();
-        if (x509Extensions != null) {
-            @SuppressWarnings("unchecked")
-			Enumeration<DERObjectIdentifier> oids= x509Extensions.oids();
-            while (oids.hasMoreElements()) {
-                DERObjectIdentifier oid= (DERObjectIdentifier) oids.nextElement();
-                @SuppressWarnings("deprecation")
-				X509Extension x509Extension= x509Extensions.getExtension(oid);
-                boolean critical= x509Extension.isCritical();
-                CertificateExtension extension= new CertificateExtension(oid,
-                                                                         x509Extension,
-                                                                         critical);
-                certificateExtensions.add(extension);
-            }
+        return new ArrayList<CertificateExtension>(getParsedExtensions().list_);
+    }
+
+    /**
+     * Returns the certificate extension with the given OID.
+     * 
+     * @param oid
+     *            The extension OID.
+     * @return The CertificateExtension or <code>null</code> if the request
+     *         doesn't contain the extension.
+     */
+    public CertificateExtension getExtension(DERObjectIdentifier oid) {
+        return getExtension(oid.getId());
+    }
+
+    /**
+     * Returns the certificate extension with the given OID.
+     * 
+     * @param oid
+     *            The extension OID, like <code>2.5.29.15</code>.
+     * @return The CertificateExtension or <code>null</code> if the request
+     *         doesn't contain the extension.
+     */
+    public CertificateExtension getExtension(String oid) {
+        return getParsedExtensions().byOID_.get(oid);
+    }
+
+    /**
+     * @return The extensions, parsed on first call.
+     */
+    private ParsedExtensions getParsedExtensions() {
+        ParsedExtensions parsed= parsedExtensions_;
+        if (parsed == null) {
+            parsed= new ParsedExtensions(pkcs10_.getX509Extensions());
+            parsedExtensions_= parsed;
         }
-        return certificateExtensions;
+        return parsed;
     }
 
     /**
@@ -187,13 +333,11 @@ public class CertificateRequest {
      * @throws IOException
      */
     public void storePEM(File file) throws IOException {
-        boolean permOk= Utils.setFilePermissions(file, CSR_FILE_PERMISSION);
-        if (!permOk) {
-            LOG.warn("Failed to set permission: " + CSR_FILE_PERMISSION
-                    + " for file: " + file);
+        String pem= getPEMEncoded();
+        if (pem == null) {
+            throw new IOException("Failed to PEM encode the certificate request");
         }
-        pkcs10_.storePEMEncoded(file);
-
+        SecureFileWriter.write(file, pem, CSR_FILE_PERMISSION);
     }
 
     /**
@@ -229,4 +373,36 @@ public class CertificateRequest {
         return csr;
     }
 
+    /**
+     * Immutable list and OID index of the parsed certificate extensions.
+     */
+    static private class ParsedExtensions {
+
+        private List<CertificateExtension> list_;
+
+        private Map<String, CertificateExtension> byOID_;
+
+        ParsedExtensions(X509Extensions x509Extensions) {
+            List<CertificateExtension> list= new ArrayList<CertificateExtension>();
+            Map<String, CertificateExtension> byOID= new HashMap<String, CertificateExtension>();
+            if (x509Extensions != null) {
+                @SuppressWarnings("unchecked")
+                Enumeration<DERObjectIdentifier> oids= x509Extensions.oids();
+                while (oids.hasMoreElements()) {
+                    DERObjectIdentifier oid= oids.nextElement();
+                    @SuppressWarnings("deprecation")
+                    X509Extension x509Extension= x509Extensions.getExtension(oid);
+                    boolean critical= x509Extension.isCritical();
+                    CertificateExtension extension= new CertificateExtension(oid,
+                                                                             x509Extension,
+                                                                             critical);
+                    list.add(extension);
+                    byOID.put(oid.getId(), extension);
+                }
+            }
+            this.list_= Collections.unmodifiableList(list);
+            this.byOID_= Collections.unmodifiableMap(byOID);
+        }
+    }
+
 }
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.pki;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.glite.slcs.pki.bouncycastle.PKCS10;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CertificateRequestBatch creates the keys and certificate requests for many
+ * subjects sharing the same certificate extensions profile. The requests are
+ * created in parallel by the given {@link ExecutorService} (a
+ * {@link java.util.concurrent.ForkJoinPool}, a
+ * {@link java.util.concurrent.ThreadPoolExecutor}, a
+ * virtual thread per task executor, ...).
+ * <p>
+ * A failure for one subject does not abort the batch, it is reported in the
+ * corresponding {@link Result}. A request rejected or cancelled by the
+ * executor is reported as a failure too.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * CertificateRequestBatch batch = new CertificateRequestBatch(&quot;RSA&quot;, 2048,
+ *         password, extensions);
+ * List&lt;CertificateRequestBatch.Result&gt; results = batch.createCertificateRequests(
+ *         subjects, executor);
+ * </pre>
+ *
+ * @author Valery Tschopp &lt;tschopp@switch.ch&gt;
+ */
+public class CertificateRequestBatch {
+
+    /** Logging */
+    static private Logger LOG = LoggerFactory.getLogger(CertificateRequestBatch.class);
+
+    /** Keys algorithm */
+    private String keyAlgorithm_ = null;
+
+    /** Keys size */
+    private int keySize_ = 0;
+
+    /** Private keys password */
+    private char[] password_ = null;
+
+    /** The certificate extensions, encoded once for the whole batch */
+    private CertificateExtensionProfile profile_ = null;
+
+    /** Signature algorithm, or <code>null</code> for the keys default */
+    private String signatureAlgorithm_ = null;
+
+    /** Optional pool to draw the key pairs from */
+    private KeyPairPool keyPairPool_ = null;
+
+    /**
+     * Creates a batch creating new key pairs of the given algorithm and size
+     * for each request.
+     *
+     * @param keyAlgorithm
+     *            The keys algorithm: {@link CertificateKeys#RSA} or
+     *            {@link CertificateKeys#ECDSA}.
+     * @param keySize
+     *            The keys size.
+     * @param password
+     *            The password to store the private keys crypted, can be
+     *            <code>null</code>.
+     * @param certificateExtensions
+     *            The certificate extensions shared by all the requests, can
+     *            be <code>null</code>.
+     */
+    public CertificateRequestBatch(String keyAlgorithm, int keySize,
+            char[] password, List<CertificateExtension> certificateExtensions) {
+        this.keyAlgorithm_ = keyAlgorithm;
+        this.keySize_ = keySize;
+        this.password_ = password;
+        if (certificateExtensions == null) {
+            certificateExtensions = Collections.emptyList();
+        }
+        this.profile_ = new CertificateExtensionProfile(certificateExtensions);
+    }
+
+    /**
+     * Sets the {@link KeyPairPool} to draw the key pairs from, instead of
+     * generating them.
+     *
+     * @param pool
+     *            The key pair pool or <code>null</code>.
+     */
+    public void setKeyPairPool(KeyPairPool pool) {
+        this.keyPairPool_ = pool;
+    }
+
+    /**
+     * Sets the signature algorithm of the requests. Per default the algorithm
+     * matching the keys is used.
+     *
+     * @param signatureAlgorithm
+     *            The signature algorithm or <code>null</code>.
+     * @see PKCS10#getSignatureAlgorithm(java.security.PublicKey)
+     */
+    public void setSignatureAlgorithm(String signatureAlgorithm) {
+        this.signatureAlgorithm_ = signatureAlgorithm;
+    }
+
+    /**
+     * Creates the keys and certificate requests for all the subjects, in
+     * parallel. The method returns when all requests are done.
+     *
+     * @param subjects
+     *            The certificate requests subjects (DN).
+     * @param executor
+     *            The executor running the requests creation.
+     * @return The results, in the same order as the subjects.
+     * @throws InterruptedException
+     *             If the caller thread is interrupted while waiting for the
+     *             results.
+     */
+    public List<Result> createCertificateRequests(List<String> subjects,
+            ExecutorService executor) throws InterruptedException {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("create " + subjects.size() + " certificate requests");
+        }
+        List<Future<Result>> futures = new ArrayList<Future<Result>>(subjects.size());
+        RejectedExecutionException[] rejections = new RejectedExecutionException[subjects.size()];
+        for (int i = 0; i < subjects.size(); i++) {
+            try {
+                futures.add(executor.submit(new CertificateRequestTask(subjects.get(i))));
+            } catch (RejectedExecutionException e) {
+                LOG.error("Certificate request rejected: " + subjects.get(i), e);
+                futures.add(null);
+                rejections[i] = e;
+            }
+        }
+        List<Result> results = new ArrayList<Result>(subjects.size());
+        int failures = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            Result result;
+            Future<Result> future = futures.get(i);
+            if (future == null) {
+                result = new Result(subjects.get(i), null, null, rejections[i]);
+            }
+            else {
+                try {
+                    result = future.get();
+                } catch (ExecutionException e) {
+                    // the task catches all exceptions, should never occurs
+                    result = new Result(subjects.get(i), null, null, e.getCause());
+                } catch (CancellationException e) {
+                    LOG.error("Certificate request cancelled: " + subjects.get(i));
+                    result = new Result(subjects.get(i), null, null, e);
+                }
+            }
+            if (!result.isSuccess()) {
+                failures++;
+            }
+            results.add(result);
+        }
+        if (failures > 0) {
+            LOG.warn(failures + " of " + subjects.size()
+                    + " certificate requests failed");
+        }
+        return results;
+    }
+
+    /**
+     * Creates the keys and the certificate request for one subject.
+     */
+    private class CertificateRequestTask implements Callable<Result> {
+
+        private String subject_;
+
+        CertificateRequestTask(String subject) {
+            this.subject_ = subject;
+        }
+
+        public Result call() {
+            try {
+                CertificateKeys keys;
+                if (keyPairPool_ != null) {
+                    keys = new CertificateKeys(keyPairPool_, password_);
+                }
+                else {
+                    keys = new CertificateKeys(keyAlgorithm_, keySize_, password_);
+                }
+                String signatureAlgorithm = signatureAlgorithm_;
+                if (signatureAlgorithm == null) {
+                    signatureAlgorithm = PKCS10.getSignatureAlgorithm(keys.getPublic());
+                }
+                CertificateRequest csr = CertificateRequest.createCertificateRequest(keys,
+                                                                                     subject_,
+                                                                                     profile_,
+                                                                                     signatureAlgorithm);
+                return new Result(subject_, keys, csr, null);
+            } catch (GeneralSecurityException e) {
+                LOG.error("Failed to create certificate request: " + subject_, e);
+                return new Result(subject_, null, null, e);
+            } catch (RuntimeException e) {
+                LOG.error("Failed to create certificate request: " + subject_, e);
+                return new Result(subject_, null, null, e);
+            }
+        }
+    }
+
+    /**
+     * The keys and certificate request created for one subject, or the
+     * failure cause.
+     */
+    static public class Result {
+
+        private String subject_;
+
+        private CertificateKeys keys_;
+
+        private CertificateRequest certificateRequest_;
+
+        private Throwable failure_;
+
+        Result(String subject, CertificateKeys keys,
+                CertificateRequest certificateRequest, Throwable failure) {
+            this.subject_ = subject;
+            this.keys_ = keys;
+            this.certificateRequest_ = certificateRequest;
+            this.failure_ = failure;
+        }
+
+        /**
+         * @return The certificate request subject.
+         */
+        public String getSubject() {
+            return subject_;
+        }
+
+        /**
+         * @return The keys or <code>null</code> if the creation failed.
+         */
+        public CertificateKeys getKeys() {
+            return keys_;
+        }
+
+        /**
+         * @return The certificate request or <code>null</code> if the
+         *         creation failed.
+         */
+        public CertificateRequest getCertificateRequest() {
+            return certificateRequest_;
+        }
+
+        /**
+         * @return The failure cause or <code>null</code> if the creation
+         *         succeeded.
+         */
+        public Throwable getFailure() {
+            return failure_;
+        }
+
+        /**
+         * @return <code>true</code> iff the keys and certificate request were
+         *         created.
+         */
+        public boolean isSuccess() {
+            return failure_ == null;
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.pki;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import org.glite.slcs.pki.bouncycastle.Codec;
+import org.glite.slcs.util.SecureFileWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CredentialExporter exports a user credential (private key, certificate and
+ * chain) in PEM files, in a PKCS12 file or both.
+ * <p>
+ * All the artefacts are encoded in memory first, then each file is written
+ * with one atomic operation, with its permissions set at creation (see
+ * {@link SecureFileWriter}). An encoding error leaves all the files
+ * unchanged.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * CredentialExporter exporter= new CredentialExporter(keys, certificate);
+ * exporter.setPEMFiles(new File(dir, &quot;userkey.pem&quot;), new File(dir, &quot;usercert.pem&quot;));
+ * exporter.setPKCS12File(new File(dir, &quot;usercred.p12&quot;));
+ * exporter.export();
+ * </pre>
+ *
+ * @author Valery Tschopp <tschopp@switch.ch>
+ */
+public class CredentialExporter {
+
+    /** Logging */
+    static private Logger LOG= LoggerFactory.getLogger(CredentialExporter.class);
+
+    /** Unix file permission for the private key and PKCS12 files */
+    static private final int KEY_FILE_PERMISSION= 600;
+
+    /** The private key and its password */
+    private CertificateKeys keys_= null;
+
+    /** The certificate and its chain */
+    private Certificate certificate_= null;
+
+    /** PEM private key file */
+    private File keyFile_= null;
+
+    /** PEM certificate and chain file */
+    private File certFile_= null;
+
+    /** PKCS12 file */
+    private File pkcs12File_= null;
+
+    /** PKCS12 password, the private key password if not set */
+    private char[] pkcs12Password_= null;
+
+    /**
+     * Constructor.
+     *
+     * @param keys
+     *            The private key to export, encrypted with the keys password
+     *            if set.
+     * @param certificate
+     *            The certificate and its chain to export.
+     */
+    public CredentialExporter(CertificateKeys keys, Certificate certificate) {
+        if (keys == null || certificate == null) {
+            throw new IllegalArgumentException("keys and certificate can not be null");
+        }
+        keys_= keys;
+        certificate_= certificate;
+    }
+
+    /**
+     * Sets the PEM files to export. The private key file is readable only by
+     * the owner.
+     *
+     * @param keyFile
+     *            The private key file, like <code>userkey.pem</code>.
+     * @param certFile
+     *            The certificate and chain file, like
+     *            <code>usercert.pem</code>.
+     */
+    public void setPEMFiles(File keyFile, File certFile) {
+        if ((keyFile == null) != (certFile == null)) {
+            throw new IllegalArgumentException("both PEM files must be set");
+        }
+        keyFile_= keyFile;
+        certFile_= certFile;
+    }
+
+    /**
+     * Sets the PKCS12 file to export, protected by the private key password.
+     *
+     * @param file
+     *            The PKCS12 file, like <code>usercred.p12</code>.
+     */
+    public void setPKCS12File(File file) {
+        setPKCS12File(file, null);
+    }
+
+    /**
+     * Sets the PKCS12 file to export.
+     *
+     * @param file
+     *            The PKCS12 file, like <code>usercred.p12</code>.
+     * @param password
+     *            The PKCS12 password, or <code>null</code> to use the private
+     *            key password.
+     */
+    public void setPKCS12File(File file, char[] password) {
+        pkcs12File_= file;
+        pkcs12Password_= password;
+    }
+
+    /**
+     * Encodes the credential and writes all the files set.
+     *
+     * @throws GeneralSecurityException
+     *             If the PKCS12 encoding fails.
+     * @throws IOException
+     *             If the PEM encoding or an I/O error occurs.
+     */
+    public void export() throws GeneralSecurityException, IOException {
+        if (keyFile_ == null && pkcs12File_ == null) {
+            throw new IllegalStateException("No PEM or PKCS12 file to export");
+        }
+        // encode all the artefacts before writing
+        String keyPEM= null;
+        String certPEM= null;
+        byte[] pkcs12= null;
+        if (keyFile_ != null) {
+            keyPEM= keys_.getPEMPrivate();
+            certPEM= Codec.getPEMEncoded(certificate_.getCertificate(),
+                                         certificate_.getCertificateChain());
+        }
+        if (pkcs12File_ != null) {
+            char[] password= (pkcs12Password_ != null) ? pkcs12Password_
+                    : keys_.getPassword();
+            pkcs12= Codec.getPKCS12Encoded(keys_.getPrivate(),
+                                           certificate_.getCertificate(),
+                                           certificate_.getCertificateChain(),
+                                           password);
+        }
+        // one atomic write per artefact
+        if (keyFile_ != null) {
+            SecureFileWriter.write(keyFile_, keyPEM, KEY_FILE_PERMISSION);
+            SecureFileWriter.write(certFile_, certPEM,
+                                   Certificate.CRT_FILE_PERMISSION);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("PEM credential exported: " + keyFile_ + " "
+                        + certFile_);
+            }
+        }
+        if (pkcs12File_ != null) {
+            SecureFileWriter.write(pkcs12File_, pkcs12,
+                                   Codec.PKCS12_FILE_PERMISSION);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("PKCS12 credential exported: " + pkcs12File_);
+            }
+        }
+    }
+
+}
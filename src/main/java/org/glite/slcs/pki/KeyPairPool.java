@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.pki;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.glite.slcs.pki.bouncycastle.KeyPairGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * KeyPairPool is a bounded pool of pre-generated key pairs for one algorithm
+ * and key size. The pool is refilled in background threads up to the high
+ * watermark, as soon as the number of available key pairs drops below the low
+ * watermark.
+ * <p>
+ * Each pooled key pair is handed out exactly once.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * KeyPairPool pool = new KeyPairPool(&quot;RSA&quot;, 2048, 8, 32, 2, true);
+ * pool.start();
+ * CertificateKeys keys = new CertificateKeys(pool, password);
+ * ...
+ * pool.shutdown();
+ * </pre>
+ *
+ * @author Valery Tschopp &lt;tschopp@switch.ch&gt;
+ * @see CertificateKeys#CertificateKeys(KeyPairPool, char[])
+ */
+public class KeyPairPool {
+
+    /** Logging */
+    static private Logger LOG = LoggerFactory.getLogger(KeyPairPool.class);
+
+    /** Default low watermark */
+    public static final int DEFAULT_LOW_WATERMARK = 4;
+
+    /** Default high watermark */
+    public static final int DEFAULT_HIGH_WATERMARK = 16;
+
+    /** Default number of refill threads */
+    public static final int DEFAULT_REFILL_THREADS = 1;
+
+    /** Interval (millis) to recheck the refill while waiting for a key pair */
+    private static final long REFILL_CHECK_INTERVAL = 1000;
+
+    /** Key algorithm */
+    private String algorithm_ = null;
+
+    /** Key size */
+    private int keySize_ = 0;
+
+    /** Refill starts when the available key pairs are below */
+    private int lowWatermark_ = DEFAULT_LOW_WATERMARK;
+
+    /** Refill stops when the available key pairs reach */
+    private int highWatermark_ = DEFAULT_HIGH_WATERMARK;
+
+    /** Block until a pooled key pair is available, or generate it inline */
+    private boolean blocking_ = false;
+
+    /** The available key pairs */
+    private BlockingQueue<KeyPair> keyPairs_ = null;
+
+    /** Number of key pairs currently generated by the refill threads */
+    private AtomicInteger pending_ = new AtomicInteger(0);
+
+    /** The refill threads */
+    private ExecutorService refillExecutor_ = null;
+
+    /** The last refill failure, cleared by a successful refill */
+    private volatile Throwable refillFailure_ = null;
+
+    /** Statistics */
+    private AtomicLong pooled_ = new AtomicLong(0);
+    private AtomicLong generatedInline_ = new AtomicLong(0);
+
+    /**
+     * Creates a non-blocking pool with the default watermarks and one refill
+     * thread.
+     *
+     * @param algorithm
+     *            The key algorithm (RSA, EC, ...)
+     * @param keySize
+     *            The key size.
+     */
+    public KeyPairPool(String algorithm, int keySize) {
+        this(algorithm, keySize, DEFAULT_LOW_WATERMARK, DEFAULT_HIGH_WATERMARK,
+                DEFAULT_REFILL_THREADS, false);
+    }
+
+    /**
+     * Creates a key pair pool.
+     *
+     * @param algorithm
+     *            The key algorithm (RSA, EC, ...)
+     * @param keySize
+     *            The key size.
+     * @param lowWatermark
+     *            The refill starts when the number of available key pairs is
+     *            below this value.
+     * @param highWatermark
+     *            The maximal number of available key pairs.
+     * @param refillThreads
+     *            The number of background threads generating key pairs.
+     * @param blocking
+     *            If <code>true</code>, {@link #acquire()} waits for a pooled
+     *            key pair when the pool is empty. If <code>false</code>, the
+     *            key pair is generated in the caller thread instead.
+     * @throws IllegalArgumentException
+     *             If the parameters are invalid, or if no key pair can be
+     *             generated for the algorithm and key size.
+     */
+    public KeyPairPool(String algorithm, int keySize, int lowWatermark,
+            int highWatermark, int refillThreads, boolean blocking) {
+        if (algorithm == null) {
+            throw new IllegalArgumentException("Key algorithm may not be null");
+        }
+        if (lowWatermark < 0 || highWatermark < 1
+                || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("Invalid watermarks: low="
+                    + lowWatermark + " high=" + highWatermark);
+        }
+        if (refillThreads < 1) {
+            throw new IllegalArgumentException("Invalid refill threads: "
+                    + refillThreads);
+        }
+        this.algorithm_ = algorithm;
+        this.keySize_ = keySize;
+        // fail now, not in each refill task
+        try {
+            KeyPairGenerator generator = new KeyPairGenerator(algorithm);
+            generator.initialize(keySize);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Invalid key algorithm: "
+                    + algorithm + "/" + keySize, e);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid key algorithm: "
+                    + algorithm + "/" + keySize, e);
+        }
+        this.lowWatermark_ = lowWatermark;
+        this.highWatermark_ = highWatermark;
+        this.blocking_ = blocking;
+        this.keyPairs_ = new LinkedBlockingQueue<KeyPair>(highWatermark);
+        this.refillExecutor_ = Executors.newFixedThreadPool(refillThreads,
+                new RefillThreadFactory(algorithm + "-" + keySize));
+    }
+
+    /**
+     * Starts to fill the pool up to the high watermark.
+     */
+    public void start() {
+        LOG.info("start " + algorithm_ + "/" + keySize_ + " key pair pool (low="
+                + lowWatermark_ + " high=" + highWatermark_ + ")");
+        refill();
+    }
+
+    /**
+     * Stops the refill threads and discards the available key pairs.
+     */
+    public void shutdown() {
+        LOG.info("shutdown " + algorithm_ + "/" + keySize_ + " key pair pool");
+        refillExecutor_.shutdownNow();
+        keyPairs_.clear();
+    }
+
+    /**
+     * Acquires a key pair from the pool, according to the pool mode. In
+     * blocking mode, waits until a pooled key pair is available. In
+     * non-blocking mode, generates the key pair in the caller thread if the
+     * pool is empty.
+     *
+     * @return A key pair, never handed out before.
+     * @throws GeneralSecurityException
+     *             If the key pair can not be generated, or if the caller
+     *             thread is interrupted while waiting.
+     */
+    public KeyPair acquire() throws GeneralSecurityException {
+        if (blocking_) {
+            return take();
+        }
+        KeyPair keyPair = poll();
+        if (keyPair == null) {
+            LOG.debug("pool empty, generate key pair inline");
+            generatedInline_.incrementAndGet();
+            keyPair = generateKeyPair();
+        }
+        return keyPair;
+    }
+
+    /**
+     * Takes a pooled key pair, waiting if necessary until one is available.
+     *
+     * @return A key pair, never handed out before.
+     * @throws GeneralSecurityException
+     *             If the caller thread is interrupted while waiting, if the
+     *             pool is shut down, or if the last refill failed.
+     */
+    public KeyPair take() throws GeneralSecurityException {
+        try {
+            KeyPair keyPair = null;
+            while (keyPair == null) {
+                if (refillExecutor_.isShutdown()) {
+                    throw new GeneralSecurityException("KeyPairPool is shut down");
+                }
+                refill();
+                keyPair = keyPairs_.poll(REFILL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                Throwable failure = refillFailure_;
+                if (keyPair == null && failure != null) {
+                    throw new GeneralSecurityException("Failed to refill the "
+                            + algorithm_ + "/" + keySize_ + " key pair pool",
+                            failure);
+                }
+            }
+            pooled_.incrementAndGet();
+            refill();
+            return keyPair;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralSecurityException(
+                    "Interrupted while waiting for a key pair", e);
+        }
+    }
+
+    /**
+     * Takes a pooled key pair if one is available.
+     *
+     * @return A key pair, never handed out before, or <code>null</code> if
+     *         the pool is empty.
+     */
+    public KeyPair poll() {
+        KeyPair keyPair = keyPairs_.poll();
+        if (keyPair != null) {
+            pooled_.incrementAndGet();
+        }
+        refill();
+        return keyPair;
+    }
+
+    /**
+     * Waits until the pool contains at least <code>count</code> key pairs.
+     *
+     * @param count
+     *            The number of key pairs to wait for.
+     * @param timeout
+     *            The maximum time to wait.
+     * @param unit
+     *            The time unit of the timeout.
+     * @return <code>true</code> if the pool contains the key pairs,
+     *         <code>false</code> if the timeout elapsed.
+     * @throws InterruptedException
+     *             If the caller thread is interrupted.
+     */
+    public boolean awaitAvailable(int count, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (keyPairs_.size() < count) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * Schedules the refill tasks if the available key pairs are below the low
+     * watermark.
+     */
+    private void refill() {
+        if (refillExecutor_.isShutdown()) {
+            return;
+        }
+        int available = keyPairs_.size() + pending_.get();
+        if (available >= lowWatermark_ && available > 0) {
+            return;
+        }
+        // reserve the missing key pairs, one task per key pair
+        while (true) {
+            int pending = pending_.get();
+            int missing = highWatermark_ - keyPairs_.size() - pending;
+            if (missing <= 0) {
+                return;
+            }
+            if (pending_.compareAndSet(pending, pending + missing)) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("refill " + missing + " " + algorithm_ + "/"
+                            + keySize_ + " key pairs");
+                }
+                for (int i = 0; i < missing; i++) {
+                    refillExecutor_.execute(new RefillTask());
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return A new key pair generated in the current thread.
+     * @throws GeneralSecurityException
+     */
+    private KeyPair generateKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator generator = new KeyPairGenerator(algorithm_);
+        generator.initialize(keySize_);
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * Generates one key pair and adds it to the pool. A key pair leaves the
+     * pending count before it is available, a refill scheduled meanwhile may
+     * request one key pair too many: the task skips the generation if the pool
+     * is already full.
+     */
+    private class RefillTask implements Runnable {
+        public void run() {
+            KeyPair keyPair = null;
+            try {
+                if (keyPairs_.remainingCapacity() > 0) {
+                    keyPair = generateKeyPair();
+                    refillFailure_ = null;
+                }
+            } catch (GeneralSecurityException e) {
+                LOG.error("Failed to generate " + algorithm_ + "/" + keySize_
+                        + " key pair", e);
+                refillFailure_ = e;
+            } catch (RuntimeException e) {
+                LOG.error("Failed to generate " + algorithm_ + "/" + keySize_
+                        + " key pair", e);
+                refillFailure_ = e;
+            } finally {
+                pending_.decrementAndGet();
+            }
+            if (keyPair != null && !keyPairs_.offer(keyPair)) {
+                LOG.debug("pool full, key pair discarded");
+            }
+        }
+    }
+
+    /**
+     * Creates daemon refill threads.
+     */
+    static private class RefillThreadFactory implements ThreadFactory {
+        private String name_;
+        private AtomicInteger count_ = new AtomicInteger(0);
+
+        RefillThreadFactory(String name) {
+            this.name_ = name;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "KeyPairPool-" + name_ + "-"
+                    + count_.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+
+    /**
+     * @return The key algorithm.
+     */
+    public String getAlgorithm() {
+        return algorithm_;
+    }
+
+    /**
+     * @return The key size.
+     */
+    public int getKeySize() {
+        return keySize_;
+    }
+
+    /**
+     * @return The number of key pairs currently available in the pool.
+     */
+    public int getAvailable() {
+        return keyPairs_.size();
+    }
+
+    /**
+     * @return The number of key pairs handed out from the pool.
+     */
+    public long getPooledCount() {
+        return pooled_.get();
+    }
+
+    /**
+     * @return The number of key pairs generated in the caller thread because
+     *         the pool was empty.
+     */
+    public long getGeneratedInlineCount() {
+        return generatedInline_.get();
+    }
+
+}
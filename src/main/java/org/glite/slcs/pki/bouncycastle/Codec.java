@@ -16,8 +16,8 @@
  */
 package org.glite.slcs.pki.bouncycastle;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
@@ -27,10 +27,11 @@ import java.security.Key;
 import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.SecureRandom;
 import java.security.Security;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
 
 import org.bouncycastle.asn1.DERObjectIdentifier;
@@ -39,9 +40,13 @@ import org.bouncycastle.jce.PrincipalUtil;
 import org.bouncycastle.jce.X509Principal;
 import org.bouncycastle.jce.interfaces.PKCS12BagAttributeCarrier;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.EncryptionException;
 import org.bouncycastle.openssl.PEMReader;
 import org.bouncycastle.openssl.PEMWriter;
+import org.bouncycastle.openssl.PKCS8Generator;
 import org.bouncycastle.x509.extension.SubjectKeyIdentifierStructure;
+import org.glite.slcs.util.SecureFileWriter;
+import org.glite.slcs.util.SecureRandomProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,6 +60,36 @@ public class Codec {
     /** Logging */
     static private Logger LOG = LoggerFactory.getLogger(Codec.class);
 
+    /**
+     * Legacy OpenSSL PEM private key encryption: DES-EDE3-CBC, with a single
+     * MD5 key derivation. Readable by all OpenSSL versions.
+     */
+    static public final String KEY_ENCRYPTION_DESEDE = "DESEDE";
+
+    /**
+     * PKCS#8 private key encryption: PBES2 with PBKDF2 key derivation and
+     * AES-128-CBC.
+     */
+    static public final String KEY_ENCRYPTION_AES_128_CBC = PKCS8Generator.AES_128_CBC;
+
+    /**
+     * PKCS#8 private key encryption: PBES2 with PBKDF2 key derivation and
+     * AES-192-CBC.
+     */
+    static public final String KEY_ENCRYPTION_AES_192_CBC = PKCS8Generator.AES_192_CBC;
+
+    /**
+     * PKCS#8 private key encryption: PBES2 with PBKDF2 key derivation and
+     * AES-256-CBC.
+     */
+    static public final String KEY_ENCRYPTION_AES_256_CBC = PKCS8Generator.AES_256_CBC;
+
+    /** Default PBKDF2 iteration count for the PKCS#8 encryption */
+    static public final int DEFAULT_ITERATION_COUNT = 2048;
+
+    /** Unix file permission for the PKCS12 file */
+    static public final int PKCS12_FILE_PERMISSION = 600;
+
     /** Static initialisation */
     static {
         // add only once
@@ -104,9 +139,7 @@ public class Codec {
         StringWriter sw = new StringWriter();
         PEMWriter pem = new PEMWriter(sw);
         try {
-            String algorithm = "DESEDE";
-            SecureRandom random = new SecureRandom();
-            pem.writeObject(key, algorithm, password, random);
+            pem.writeObject(key, KEY_ENCRYPTION_DESEDE, password, SecureRandomProvider.getSecureRandom());
         } catch (IOException e) {
             LOG.warn("Failed to write encoded PEM key", e);
             return null;
@@ -122,6 +155,63 @@ public class Codec {
         return sw.toString();
     }
 
+    /**
+     * PEM encode the encrypted Key with the given encryption algorithm.
+     * <p>
+     * The PKCS#8 algorithms (<code>KEY_ENCRYPTION_AES_*</code>) produce an
+     * <code>ENCRYPTED PRIVATE KEY</code> block, the key derivation cost is
+     * set by the iteration count. The legacy {@link #KEY_ENCRYPTION_DESEDE}
+     * produces an OpenSSL <code>RSA PRIVATE KEY</code> block and ignores the
+     * iteration count.
+     * 
+     * @param key
+     *            The private key to encode.
+     * @param password
+     *            The Key encryption password.
+     * @param algorithm
+     *            The encryption algorithm, like
+     *            {@link #KEY_ENCRYPTION_AES_256_CBC}.
+     * @param iterationCount
+     *            The PBKDF2 iteration count, like
+     *            {@link #DEFAULT_ITERATION_COUNT}.
+     * @return The PEM encode String representation of the key.
+     * @throws IOException
+     *             If the algorithm is not supported or the encryption fails.
+     */
+    static public String getPEMEncoded(PrivateKey key, char[] password,
+            String algorithm, int iterationCount) throws IOException {
+        StringWriter sw = new StringWriter();
+        PEMWriter pem = new PEMWriter(sw);
+        if (isPKCS8Encryption(algorithm)) {
+            PKCS8Generator pkcs8;
+            try {
+                pkcs8 = new PKCS8Generator(key, algorithm, BouncyCastleProvider.PROVIDER_NAME);
+            } catch (GeneralSecurityException e) {
+                throw new EncryptionException("PKCS#8 encryption " + algorithm + " not available", e);
+            }
+            pkcs8.setPassword(password);
+            pkcs8.setIterationCount(iterationCount);
+            pkcs8.setSecureRandom(SecureRandomProvider.getSecureRandom());
+            pem.writeObject(pkcs8);
+        }
+        else {
+            pem.writeObject(key, algorithm, password, SecureRandomProvider.getSecureRandom());
+        }
+        pem.close();
+        return sw.toString();
+    }
+
+    /**
+     * @param algorithm
+     *            The key encryption algorithm.
+     * @return <code>true</code> if the algorithm is a PKCS#8 PBES2 encryption.
+     */
+    static public boolean isPKCS8Encryption(String algorithm) {
+        return KEY_ENCRYPTION_AES_128_CBC.equals(algorithm)
+                || KEY_ENCRYPTION_AES_192_CBC.equals(algorithm)
+                || KEY_ENCRYPTION_AES_256_CBC.equals(algorithm);
+    }
+
     /**
      * Store the Key PEM encoded in a File. OpenSSL compatible.
      * 
@@ -161,9 +251,7 @@ public class Codec {
             throws IOException {
         FileWriter fw = new FileWriter(file);
         PEMWriter pem = new PEMWriter(fw);
-        String algorithm = "DESEDE";
-        SecureRandom random = new SecureRandom();
-        pem.writeObject(key, algorithm, password, random);
+        pem.writeObject(key, KEY_ENCRYPTION_DESEDE, password, SecureRandomProvider.getSecureRandom());
         try {
             pem.close();
             fw.close();
@@ -229,6 +317,32 @@ public class Codec {
         }
     }
 
+    /**
+     * Returns the PEM encoded String of the X509 certificate and its chain,
+     * written in one pass. OpenSSL compatible.
+     * 
+     * @param cert
+     *            The X509 certificate.
+     * @param chain
+     *            The X509 certificates chain array, can be <code>null</code>.
+     * @return The PEM encoded String.
+     * @throws IOException
+     *             If an encoding error occurs.
+     */
+    static public String getPEMEncoded(X509Certificate cert,
+            X509Certificate[] chain) throws IOException {
+        StringWriter sw = new StringWriter();
+        PEMWriter pem = new PEMWriter(sw);
+        pem.writeObject(cert);
+        if (chain != null) {
+            for (int i = 0; i < chain.length; i++) {
+                pem.writeObject(chain[i]);
+            }
+        }
+        pem.close();
+        return sw.toString();
+    }
+
     /**
      * Returns the PEM encoded String of the X509 certificate. OpenSSL
      * compatible.
@@ -260,7 +374,9 @@ public class Codec {
 
     /**
      * Return an array of all X509Certificates stored in a PEM encoded source.
-     * The certificate order of the source is respected.
+     * The certificate order of the source is respected. Use a
+     * {@link PEMCertificateReader} to process large sources one certificate
+     * at a time.
      * 
      * @param reader
      *            The Reader used to read the source.
@@ -270,28 +386,22 @@ public class Codec {
      */
     static public X509Certificate[] readPEMEncodedCertificates(Reader reader)
             throws IOException {
-        Vector<X509Certificate> certificates = new Vector<X509Certificate>();
+        List<X509Certificate> certificates = new ArrayList<X509Certificate>();
         LOG.debug("read all certificates");
-        PEMReader pr = new PEMReader(reader);
-        boolean haveNext = true;
-        while (haveNext) {
-            X509Certificate certificate = (X509Certificate) pr.readObject();
-            if (certificate == null) {
-                haveNext = false; // stop loop
-            }
-            else {
-                certificates.add(certificate);
-            }
+        PEMCertificateReader certificateReader = new PEMCertificateReader(reader);
+        X509Certificate certificate;
+        while ((certificate = certificateReader.readCertificate()) != null) {
+            certificates.add(certificate);
         }
         int length = certificates.size();
         LOG.debug(length + " certificates found");
-        X509Certificate certificatesArray[] = (X509Certificate[]) certificates.toArray(new X509Certificate[length]);
-        return certificatesArray;
+        return certificates.toArray(new X509Certificate[length]);
     }
 
     /**
      * Stores the private key and certificate in a PKCS12 file. The certificate
-     * Subject CN is used as key alias in the PKCS12 store.
+     * Subject CN is used as key alias in the PKCS12 store. The file is written
+     * atomically, readable only by the owner.
      * 
      * @param privateKey
      *            The private key.
@@ -311,6 +421,34 @@ public class Codec {
     static public void storePKCS12(PrivateKey privateKey,
             X509Certificate certificate, X509Certificate chain[], File file,
             char[] password) throws GeneralSecurityException, IOException {
+        byte[] pkcs12 = getPKCS12Encoded(privateKey, certificate, chain, password);
+        SecureFileWriter.write(file, pkcs12, PKCS12_FILE_PERMISSION);
+    }
+
+    /**
+     * Returns the PKCS12 encoded private key, certificate and its chain. The
+     * certificate Subject CN is used as key alias in the PKCS12 store.
+     * 
+     * @param privateKey
+     *            The private key.
+     * @param certificate
+     *            The X509 certificate.
+     * @param chain
+     *            The X509 certificate chain, can be <code>null</code>.
+     * @param password
+     *            The password for the PKCS12 store.
+     * @return The PKCS12 store bytes.
+     * @throws GeneralSecurityException
+     *             If a crypto error occurs.
+     * @throws IOException
+     *             If an encoding error occurs.
+     */
+    static public byte[] getPKCS12Encoded(PrivateKey privateKey,
+            X509Certificate certificate, X509Certificate chain[],
+            char[] password) throws GeneralSecurityException, IOException {
+        if (chain == null) {
+            chain = new X509Certificate[0];
+        }
         // set the bag information for the PKCS12 keystore
         PKCS12BagAttributeCarrier bagAttr = (PKCS12BagAttributeCarrier) privateKey;
         PublicKey publicKey = certificate.getPublicKey();
@@ -332,10 +470,9 @@ public class Codec {
         p12Store.load(null, null);
         // set the key entry
         p12Store.setKeyEntry(alias, privateKey, null, certs);
-        // store the file
-        FileOutputStream fos = new FileOutputStream(file);
-        p12Store.store(fos, password);
-        fos.close();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        p12Store.store(out, password);
+        return out.toByteArray();
     }
 
     /**
@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.pki.bouncycastle;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.DERObjectIdentifier;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.x509.X509DefaultEntryConverter;
+import org.bouncycastle.asn1.x509.X509Name;
+import org.bouncycastle.asn1.x509.X509NameEntryConverter;
+
+/**
+ * Single pass RFC 4514 (RFC 2253) distinguished name parser. The RDNs are
+ * encoded in the order of the string, the attributes of a multi-valued RDN
+ * (<code>CN=A+CN=B</code>) in one DER SET.
+ * <p>
+ * The parser supports the escaped characters (<code>\,</code>,
+ * <code>\+</code>, ...), the hex escaped UTF-8 bytes (<code>\C3\A9</code>),
+ * the quoted values, the hex encoded values (<code>#04024869</code>) and the
+ * numeric attribute types (<code>2.5.4.3</code> or <code>OID.2.5.4.3</code>).
+ * <p>
+ * The class is stateless and thread-safe.
+ *
+ * @author Valery Tschopp &lt;tschopp@switch.ch&gt;
+ * @see X509PrincipalUtil
+ */
+@SuppressWarnings("deprecation")
+public class DNParser {
+
+    /** Attribute type OIDs, keyed by lower case name */
+    static private final Map<String, DERObjectIdentifier> OIDS;
+
+    /** Converts the string values in ASN.1 */
+    static private final X509NameEntryConverter CONVERTER = new X509DefaultEntryConverter();
+
+    static {
+        Map<String, DERObjectIdentifier> oids = new HashMap<String, DERObjectIdentifier>();
+        Enumeration<?> names = X509Name.DefaultLookUp.keys();
+        while (names.hasMoreElements()) {
+            String name = (String) names.nextElement();
+            oids.put(name, (DERObjectIdentifier) X509Name.DefaultLookUp.get(name));
+        }
+        OIDS = Collections.unmodifiableMap(oids);
+    }
+
+    private DNParser() {
+    }
+
+    /**
+     * Parses the distinguished name and returns its DER encoded RDNSequence.
+     *
+     * @param name
+     *            The distinguished name, like
+     *            <code>CN=Foo\+Bar,O=SWITCH+O=MAMS,C=CH</code>
+     * @return the DER encoded RDNSequence.
+     * @throws GeneralSecurityException
+     *             if the name is invalid.
+     */
+    static public byte[] encode(String name) throws GeneralSecurityException {
+        return parse(name).getDEREncoded();
+    }
+
+    /**
+     * Parses the distinguished name.
+     *
+     * @param name
+     *            The distinguished name.
+     * @return the RDNSequence.
+     * @throws GeneralSecurityException
+     *             if the name is invalid.
+     */
+    static public DERSequence parse(String name)
+            throws GeneralSecurityException {
+        if (name == null) {
+            throw new GeneralSecurityException("DN is null");
+        }
+        int length = name.length();
+        ASN1EncodableVector rdns = new ASN1EncodableVector();
+        ASN1EncodableVector rdn = new ASN1EncodableVector();
+        StringBuilder value = new StringBuilder();
+        int pos = skipSpaces(name, 0);
+        if (pos == length) {
+            // empty DN
+            return new DERSequence(rdns);
+        }
+        while (true) {
+            // attribute type
+            int equals = name.indexOf('=', pos);
+            if (equals < 0) {
+                throw invalid(name, pos, "'=' expected");
+            }
+            DERObjectIdentifier oid = getOID(name, pos, equals);
+            // attribute value
+            pos = skipSpaces(name, equals + 1);
+            value.setLength(0);
+            pos = readValue(name, pos, value);
+            ASN1EncodableVector attribute = new ASN1EncodableVector();
+            attribute.add(oid);
+            attribute.add(CONVERTER.getConvertedValue(oid, value.toString()));
+            rdn.add(new DERSequence(attribute));
+            if (pos == length) {
+                rdns.add(new DERSet(rdn));
+                break;
+            }
+            char c = name.charAt(pos);
+            if (c == ',' || c == ';') {
+                rdns.add(new DERSet(rdn));
+                rdn = new ASN1EncodableVector();
+            }
+            else if (c != '+') {
+                throw invalid(name, pos, "',' or '+' expected");
+            }
+            pos = skipSpaces(name, pos + 1);
+        }
+        return new DERSequence(rdns);
+    }
+
+    /**
+     * Returns the OID of the attribute type <code>name[start..end[</code>.
+     */
+    static private DERObjectIdentifier getOID(String name, int start, int end)
+            throws GeneralSecurityException {
+        while (end > start && name.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (start == end) {
+            throw invalid(name, start, "attribute type expected");
+        }
+        char[] type = new char[end - start];
+        for (int i = 0; i < type.length; i++) {
+            char c = name.charAt(start + i);
+            if (c >= 'A' && c <= 'Z') {
+                c = (char) (c + ('a' - 'A'));
+            }
+            type[i] = c;
+        }
+        String key = new String(type);
+        DERObjectIdentifier oid = OIDS.get(key);
+        if (oid != null) {
+            return oid;
+        }
+        if (key.startsWith("oid.")) {
+            key = key.substring(4);
+        }
+        if (key.length() > 0 && key.charAt(0) >= '0' && key.charAt(0) <= '9') {
+            try {
+                return new DERObjectIdentifier(key);
+            } catch (IllegalArgumentException e) {
+                throw invalid(name, start, "invalid OID " + key);
+            }
+        }
+        throw invalid(name, start, "unknown attribute type "
+                + name.substring(start, end));
+    }
+
+    /**
+     * Reads the attribute value starting at <code>pos</code> in the buffer.
+     * The value is unescaped and trimmed, a hex encoded value is returned as
+     * is (<code>#...</code>).
+     *
+     * @return the position of the separator following the value, or the
+     *         length of the name.
+     */
+    static private int readValue(String name, int pos, StringBuilder value)
+            throws GeneralSecurityException {
+        int length = name.length();
+        if (pos < length && name.charAt(pos) == '#') {
+            // hex encoded BER value, converted as is
+            int end = pos;
+            while (end < length && !isSeparator(name.charAt(end))) {
+                end++;
+            }
+            value.append(name, pos, end);
+            trimTrailingSpaces(value);
+            return end;
+        }
+        boolean quoted = pos < length && name.charAt(pos) == '"';
+        if (quoted) {
+            pos++;
+        }
+        // length of the value without the unescaped trailing spaces
+        int keep = 0;
+        while (pos < length) {
+            char c = name.charAt(pos);
+            if (c == '\\') {
+                pos = readEscaped(name, pos, value);
+                keep = value.length();
+                continue;
+            }
+            if (quoted) {
+                if (c == '"') {
+                    pos = skipSpaces(name, pos + 1);
+                    if (pos < length && !isSeparator(name.charAt(pos))) {
+                        throw invalid(name, pos, "separator expected");
+                    }
+                    return escapeLeading(value, value.length(), pos);
+                }
+                value.append(c);
+                keep = value.length();
+            }
+            else {
+                if (isSeparator(c)) {
+                    break;
+                }
+                value.append(c);
+                if (c != ' ') {
+                    keep = value.length();
+                }
+            }
+            pos++;
+        }
+        if (quoted) {
+            throw invalid(name, pos, "'\"' expected");
+        }
+        return escapeLeading(value, keep, pos);
+    }
+
+    /**
+     * Reads the escaped character or the sequence of escaped hex pairs
+     * (UTF-8) at <code>pos</code>.
+     *
+     * @return the position following the escape sequence.
+     */
+    static private int readEscaped(String name, int pos, StringBuilder value)
+            throws GeneralSecurityException {
+        int length = name.length();
+        if (pos + 1 >= length) {
+            throw invalid(name, pos, "escaped character expected");
+        }
+        if (!isHexPair(name, pos + 1)) {
+            value.append(name.charAt(pos + 1));
+            return pos + 2;
+        }
+        // consecutive hex pairs form an UTF-8 sequence
+        int end = pos;
+        while (end + 2 < length && name.charAt(end) == '\\'
+                && isHexPair(name, end + 1)) {
+            end += 3;
+        }
+        byte[] bytes = new byte[(end - pos) / 3];
+        for (int i = 0; i < bytes.length; i++) {
+            int p = pos + i * 3 + 1;
+            bytes[i] = (byte) ((Character.digit(name.charAt(p), 16) << 4) | Character.digit(name.charAt(p + 1),
+                                                                                            16));
+        }
+        try {
+            value.append(new String(bytes, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new GeneralSecurityException("UTF-8 not supported", e);
+        }
+        return end;
+    }
+
+    /**
+     * Truncates the value to <code>keep</code> characters and escapes a
+     * leading <code>#</code> or <code>\</code>, which would otherwise be
+     * interpreted by the entry converter.
+     *
+     * @return <code>pos</code>
+     */
+    static private int escapeLeading(StringBuilder value, int keep, int pos) {
+        value.setLength(keep);
+        if (keep > 0 && (value.charAt(0) == '#' || value.charAt(0) == '\\')) {
+            value.insert(0, '\\');
+        }
+        return pos;
+    }
+
+    static private void trimTrailingSpaces(StringBuilder value) {
+        int end = value.length();
+        while (end > 0 && value.charAt(end - 1) == ' ') {
+            end--;
+        }
+        value.setLength(end);
+    }
+
+    static private boolean isSeparator(char c) {
+        return c == ',' || c == '+' || c == ';';
+    }
+
+    static private boolean isHexPair(String name, int pos) {
+        return pos + 1 < name.length()
+                && Character.digit(name.charAt(pos), 16) >= 0
+                && Character.digit(name.charAt(pos + 1), 16) >= 0;
+    }
+
+    static private int skipSpaces(String name, int pos) {
+        while (pos < name.length() && name.charAt(pos) == ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    static private GeneralSecurityException invalid(String name, int pos,
+            String reason) {
+        return new GeneralSecurityException("Invalid DN '" + name
+                + "' at position " + pos + ": " + reason);
+    }
+
+}
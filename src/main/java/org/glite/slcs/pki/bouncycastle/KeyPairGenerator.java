@@ -17,10 +17,14 @@
 package org.glite.slcs.pki.bouncycastle;
 
 import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.KeyPair;
 import java.security.Security;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.ECGenParameterSpec;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.glite.slcs.util.SecureRandomProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -63,13 +67,43 @@ public class KeyPairGenerator {
     }
 
     /**
-     * Initializes the generator to generate key pair of the given size.
+     * Initializes the generator to generate key pair of the given size, with
+     * the {@link SecureRandomProvider} random of the current thread.
      * 
      * @param keysize
      *            The size of the keys to generate.
      */
     public void initialize(int keysize) {
-        generator_.initialize(keysize);
+        generator_.initialize(keysize, SecureRandomProvider.getSecureRandom());
+    }
+
+    /**
+     * Initializes the generator with the given algorithm parameters, with the
+     * {@link SecureRandomProvider} random of the current thread.
+     * 
+     * @param params
+     *            The algorithm parameters, for example an
+     *            {@link ECGenParameterSpec} for a named curve.
+     * @throws InvalidAlgorithmParameterException
+     *             If the parameters are not supported by the algorithm.
+     */
+    public void initialize(AlgorithmParameterSpec params)
+            throws InvalidAlgorithmParameterException {
+        generator_.initialize(params, SecureRandomProvider.getSecureRandom());
+    }
+
+    /**
+     * Initializes the generator to generate EC key pair on the given named
+     * curve (P-256, P-384, prime256v1, ...).
+     * 
+     * @param curveName
+     *            The named curve.
+     * @throws InvalidAlgorithmParameterException
+     *             If the curve is unknown.
+     */
+    public void initialize(String curveName)
+            throws InvalidAlgorithmParameterException {
+        initialize(new ECGenParameterSpec(curveName));
     }
 
     /**
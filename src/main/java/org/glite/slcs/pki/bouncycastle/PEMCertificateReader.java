@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.pki.bouncycastle;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PEMReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * PEMCertificateReader reads the X509 certificates of a PEM encoded source one
+ * at a time. Only the current certificate is held in memory, the reading can
+ * stop at any point. The PEM objects which are not certificates are skipped.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * PEMCertificateReader certificates = new PEMCertificateReader(reader);
+ * try {
+ *     while (certificates.hasNext()) {
+ *         X509Certificate certificate = certificates.next();
+ *         ...
+ *     }
+ * } finally {
+ *     certificates.close();
+ * }
+ * </pre>
+ *
+ * @author Valery Tschopp &lt;tschopp@switch.ch&gt;
+ */
+public class PEMCertificateReader implements Iterator<X509Certificate>,
+        Closeable {
+
+    /** Logging */
+    static private Logger LOG = LoggerFactory.getLogger(PEMCertificateReader.class);
+
+    static {
+        // add only once
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            LOG.info("add BouncyCastle security provider");
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    /** BouncyCastle PEM reader */
+    private PEMReader pemReader_ = null;
+
+    /** The certificate read ahead by {@link #hasNext()} */
+    private X509Certificate next_ = null;
+
+    /** End of source reached */
+    private boolean eof_ = false;
+
+    /** Number of certificates read */
+    private int count_ = 0;
+
+    /**
+     * Creates a certificate reader on the PEM source.
+     *
+     * @param reader
+     *            The Reader used to read the PEM source.
+     */
+    public PEMCertificateReader(Reader reader) {
+        this.pemReader_ = new PEMReader(reader);
+    }
+
+    /**
+     * Reads the next certificate of the source.
+     *
+     * @return The next X509 certificate or <code>null</code> if the end of
+     *         the source is reached.
+     * @throws IOException
+     *             If an error occurs while reading the source.
+     */
+    public X509Certificate readCertificate() throws IOException {
+        if (next_ != null) {
+            X509Certificate certificate = next_;
+            next_ = null;
+            return certificate;
+        }
+        while (!eof_) {
+            Object object = pemReader_.readObject();
+            if (object == null) {
+                eof_ = true;
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(count_ + " certificates found");
+                }
+            }
+            else if (object instanceof X509Certificate) {
+                count_++;
+                return (X509Certificate) object;
+            }
+            else {
+                LOG.debug("skip PEM object: " + object.getClass().getName());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return <code>true</code> if the source contains another certificate.
+     * @throws IllegalStateException
+     *             If an error occurs while reading the source, the
+     *             {@link IOException} is the cause.
+     */
+    public boolean hasNext() {
+        if (next_ == null) {
+            try {
+                next_ = readCertificate();
+            } catch (IOException e) {
+                LOG.error("Failed to read PEM certificate", e);
+                throw new IllegalStateException("Failed to read PEM certificate: "
+                        + e.getMessage(), e);
+            }
+        }
+        return next_ != null;
+    }
+
+    /**
+     * @return The next X509 certificate.
+     * @throws NoSuchElementException
+     *             If the end of the source is reached.
+     * @throws IllegalStateException
+     *             If an error occurs while reading the source.
+     */
+    public X509Certificate next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more certificates");
+        }
+        X509Certificate certificate = next_;
+        next_ = null;
+        return certificate;
+    }
+
+    /**
+     * Not supported.
+     *
+     * @throws UnsupportedOperationException
+     */
+    public void remove() {
+        throw new UnsupportedOperationException("remove not supported");
+    }
+
+    /**
+     * @return The number of certificates read so far.
+     */
+    public int getCount() {
+        return count_;
+    }
+
+    /**
+     * Closes the underlying reader.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        next_ = null;
+        eof_ = true;
+        pemReader_.close();
+    }
+
+}
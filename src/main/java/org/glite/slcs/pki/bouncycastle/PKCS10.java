@@ -20,27 +20,50 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
 import java.security.Principal;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Security;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.interfaces.ECKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Object;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.ASN1Set;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERNull;
 import org.bouncycastle.asn1.DERObjectIdentifier;
 import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.pkcs.CertificationRequest;
+import org.bouncycastle.asn1.pkcs.CertificationRequestInfo;
 import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.asn1.x509.Attribute;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.asn1.x509.X509Extensions;
 import org.bouncycastle.asn1.x509.X509Name;
+import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
 import org.bouncycastle.jce.PKCS10CertificationRequest;
 import org.bouncycastle.jce.X509Principal;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openssl.PEMReader;
 import org.bouncycastle.openssl.PEMWriter;
+import org.bouncycastle.util.io.pem.PemObject;
+import org.glite.slcs.util.SecureRandomProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,9 +89,84 @@ public class PKCS10 {
     /** Signature algorithm for the PKCS#10 request */
     static public String SIGNATURE_ALGORITHM = "SHA1WithRSA";
 
+    /** Signature algorithm for the PKCS#10 request with a P-256 EC key */
+    static public String EC256_SIGNATURE_ALGORITHM = "SHA256WithECDSA";
+
+    /** Signature algorithm for the PKCS#10 request with a P-384 EC key */
+    static public String EC384_SIGNATURE_ALGORITHM = "SHA384WithECDSA";
+
+    /**
+     * Verify the signature of the freshly signed PKCS#10 requests. Parsed
+     * requests are always verified.
+     */
+    static public boolean VERIFY_SIGNED_REQUEST = true;
+
+    /** Number of PKCS#10 signature verifications performed */
+    static private AtomicLong VERIFIED_COUNT = new AtomicLong(0);
+
+    /** Number of PKCS#10 signature verifications skipped */
+    static private AtomicLong SKIPPED_VERIFY_COUNT = new AtomicLong(0);
+
+    /**
+     * Signature algorithms signed with the cached engines, keyed by upper case
+     * name. Other algorithms are resolved by BouncyCastle.
+     */
+    static private Map<String, AlgorithmIdentifier> SIGNATURE_ALGORITHM_IDS = new HashMap<String, AlgorithmIdentifier>();
+
+    /** Signature algorithm names, keyed by OID, for the verification */
+    static private Map<DERObjectIdentifier, String> SIGNATURE_ALGORITHM_NAMES = new HashMap<DERObjectIdentifier, String>();
+
+    /** Public key algorithm names, keyed by OID, for the verification */
+    static private Map<DERObjectIdentifier, String> KEY_ALGORITHM_NAMES = new HashMap<DERObjectIdentifier, String>();
+
+    static {
+        // RSA signatures have NULL parameters, ECDSA signatures have none
+        addSignatureAlgorithm("SHA1WithRSA", PKCSObjectIdentifiers.sha1WithRSAEncryption, true);
+        addSignatureAlgorithm("SHA256WithRSA", PKCSObjectIdentifiers.sha256WithRSAEncryption, true);
+        addSignatureAlgorithm("SHA384WithRSA", PKCSObjectIdentifiers.sha384WithRSAEncryption, true);
+        addSignatureAlgorithm("SHA512WithRSA", PKCSObjectIdentifiers.sha512WithRSAEncryption, true);
+        addSignatureAlgorithm("SHA1WithECDSA", X9ObjectIdentifiers.ecdsa_with_SHA1, false);
+        addSignatureAlgorithm("SHA256WithECDSA", X9ObjectIdentifiers.ecdsa_with_SHA256, false);
+        addSignatureAlgorithm("SHA384WithECDSA", X9ObjectIdentifiers.ecdsa_with_SHA384, false);
+        addSignatureAlgorithm("SHA512WithECDSA", X9ObjectIdentifiers.ecdsa_with_SHA512, false);
+        KEY_ALGORITHM_NAMES.put(PKCSObjectIdentifiers.rsaEncryption, "RSA");
+        KEY_ALGORITHM_NAMES.put(X9ObjectIdentifiers.id_ecPublicKey, "ECDSA");
+    }
+
+    static private void addSignatureAlgorithm(String name,
+            DERObjectIdentifier oid, boolean nullParameters) {
+        AlgorithmIdentifier algorithmId;
+        if (nullParameters) {
+            algorithmId = new AlgorithmIdentifier(oid, DERNull.INSTANCE);
+        }
+        else {
+            algorithmId = new AlgorithmIdentifier(oid);
+        }
+        SIGNATURE_ALGORITHM_IDS.put(name.toUpperCase(), algorithmId);
+        SIGNATURE_ALGORITHM_NAMES.put(oid, name);
+    }
+
+    /** PEM block type */
+    static private final String PEM_TYPE = "CERTIFICATE REQUEST";
+
+    /** Request without attributes */
+    static private final ASN1Set EMPTY_ATTRIBUTES = new DERSet();
+
     /** BouncyCastle PKCS#10 */
     private PKCS10CertificationRequest bcPKCS10_ = null;
 
+    /** Subject principal, parsed lazily */
+    private volatile X509Principal principal_ = null;
+
+    /** Extensions, parsed lazily, null if none */
+    private volatile X509Extensions x509Extensions_ = null;
+
+    /** Are the extensions parsed? */
+    private volatile boolean x509ExtensionsParsed_ = false;
+
+    /** DER encoding, encoded lazily, never modified */
+    private volatile byte[] encoded_ = null;
+
     /**
      * 
      * @param subject
@@ -91,29 +189,108 @@ public class PKCS10 {
      */
     public PKCS10(String subject, PublicKey publicKey, PrivateKey privateKey,
             X509Extensions x509Extensions) throws GeneralSecurityException {
+        this(subject, publicKey, privateKey, x509Extensions,
+             getSignatureAlgorithm(publicKey));
+    }
+
+    /**
+     * 
+     * @param subject
+     * @param publicKey
+     * @param privateKey
+     * @param x509Extensions
+     * @param signatureAlgorithm
+     *            The signature algorithm (SHA1WithRSA, SHA256WithECDSA, ...)
+     *            matching the private key.
+     * @throws GeneralSecurityException
+     */
+    public PKCS10(String subject, PublicKey publicKey, PrivateKey privateKey,
+            X509Extensions x509Extensions, String signatureAlgorithm)
+            throws GeneralSecurityException {
+        this(subject, publicKey, privateKey, x509Extensions,
+             signatureAlgorithm, VERIFY_SIGNED_REQUEST);
+    }
+
+    /**
+     * 
+     * @param subject
+     * @param publicKey
+     * @param privateKey
+     * @param x509Extensions
+     * @param signatureAlgorithm
+     *            The signature algorithm (SHA1WithRSA, SHA256WithECDSA, ...)
+     *            matching the private key.
+     * @param verify
+     *            If <code>false</code>, the signature of the freshly signed
+     *            request is not verified again.
+     * @throws GeneralSecurityException
+     */
+    public PKCS10(String subject, PublicKey publicKey, PrivateKey privateKey,
+            X509Extensions x509Extensions, String signatureAlgorithm,
+            boolean verify) throws GeneralSecurityException {
+        this(subject, publicKey, privateKey, signatureAlgorithm,
+             createExtensionRequest(x509Extensions), verify);
+    }
+
+    /**
+     * Creates a PKCS#10 request with an extension request attribute created
+     * once with {@link #createExtensionRequest(X509Extensions)} and shared by
+     * many requests.
+     * 
+     * @param subject
+     * @param publicKey
+     * @param privateKey
+     * @param signatureAlgorithm
+     *            The signature algorithm (SHA1WithRSA, SHA256WithECDSA, ...)
+     *            matching the private key.
+     * @param extensionRequest
+     *            The request attributes, not modified.
+     * @param verify
+     *            If <code>false</code>, the signature of the freshly signed
+     *            request is not verified again.
+     * @throws GeneralSecurityException
+     */
+    public PKCS10(String subject, PublicKey publicKey, PrivateKey privateKey,
+            String signatureAlgorithm, ASN1Set extensionRequest, boolean verify)
+            throws GeneralSecurityException {
         // subject DN
         X509PrincipalUtil util = new X509PrincipalUtil();
         X509Principal principal = util.createX509Principal(subject);
         LOG.debug("X509Principal: " + principal);
         // extensions
-        ASN1Set attributes = new DERSet();
-        if (x509Extensions != null) {
-            // PKCS9 extensions
-            DERSet extensions = new DERSet(x509Extensions);
-            Attribute attribute = new Attribute(
-                    PKCSObjectIdentifiers.pkcs_9_at_extensionRequest,
-                    extensions);
-            attributes = new DERSet(attribute);
+        ASN1Set attributes = extensionRequest;
+        if (attributes == null) {
+            attributes = EMPTY_ATTRIBUTES;
         }
         // create CSR
-        bcPKCS10_ = new PKCS10CertificationRequest(SIGNATURE_ALGORITHM,
-                principal, publicKey, attributes, privateKey);
-        // verify
-        if (!bcPKCS10_.verify()) {
-            LOG.error("Failed to verify the PKCS#10");
-            throw new GeneralSecurityException("PKCS#10 verification failed");
+        bcPKCS10_ = sign(signatureAlgorithm, principal, publicKey, attributes,
+                         privateKey);
+        if (verify) {
+            verify();
         }
+        else {
+            SKIPPED_VERIFY_COUNT.incrementAndGet();
+        }
+    }
 
+    /**
+     * Creates the PKCS#9 extension request attribute set for the extensions.
+     * The immutable set can be shared by many requests.
+     * 
+     * @param x509Extensions
+     *            The X509Extensions or <code>null</code>.
+     * @return The attributes of the certification request info, empty if the
+     *         extensions are <code>null</code>.
+     */
+    static public ASN1Set createExtensionRequest(X509Extensions x509Extensions) {
+        if (x509Extensions == null) {
+            return EMPTY_ATTRIBUTES;
+        }
+        // PKCS9 extensions
+        DERSet extensions = new DERSet(x509Extensions);
+        Attribute attribute = new Attribute(
+                PKCSObjectIdentifiers.pkcs_9_at_extensionRequest, extensions);
+        return new DERSet(attribute);
     }
 
     /**
@@ -128,18 +305,198 @@ public class PKCS10 {
     private PKCS10(PKCS10CertificationRequest pkcs10)
             throws GeneralSecurityException {
         this.bcPKCS10_ = pkcs10;
-        if (!bcPKCS10_.verify()) {
+        // parsed request: verification is mandatory
+        verify();
+    }
+
+    /**
+     * Verifies the signature of the PKCS#10 request.
+     * 
+     * @throws GeneralSecurityException
+     *             If the verification failed.
+     */
+    private void verify() throws GeneralSecurityException {
+        VERIFIED_COUNT.incrementAndGet();
+        if (!verifySignature()) {
             LOG.error("Failed to verify the PKCS#10");
             throw new GeneralSecurityException("PKCS#10 verification failed");
         }
+    }
+
+    /**
+     * Creates and signs the PKCS#10 request with the {@link Signature} engine
+     * and the {@link SecureRandomProvider} random of the current thread. The
+     * engine is then initialized for verification with the public key, so
+     * that the cached engine does not keep the private key reachable.
+     * 
+     * @return The signed PKCS#10 request.
+     * @throws GeneralSecurityException
+     *             If the request can not be signed.
+     */
+    static private PKCS10CertificationRequest sign(String signatureAlgorithm,
+            X509Name subject, PublicKey publicKey, ASN1Set attributes,
+            PrivateKey privateKey) throws GeneralSecurityException {
+        AlgorithmIdentifier signatureAlgorithmId = SIGNATURE_ALGORITHM_IDS.get(signatureAlgorithm.toUpperCase());
+        if (signatureAlgorithmId == null) {
+            LOG.debug("signature algorithm " + signatureAlgorithm
+                    + " resolved by BouncyCastle");
+            return new PKCS10CertificationRequest(signatureAlgorithm, subject,
+                    publicKey, attributes, privateKey);
+        }
+        try {
+            SubjectPublicKeyInfo publicKeyInfo = SubjectPublicKeyInfo.getInstance(ASN1Object.fromByteArray(publicKey.getEncoded()));
+            CertificationRequestInfo requestInfo = new CertificationRequestInfo(subject,
+                    publicKeyInfo, attributes);
+            Signature signature = SignatureEngineCache.getSignature(signatureAlgorithm);
+            signature.initSign(privateKey, SecureRandomProvider.getSecureRandom());
+            byte[] signed;
+            try {
+                signature.update(requestInfo.getEncoded(ASN1Encodable.DER));
+                signed = signature.sign();
+            } finally {
+                // release the private key
+                signature.initVerify(publicKey);
+            }
+            CertificationRequest request = new CertificationRequest(requestInfo,
+                    signatureAlgorithmId, new DERBitString(signed));
+            return new PKCS10CertificationRequest(
+                    (ASN1Sequence) request.toASN1Object());
+        } catch (IOException e) {
+            LOG.error("Failed to encode the PKCS#10", e);
+            throw new SignatureException("Failed to encode the PKCS#10: " + e);
+        }
+    }
+
+    /**
+     * Verifies the signature of the PKCS#10 request with the {@link KeyFactory}
+     * and {@link Signature} engines cached for the current thread.
+     * 
+     * @return <code>true</code> if the signature is valid.
+     * @throws GeneralSecurityException
+     *             If the signature can not be verified.
+     */
+    private boolean verifySignature() throws GeneralSecurityException {
+        CertificationRequestInfo requestInfo = bcPKCS10_.getCertificationRequestInfo();
+        SubjectPublicKeyInfo publicKeyInfo = requestInfo.getSubjectPublicKeyInfo();
+        String signatureAlgorithm = SIGNATURE_ALGORITHM_NAMES.get(bcPKCS10_.getSignatureAlgorithm().getObjectId());
+        String keyAlgorithm = KEY_ALGORITHM_NAMES.get(publicKeyInfo.getAlgorithmId().getObjectId());
+        if (signatureAlgorithm == null || keyAlgorithm == null) {
+            // not known, let BouncyCastle resolve it
+            return bcPKCS10_.verify();
+        }
+        try {
+            KeyFactory keyFactory = SignatureEngineCache.getKeyFactory(keyAlgorithm);
+            PublicKey publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(publicKeyInfo.getEncoded(ASN1Encodable.DER)));
+            Signature signature = SignatureEngineCache.getSignature(signatureAlgorithm);
+            signature.initVerify(publicKey);
+            signature.update(requestInfo.getEncoded(ASN1Encodable.DER));
+            return signature.verify(bcPKCS10_.getSignature().getBytes());
+        } catch (IOException e) {
+            LOG.error("Failed to encode the PKCS#10", e);
+            throw new InvalidKeyException("Failed to encode the PKCS#10: " + e);
+        }
+    }
+
+    /**
+     * @return The number of PKCS#10 signature verifications performed.
+     */
+    static public long getVerifiedCount() {
+        return VERIFIED_COUNT.get();
+    }
 
+    /**
+     * @return The number of PKCS#10 signature verifications skipped for
+     *         freshly signed requests.
+     */
+    static public long getSkippedVerifyCount() {
+        return SKIPPED_VERIFY_COUNT.get();
     }
 
     /**
-     * @return The DER encoded byte array.
+     * Returns the default signature algorithm for the given key:
+     * {@link #SIGNATURE_ALGORITHM} for RSA keys,
+     * {@link #EC256_SIGNATURE_ALGORITHM} or
+     * {@link #EC384_SIGNATURE_ALGORITHM} for EC keys, depending on the curve
+     * size. Only the 256 and 384 bits curves are supported.
+     * 
+     * @param publicKey
+     *            The public key of the request.
+     * @return The signature algorithm name.
+     * @throws IllegalArgumentException
+     *             If the EC key curve size is not supported.
+     */
+    static public String getSignatureAlgorithm(PublicKey publicKey) {
+        if (publicKey instanceof ECKey) {
+            ECKey ecKey = (ECKey) publicKey;
+            int fieldSize = ecKey.getParams().getCurve().getField().getFieldSize();
+            switch (fieldSize) {
+            case 256:
+                return EC256_SIGNATURE_ALGORITHM;
+            case 384:
+                return EC384_SIGNATURE_ALGORITHM;
+            default:
+                throw new IllegalArgumentException("Unsupported EC key size: "
+                        + fieldSize + " bits (256 or 384)");
+            }
+        }
+        return SIGNATURE_ALGORITHM;
+    }
+
+    /**
+     * @return A copy of the DER encoded byte array.
      */
     public byte[] getDEREncoded() {
-        return this.bcPKCS10_.getEncoded();
+        return getEncoded().clone();
+    }
+
+    /**
+     * Returns a read-only view of the DER encoding, without copy. Each call
+     * returns a new buffer, positioned at the beginning.
+     * 
+     * @return The DER encoding buffer.
+     */
+    public ByteBuffer getDEREncodedBuffer() {
+        return ByteBuffer.wrap(getEncoded()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the DER encoding in the stream, without copy.
+     * 
+     * @param out
+     *            The output stream, not closed.
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(getEncoded());
+    }
+
+    /**
+     * Writes the DER encoding in the channel, without copy.
+     * 
+     * @param channel
+     *            The channel, not closed.
+     * @throws IOException
+     *             If an I/O error occurs.
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(getEncoded());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return The DER encoding, encoded only once. Not to be modified.
+     */
+    private byte[] getEncoded() {
+        byte[] encoded = encoded_;
+        if (encoded == null) {
+            // concurrent threads may encode it twice, same result
+            encoded = bcPKCS10_.getEncoded();
+            encoded_ = encoded;
+        }
+        return encoded;
     }
 
     /**
@@ -149,7 +506,7 @@ public class PKCS10 {
         StringWriter sw = new StringWriter();
         PEMWriter pem = new PEMWriter(sw);
         try {
-            pem.writeObject(this.bcPKCS10_);
+            pem.writeObject(new PemObject(PEM_TYPE, getEncoded()));
         } catch (IOException e) {
             LOG.warn("Failed to write PKCS10 in PEM format", e);
             return null;
@@ -174,7 +531,7 @@ public class PKCS10 {
     public void storePEMEncoded(File file) throws IOException {
         FileWriter fw = new FileWriter(file);
         PEMWriter pem = new PEMWriter(fw);
-        pem.writeObject(this.bcPKCS10_);
+        pem.writeObject(new PemObject(PEM_TYPE, getEncoded()));
         try {
             pem.close();
             fw.close();
@@ -193,8 +550,7 @@ public class PKCS10 {
      */
     public void storeDEREncoded(File file) throws IOException {
         FileOutputStream fos = new FileOutputStream(file);
-        byte derBytes[] = bcPKCS10_.getEncoded();
-        fos.write(derBytes);
+        writeTo(fos);
         try {
             fos.close();
         } catch (IOException e) {
@@ -235,32 +591,50 @@ public class PKCS10 {
     }
 
     /**
-     * @return The subject DN as Principal
+     * @return The subject DN as Principal, created once.
      */
     public Principal getPrincipal() {
-		X509Name subject = this.bcPKCS10_.getCertificationRequestInfo().getSubject();
-        X509Principal principal = new X509Principal(subject);
+        X509Principal principal = principal_;
+        if (principal == null) {
+            X509Name subject = this.bcPKCS10_.getCertificationRequestInfo().getSubject();
+            principal = new X509Principal(subject);
+            principal_ = principal;
+        }
         return principal;
     }
 
     /**
-     * Gets the X509Extensions included in the PKCS10.
+     * Gets the X509Extensions included in the PKCS10. The extensions are
+     * parsed once.
      * 
      * @return The X509Extensions or <code>null</code> if there is no
      *         X509Extensions.
      */
     public X509Extensions getX509Extensions() {
+        if (!x509ExtensionsParsed_) {
+            x509Extensions_ = parseX509Extensions();
+            x509ExtensionsParsed_ = true;
+        }
+        return x509Extensions_;
+    }
+
+    /**
+     * Parses the X509Extensions of the PKCS#9 extension request attribute.
+     * 
+     * @return The X509Extensions or <code>null</code> if there is no
+     *         X509Extensions.
+     */
+    private X509Extensions parseX509Extensions() {
         X509Extensions x509Extensions = null;
         ASN1Set attributes = this.bcPKCS10_.getCertificationRequestInfo().getAttributes();
         if (attributes.size() > 0) {
-            ASN1Sequence attributeSequence = (ASN1Sequence) attributes.getObjectAt(0);
-            Attribute attribute = new Attribute(attributeSequence);
+            // Attribute object if created, ASN1Sequence if parsed
+            Attribute attribute = Attribute.getInstance(attributes.getObjectAt(0));
             DERObjectIdentifier oid = attribute.getAttrType();
             if (oid.equals(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest)) {
                 ASN1Set attributeValues = attribute.getAttrValues();
                 if (attributeValues.size() > 0) {
-                    ASN1Sequence x509extensionsSequence = (ASN1Sequence) attributeValues.getObjectAt(0);
-                    x509Extensions = new X509Extensions(x509extensionsSequence);
+                    x509Extensions = X509Extensions.getInstance(attributeValues.getObjectAt(0));
 
                 }
             }
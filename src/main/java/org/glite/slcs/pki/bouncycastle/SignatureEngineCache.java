@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.pki.bouncycastle;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.Security;
+import java.security.Signature;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SignatureEngineCache keeps the {@link Signature} and {@link KeyFactory}
+ * engines, keyed by algorithm and provider, for reuse by the current thread.
+ * The JCA provider is resolved only once per thread and algorithm, instead of
+ * once per signature.
+ * <p>
+ * The engines are not thread-safe, each thread gets its own instances. An
+ * engine must be (re)initialized (<code>initSign</code>,
+ * <code>initVerify</code>) before each use.
+ * <p>
+ * A cached engine keeps the key it was last initialized with, for as long as
+ * the thread lives. After signing, the engine should be initialized for
+ * verification with the public key, so that the private key does not stay
+ * reachable (see {@link PKCS10}).
+ *
+ * @author Valery Tschopp &lt;tschopp@switch.ch&gt;
+ */
+public class SignatureEngineCache {
+
+    /** Logging */
+    static private Logger LOG = LoggerFactory.getLogger(SignatureEngineCache.class);
+
+    static {
+        // add only once
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            LOG.info("add BouncyCastle security provider");
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    /** Default provider */
+    static public final String PROVIDER = BouncyCastleProvider.PROVIDER_NAME;
+
+    /** Signature engines of the current thread, keyed by algorithm/provider */
+    static private ThreadLocal<Map<String, Signature>> SIGNATURES = new ThreadLocal<Map<String, Signature>>() {
+        protected Map<String, Signature> initialValue() {
+            return new HashMap<String, Signature>();
+        }
+    };
+
+    /** KeyFactory engines of the current thread, keyed by algorithm/provider */
+    static private ThreadLocal<Map<String, KeyFactory>> KEY_FACTORIES = new ThreadLocal<Map<String, KeyFactory>>() {
+        protected Map<String, KeyFactory> initialValue() {
+            return new HashMap<String, KeyFactory>();
+        }
+    };
+
+    /** Number of engines served from the cache (provider lookups avoided) */
+    static private AtomicLong HIT_COUNT = new AtomicLong(0);
+
+    /** Number of engines created with a provider lookup */
+    static private AtomicLong LOOKUP_COUNT = new AtomicLong(0);
+
+    /**
+     * Prevents instantiation.
+     */
+    private SignatureEngineCache() {
+    }
+
+    /**
+     * Returns the BouncyCastle {@link Signature} engine of the current thread
+     * for the given algorithm.
+     *
+     * @param algorithm
+     *            The signature algorithm (SHA1WithRSA, SHA256WithECDSA, ...)
+     * @return The signature engine, to initialize before use.
+     * @throws GeneralSecurityException
+     *             If the algorithm is not supported.
+     */
+    static public Signature getSignature(String algorithm)
+            throws GeneralSecurityException {
+        return getSignature(algorithm, PROVIDER);
+    }
+
+    /**
+     * Returns the {@link Signature} engine of the current thread for the given
+     * algorithm and provider.
+     *
+     * @param algorithm
+     *            The signature algorithm (SHA1WithRSA, SHA256WithECDSA, ...)
+     * @param provider
+     *            The provider name.
+     * @return The signature engine, to initialize before use.
+     * @throws GeneralSecurityException
+     *             If the algorithm or the provider is not supported.
+     */
+    static public Signature getSignature(String algorithm, String provider)
+            throws GeneralSecurityException {
+        String key = algorithm + "/" + provider;
+        Map<String, Signature> signatures = SIGNATURES.get();
+        Signature signature = signatures.get(key);
+        if (signature == null) {
+            LOOKUP_COUNT.incrementAndGet();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("lookup Signature " + key);
+            }
+            signature = Signature.getInstance(algorithm, provider);
+            signatures.put(key, signature);
+        }
+        else {
+            HIT_COUNT.incrementAndGet();
+        }
+        return signature;
+    }
+
+    /**
+     * Returns the BouncyCastle {@link KeyFactory} engine of the current thread
+     * for the given key algorithm.
+     *
+     * @param algorithm
+     *            The key algorithm (RSA, ECDSA, ...)
+     * @return The key factory.
+     * @throws GeneralSecurityException
+     *             If the algorithm is not supported.
+     */
+    static public KeyFactory getKeyFactory(String algorithm)
+            throws GeneralSecurityException {
+        return getKeyFactory(algorithm, PROVIDER);
+    }
+
+    /**
+     * Returns the {@link KeyFactory} engine of the current thread for the
+     * given key algorithm and provider.
+     *
+     * @param algorithm
+     *            The key algorithm (RSA, ECDSA, ...)
+     * @param provider
+     *            The provider name.
+     * @return The key factory.
+     * @throws GeneralSecurityException
+     *             If the algorithm or the provider is not supported.
+     */
+    static public KeyFactory getKeyFactory(String algorithm, String provider)
+            throws GeneralSecurityException {
+        String key = algorithm + "/" + provider;
+        Map<String, KeyFactory> keyFactories = KEY_FACTORIES.get();
+        KeyFactory keyFactory = keyFactories.get(key);
+        if (keyFactory == null) {
+            LOOKUP_COUNT.incrementAndGet();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("lookup KeyFactory " + key);
+            }
+            keyFactory = KeyFactory.getInstance(algorithm, provider);
+            keyFactories.put(key, keyFactory);
+        }
+        else {
+            HIT_COUNT.incrementAndGet();
+        }
+        return keyFactory;
+    }
+
+    /**
+     * Removes the engines cached for the current thread. To call before a
+     * pooled thread is returned, if the engines should not be kept.
+     */
+    static public void clear() {
+        SIGNATURES.remove();
+        KEY_FACTORIES.remove();
+    }
+
+    /**
+     * @return The number of engines served from the cache, that is the number
+     *         of provider lookups avoided.
+     */
+    static public long getHitCount() {
+        return HIT_COUNT.get();
+    }
+
+    /**
+     * @return The number of engines created with a provider lookup.
+     */
+    static public long getLookupCount() {
+        return LOOKUP_COUNT.get();
+    }
+
+}
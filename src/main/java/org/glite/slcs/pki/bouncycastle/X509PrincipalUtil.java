@@ -18,23 +18,9 @@ package org.glite.slcs.pki.bouncycastle;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
-import java.util.Enumeration;
-import java.util.Vector;
 
-import javax.naming.NamingException;
-import javax.naming.directory.Attribute;
-import javax.naming.ldap.LdapName;
-import javax.naming.ldap.Rdn;
-
-import org.bouncycastle.asn1.ASN1EncodableVector;
-import org.bouncycastle.asn1.DERObjectIdentifier;
-import org.bouncycastle.asn1.DERSequence;
-import org.bouncycastle.asn1.DERSet;
-import org.bouncycastle.asn1.x509.X509DefaultEntryConverter;
-import org.bouncycastle.asn1.x509.X509Name;
-import org.bouncycastle.asn1.x509.X509NameEntryConverter;
 import org.bouncycastle.jce.X509Principal;
-import org.bouncycastle.util.Strings;
+import org.glite.slcs.util.LRUCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,6 +37,10 @@ import org.slf4j.LoggerFactory;
  * X509PrincipalUtil util = new X509PrincipalUtil();
  * X509Principal p = util.createX509Principal(&quot;CN=Foo\\+Bar,O=SWITCH+O=MAMS,C=CH+C=AU&quot;);
  * </pre>
+ * <p>
+ * The name is parsed by the {@link DNParser}, and the DER encoding of the
+ * created principals is cached by name, shared by all instances. The class is
+ * thread-safe.
  * 
  * @author Valery Tschopp &lt;tschopp@switch.ch&gt;
  * @author Xuan Thang Nguyen &lt;xuan.nguyen@its.monash.edu.au&gt;
@@ -61,8 +51,11 @@ public class X509PrincipalUtil {
     /** Logger */
     private static Logger LOG = LoggerFactory.getLogger(X509PrincipalUtil.class);
 
-    /** Start to handle + */
-    private Boolean start_ = false;
+    /** Maximal number of cached principal names */
+    static public final int CACHE_SIZE = 4096;
+
+    /** Cache of DER encoded principals, keyed by name */
+    static private final LRUCache<String, byte[]> CACHE = new LRUCache<String, byte[]>(CACHE_SIZE);
 
     /**
      * Creates a {@link X509Principal} with the given name.
@@ -79,137 +72,74 @@ public class X509PrincipalUtil {
      */
     public X509Principal createX509Principal(String name)
             throws GeneralSecurityException {
-        Vector<DERObjectIdentifier> oids = new Vector<DERObjectIdentifier>();
-        Vector<Object> values = new Vector<Object>();
-        Vector<Boolean> added = new Vector<Boolean>();
-        start_ = false;
+        if (name == null) {
+            throw new GeneralSecurityException("X509Principal name is null");
+        }
+        byte[] encoded = CACHE.get(name);
+        if (encoded == null) {
+            encoded = encodeX509Principal(name);
+            CACHE.put(name, encoded);
+        }
         try {
-            LdapName ldapName = new LdapName(name);
-            LOG.debug("RDNs: " + ldapName.getRdns());
-            Rdn[] rdnArray = new Rdn[ldapName.getRdns().size()];
-            ldapName.getRdns().toArray(rdnArray);
-            for (int i = rdnArray.length - 1; i >= 0; i--) {
-                readRdn(rdnArray[i], oids, values, added);
-                start_ = false;
-            }
-            X509Principal principal = buildX509Principal(oids, values, added);
-            return principal;
-        } catch (Exception e) {
-            // NamingException or IOException
-            LOG.error("Fail to create X509Principal(" + name + ")", e);
+            return new X509Principal(encoded);
+        } catch (IOException e) {
             throw new GeneralSecurityException("Fail to create X509Principal("
                     + name + "): " + e.getMessage(), e);
         }
     }
 
     /**
-     * Reads the LdapName {@link Rdn} component and fills the given vectors.
+     * Parses the name and returns the DER encoding of the principal.
      * 
-     * @param rdn
-     *            The {@link Rdn} to read.
-     * @param oids
-     *            The vector of OID.
-     * @param values
-     *            The vector of value.
-     * @param added
-     *            The added status vector.
-     * @throws NamingException
+     * @param name
+     *            The {@link X509Principal} name.
+     * @return the DER encoded principal.
+     * @throws GeneralSecurityException
      *             if an error occurs.
      */
-    private void readRdn(Rdn rdn, Vector<DERObjectIdentifier> oids,
-            Vector<Object> values, Vector<Boolean> added)
-            throws NamingException {
-        LOG.debug("RDN: " + rdn);
-        Enumeration<? extends Attribute> attrs = rdn.toAttributes().getAll();
-        do {
-            if (attrs.hasMoreElements()) {
-                Attribute attr = attrs.nextElement();
-                readAttr(attr, oids, values, added);
-                start_ = true;
-            }
-        } while (attrs.hasMoreElements());
+    private byte[] encodeX509Principal(String name)
+            throws GeneralSecurityException {
+        try {
+            return DNParser.encode(name);
+        } catch (GeneralSecurityException e) {
+            LOG.error("Fail to create X509Principal(" + name + ")", e);
+            throw new GeneralSecurityException("Fail to create X509Principal("
+                    + name + "): " + e.getMessage(), e);
+        }
     }
 
     /**
-     * Reads the given {@link Attribute} and recurses into RDN attributes, fills
-     * the given vectors.
-     * 
-     * @param attr
-     *            The {@link Attribute} to read.
-     * @param oids
-     *            The vector of OID.
-     * @param values
-     *            The vector of value.
-     * @param added
-     *            The added status vector.
-     * @throws NamingException
-     *             if a naming error occurs.
+     * Removes all the cached principals.
      */
-    private void readAttr(Attribute attr, Vector<DERObjectIdentifier> oids,
-            Vector<Object> values, Vector<Boolean> added)
-            throws NamingException {
-        // Recursively looking into each attribute
-        LOG.debug("Attribute: " + attr);
-        for (int i = 0; i < attr.size(); i++) {
-            if (attr.get(i) instanceof Attribute) {
-                Attribute rdnAttr = (Attribute) attr.get(i);
-                LOG.debug("Attribute RDN: " + rdnAttr);
-                readAttr(rdnAttr, oids, values, added);
-            }
-            else { // Get back the OID from name
-                DERObjectIdentifier oid = (DERObjectIdentifier) X509Name.DefaultLookUp.get(Strings.toLowerCase(attr.getID()));
-                oids.add(oid);
-                Object attrValue = attr.get(i);
-                LOG.debug("Attribute value: " + attrValue);
-                values.add(attrValue);
-                added.add(start_);
-                start_ = true;
-
-            }
-        }
+    static public void clearCache() {
+        CACHE.clear();
+    }
 
+    /**
+     * @return The number of principals created from the cache.
+     */
+    static public long getCacheHitCount() {
+        return CACHE.getHitCount();
     }
 
     /**
-     * Builds a {@link X509Principal}, based on the given vectors.
-     * 
-     * @param ordering
-     * @param values
-     * @param added
-     * @return the {@link X509Principal} or <code>null</code> if an error
-     *         occurs.
-     * @throws IOException
-     *             if a DER encoding error occurs.
+     * @return The number of principals parsed and encoded.
      */
-    private X509Principal buildX509Principal(
-            Vector<DERObjectIdentifier> ordering, Vector<Object> values,
-            Vector<Boolean> added) throws IOException {
-        X509NameEntryConverter converter = new X509DefaultEntryConverter();
-        ASN1EncodableVector vec = new ASN1EncodableVector();
-        ASN1EncodableVector sVec = new ASN1EncodableVector();
-        DERObjectIdentifier lstOid = null;
-        // Bouncycastle's code
-        for (int i = 0; i != ordering.size(); i++) {
-            ASN1EncodableVector v = new ASN1EncodableVector();
-            DERObjectIdentifier oid = ordering.elementAt(i);
-            v.add(oid);
-            String str = (String) values.elementAt(i);
-            v.add(converter.getConvertedValue(oid, str));
-            if (lstOid == null || added.elementAt(i)) {
-                sVec.add(new DERSequence(v));
-            }
-            else {
-                vec.add(new DERSet(sVec));
-                sVec = new ASN1EncodableVector();
-                sVec.add(new DERSequence(v));
-            }
+    static public long getCacheMissCount() {
+        return CACHE.getMissCount();
+    }
 
-            lstOid = oid;
+    /**
+     * @return The ratio of principals created from the cache, between
+     *         <code>0.0</code> and <code>1.0</code>.
+     */
+    static public double getCacheHitRate() {
+        long hits = CACHE.getHitCount();
+        long lookups = hits + CACHE.getMissCount();
+        if (lookups == 0) {
+            return 0.0;
         }
-        vec.add(new DERSet(sVec));
-        DERSequence seq = new DERSequence(vec);
-        byte[] bytes = seq.getDEREncoded();
-        return new X509Principal(bytes);
+        return (double) hits / lookups;
     }
 
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRUCache is a bounded, thread-safe, least recently used cache. The entries
+ * can have an expiration time, an expired entry is never returned.
+ *
+ * @author Valery Tschopp <tschopp@switch.ch>
+ */
+public class LRUCache<K, V> {
+
+    /** Entry without expiration time */
+    static public final long NEVER = Long.MAX_VALUE;
+
+    /** The entries in access order, guarded by this */
+    private LinkedHashMap<K, CacheEntry<V>> entries_ = null;
+
+    /** Maximal number of entries */
+    private int maxSize_ = 0;
+
+    /** Statistics, guarded by this */
+    private long hits_ = 0;
+    private long misses_ = 0;
+    private long evictions_ = 0;
+
+    /**
+     * Creates a cache holding at most <code>maxSize</code> entries.
+     *
+     * @param maxSize
+     *            The maximal number of entries.
+     */
+    public LRUCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Invalid cache size: "
+                    + maxSize);
+        }
+        this.maxSize_ = maxSize;
+        this.entries_ = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                if (size() > maxSize_) {
+                    evictions_++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value.
+     *
+     * @param key
+     *            The key.
+     * @return The value or <code>null</code> if the key is not cached or the
+     *         entry is expired.
+     */
+    public synchronized V get(K key) {
+        CacheEntry<V> entry = entries_.get(key);
+        if (entry != null && entry.expirationTime_ <= currentTimeMillis()) {
+            entries_.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses_++;
+            return null;
+        }
+        hits_++;
+        return entry.value_;
+    }
+
+    /**
+     * Caches the value without expiration time.
+     *
+     * @param key
+     *            The key.
+     * @param value
+     *            The value.
+     */
+    public void put(K key, V value) {
+        put(key, value, NEVER);
+    }
+
+    /**
+     * Caches the value until the expiration time.
+     *
+     * @param key
+     *            The key.
+     * @param value
+     *            The value.
+     * @param expirationTime
+     *            The expiration time in milliseconds since the epoch.
+     */
+    public synchronized void put(K key, V value, long expirationTime) {
+        if (expirationTime <= currentTimeMillis()) {
+            entries_.remove(key);
+            return;
+        }
+        entries_.put(key, new CacheEntry<V>(value, expirationTime));
+    }
+
+    /**
+     * Removes the cached value.
+     *
+     * @param key
+     *            The key.
+     */
+    public synchronized void remove(K key) {
+        entries_.remove(key);
+    }
+
+    /**
+     * Removes all cached values.
+     */
+    public synchronized void clear() {
+        entries_.clear();
+    }
+
+    /**
+     * @return The number of cached entries, including the expired ones not
+     *         yet removed.
+     */
+    public synchronized int size() {
+        return entries_.size();
+    }
+
+    /**
+     * @return The maximal number of entries.
+     */
+    public int getMaxSize() {
+        return maxSize_;
+    }
+
+    /**
+     * @return The number of lookups returning a cached value.
+     */
+    public synchronized long getHitCount() {
+        return hits_;
+    }
+
+    /**
+     * @return The number of lookups not returning a cached value.
+     */
+    public synchronized long getMissCount() {
+        return misses_;
+    }
+
+    /**
+     * @return The number of entries removed to respect the maximal size.
+     */
+    public synchronized long getEvictionCount() {
+        return evictions_;
+    }
+
+    /**
+     * @return The current time in milliseconds.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Cached value with its expiration time.
+     */
+    static private class CacheEntry<V> {
+
+        private V value_;
+
+        private long expirationTime_;
+
+        CacheEntry(V value, long expirationTime) {
+            this.value_ = value;
+            this.expirationTime_ = expirationTime;
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SecureFileWriter writes credential files (private keys, certificates,
+ * requests) atomically and with the right permissions:
+ * <ol>
+ * <li>a temporary file is created in the target directory, with the POSIX
+ * permissions already set,
+ * <li>the content is written and synced to the disk,
+ * <li>the temporary file is atomically renamed to the target file.
+ * </ol>
+ * A reader never sees a partially written file, and the file never exists
+ * with the default permissions. No external process is used.
+ * <p>
+ * The permissions are given in the Unix octal notation, written as a decimal
+ * number: <code>600</code> for <code>rw-------</code>. On a file system
+ * without POSIX permissions (Windows) the permissions are not set.
+ *
+ * @author Valery Tschopp <tschopp@switch.ch>
+ */
+public class SecureFileWriter {
+
+    /** logging */
+    static private Logger LOG= LoggerFactory.getLogger(SecureFileWriter.class);
+
+    /** Charset of the text files (PEM) */
+    static private final Charset CHARSET= Charset.forName("UTF-8");
+
+    /** Does the default file system support POSIX permissions */
+    static private final boolean POSIX= FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+    /**
+     * Writes the text atomically in the file.
+     *
+     * @param file
+     *            The target file.
+     * @param content
+     *            The text content, UTF-8 encoded.
+     * @param mode
+     *            The Unix style permissions, like <code>600</code>.
+     * @throws IOException
+     *             If an I/O error occurs, the target file is then unchanged.
+     */
+    static public void write(File file, String content, int mode)
+            throws IOException {
+        write(file, content.getBytes(CHARSET), mode);
+    }
+
+    /**
+     * Writes the bytes atomically in the file.
+     *
+     * @param file
+     *            The target file.
+     * @param content
+     *            The content.
+     * @param mode
+     *            The Unix style permissions, like <code>600</code>.
+     * @throws IOException
+     *             If an I/O error occurs, the target file is then unchanged.
+     */
+    static public void write(File file, byte[] content, int mode)
+            throws IOException {
+        Path target= file.getAbsoluteFile().toPath();
+        Path dir= target.getParent();
+        Path tmp= createTempFile(dir, target.getFileName().toString(), mode);
+        try {
+            FileChannel channel= FileChannel.open(tmp, StandardOpenOption.WRITE);
+            try {
+                ByteBuffer buffer= ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+            move(tmp, target);
+            tmp= null;
+            syncDirectory(dir);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    LOG.warn("Failed to delete temporary file: " + tmp, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the permissions of an existing file, without external process.
+     *
+     * @param file
+     *            The file.
+     * @param mode
+     *            The Unix style permissions, like <code>640</code>.
+     * @return <code>true</code> if the permissions are set, or if the file
+     *         system doesn't support POSIX permissions.
+     */
+    static public boolean setPermissions(File file, int mode) {
+        if (!POSIX) {
+            LOG.info("Not possible to set file permissions " + mode + " on "
+                    + file);
+            return true;
+        }
+        try {
+            Files.setPosixFilePermissions(file.toPath(), toPosixPermissions(mode));
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Failed to set permissions " + mode + " on " + file, e);
+            return false;
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Invalid permissions " + mode + " for " + file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Converts the Unix style permissions in POSIX file permissions.
+     *
+     * @param mode
+     *            The Unix style permissions, like <code>640</code>.
+     * @return The POSIX file permissions.
+     * @throws IllegalArgumentException
+     *             If the mode is not a valid permission.
+     */
+    static public Set<PosixFilePermission> toPosixPermissions(int mode) {
+        if (mode < 0 || mode > 777) {
+            throw new IllegalArgumentException("Invalid file permissions: "
+                    + mode);
+        }
+        PosixFilePermission[] values= PosixFilePermission.values();
+        Set<PosixFilePermission> permissions= EnumSet.noneOf(PosixFilePermission.class);
+        // owner, group, others digits: read, write, execute bits
+        int[] digits= { mode / 100, (mode / 10) % 10, mode % 10 };
+        for (int i= 0; i < digits.length; i++) {
+            if (digits[i] > 7) {
+                throw new IllegalArgumentException("Invalid file permissions: "
+                        + mode);
+            }
+            for (int bit= 0; bit < 3; bit++) {
+                if ((digits[i] & (4 >> bit)) != 0) {
+                    permissions.add(values[i * 3 + bit]);
+                }
+            }
+        }
+        return permissions;
+    }
+
+    static private Path createTempFile(Path dir, String name, int mode)
+            throws IOException {
+        String prefix= "." + name + ".";
+        if (!POSIX) {
+            return Files.createTempFile(dir, prefix, ".tmp");
+        }
+        Set<PosixFilePermission> permissions= toPosixPermissions(mode);
+        FileAttribute<Set<PosixFilePermission>> attribute= PosixFilePermissions.asFileAttribute(permissions);
+        Path tmp= Files.createTempFile(dir, prefix, ".tmp", attribute);
+        // the umask may have removed permissions at creation
+        Files.setPosixFilePermissions(tmp, permissions);
+        return tmp;
+    }
+
+    static private void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source,
+                       target,
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            LOG.debug("Atomic move not supported: " + target);
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Syncs the directory entry of the renamed file. Not supported on all
+     * platforms.
+     */
+    static private void syncDirectory(Path dir) {
+        try {
+            FileChannel channel= FileChannel.open(dir, StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            LOG.debug("Directory sync not supported: " + dir);
+        }
+    }
+
+    /**
+     * Prevents instantiation of utility class.
+     */
+    private SecureFileWriter() {
+    }
+
+}
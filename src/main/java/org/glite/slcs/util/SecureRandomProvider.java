@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2010-2013 SWITCH
+ * Copyright (c) 2006-2010 Members of the EGEE Collaboration
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.slcs.util;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SecureRandomProvider is the central source of randomness for the key
+ * generation, the signatures and the private key encryption.
+ * <p>
+ * Each thread gets its own {@link SecureRandom} instance, there is no lock
+ * contention between the threads. The instance algorithm is the first one
+ * available of:
+ * <ol>
+ * <li>the algorithm set with {@link #setAlgorithm(String)} or with the
+ * system property <code>org.glite.slcs.securerandom.algorithm</code>,
+ * <li><code>NativePRNGNonBlocking</code>, seeded from
+ * <code>/dev/urandom</code>, which never blocks on an entropy starved host,
+ * <li><code>DRBG</code> (Java 9 and later),
+ * <li>the platform default {@link SecureRandom}.
+ * </ol>
+ * The time spent to create and seed the instances, that is mostly waiting
+ * for the entropy source, is measured.
+ *
+ * @author Valery Tschopp <tschopp@switch.ch>
+ */
+public class SecureRandomProvider {
+
+    /** Logging */
+    static private Logger LOG= LoggerFactory.getLogger(SecureRandomProvider.class);
+
+    /** System property to set the SecureRandom algorithm */
+    static public final String ALGORITHM_PROPERTY= "org.glite.slcs.securerandom.algorithm";
+
+    /** Default algorithms, in preference order */
+    static private final String[] DEFAULT_ALGORITHMS= { "NativePRNGNonBlocking",
+            "DRBG" };
+
+    /** Configured algorithm, <code>null</code> for the defaults */
+    static private volatile String ALGORITHM= System.getProperty(ALGORITHM_PROPERTY);
+
+    /** Configuration generation, a thread recreates its instance on change */
+    static private AtomicLong GENERATION= new AtomicLong(0);
+
+    /** SecureRandom instance of the current thread */
+    static private ThreadLocal<Instance> INSTANCES= new ThreadLocal<Instance>();
+
+    /** Number of instances created */
+    static private AtomicLong INSTANCE_COUNT= new AtomicLong(0);
+
+    /** Total time spent creating and seeding the instances, in nanos */
+    static private AtomicLong SEED_TIME= new AtomicLong(0);
+
+    /** Longest time spent creating and seeding an instance, in nanos */
+    static private AtomicLong MAX_SEED_TIME= new AtomicLong(0);
+
+    /**
+     * Prevents instantiation.
+     */
+    private SecureRandomProvider() {
+    }
+
+    /**
+     * Returns the {@link SecureRandom} of the current thread, created and
+     * seeded on first use.
+     *
+     * @return The SecureRandom instance, not to be shared with other threads.
+     */
+    static public SecureRandom getSecureRandom() {
+        Instance instance= INSTANCES.get();
+        long generation= GENERATION.get();
+        if (instance == null || instance.generation_ != generation) {
+            instance= new Instance(createSecureRandom(), generation);
+            INSTANCES.set(instance);
+        }
+        return instance.random_;
+    }
+
+    /**
+     * Sets the SecureRandom algorithm (<code>DRBG</code>,
+     * <code>NativePRNGNonBlocking</code>, <code>SHA1PRNG</code>, ...). The
+     * threads create a new instance on their next use.
+     *
+     * @param algorithm
+     *            The algorithm, or <code>null</code> for the defaults.
+     * @throws NoSuchAlgorithmException
+     *             If the algorithm is not available.
+     */
+    static public void setAlgorithm(String algorithm)
+            throws NoSuchAlgorithmException {
+        if (algorithm != null) {
+            // fail now, not at the next use
+            SecureRandom.getInstance(algorithm);
+        }
+        ALGORITHM= algorithm;
+        GENERATION.incrementAndGet();
+    }
+
+    /**
+     * @return The algorithm of the current thread SecureRandom.
+     */
+    static public String getAlgorithm() {
+        return getSecureRandom().getAlgorithm();
+    }
+
+    /**
+     * @return The number of SecureRandom instances created.
+     */
+    static public long getInstanceCount() {
+        return INSTANCE_COUNT.get();
+    }
+
+    /**
+     * @return The total time spent creating and seeding the SecureRandom
+     *         instances, in milliseconds.
+     */
+    static public long getSeedTime() {
+        return SEED_TIME.get() / 1000000L;
+    }
+
+    /**
+     * @return The longest time spent creating and seeding a SecureRandom
+     *         instance, in milliseconds.
+     */
+    static public long getMaxSeedTime() {
+        return MAX_SEED_TIME.get() / 1000000L;
+    }
+
+    /**
+     * Creates and seeds a new SecureRandom instance, with the first
+     * available algorithm.
+     */
+    static private SecureRandom createSecureRandom() {
+        long start= System.nanoTime();
+        SecureRandom random= null;
+        String algorithm= ALGORITHM;
+        if (algorithm != null) {
+            random= getInstance(algorithm);
+        }
+        for (int i= 0; random == null && i < DEFAULT_ALGORITHMS.length; i++) {
+            random= getInstance(DEFAULT_ALGORITHMS[i]);
+        }
+        if (random == null) {
+            random= new SecureRandom();
+        }
+        // the first output triggers the self seeding
+        random.nextBytes(new byte[1]);
+        long elapsed= System.nanoTime() - start;
+        INSTANCE_COUNT.incrementAndGet();
+        SEED_TIME.addAndGet(elapsed);
+        long max= MAX_SEED_TIME.get();
+        while (elapsed > max && !MAX_SEED_TIME.compareAndSet(max, elapsed)) {
+            max= MAX_SEED_TIME.get();
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("SecureRandom " + random.getAlgorithm() + " seeded in "
+                    + (elapsed / 1000000L) + " ms");
+        }
+        return random;
+    }
+
+    static private SecureRandom getInstance(String algorithm) {
+        try {
+            return SecureRandom.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            LOG.debug("SecureRandom " + algorithm + " not available");
+            return null;
+        }
+    }
+
+    /**
+     * SecureRandom of a thread, with the configuration generation it was
+     * created for.
+     */
+    static private class Instance {
+
+        private SecureRandom random_;
+
+        private long generation_;
+
+        Instance(SecureRandom random, long generation) {
+            random_= random;
+            generation_= generation;
+        }
+    }
+
+}
@@ -28,7 +28,6 @@ import java.nio.charset.CharsetEncoder;
 
 import javax.naming.ldap.Rdn;
 
-import org.apache.commons.lang.SystemUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -288,17 +287,18 @@ public class Utils {
     }
 
     /**
-     * Sets permissions on a given file. The permissions are set using the
-     * <i>chmod</i> command and will only work on Unix machines. Chmod command
-     * must be in the path.
+     * Sets permissions on a given file, creating it if it doesn't exist. The
+     * permissions are set with the POSIX file attributes, without external
+     * process, and are ignored on Windows.
+     * <p>
+     * To write a credential file, prefer {@link SecureFileWriter}, which
+     * creates the file with the permissions already set.
      * 
      * @param file
      *            the file to set the permissions of.
      * @param mode
      *            the Unix style permissions.
-     * @return true, if change was successful, otherwise false. It can return
-     *         false, in many instances, e.g. when file does not exits, when
-     *         chmod is not found, or other error occurs.
+     * @return true, if change was successful, otherwise false.
      */
     public static boolean setFilePermissions(File file, int mode) {
         String filename= file.getPath();
@@ -310,24 +310,7 @@ public class Utils {
                 LOG.warn("Failed to create new empty file: " + filename, e);
             }
         }
-        // only on Unix
-        if (!SystemUtils.IS_OS_WINDOWS) {
-            Runtime runtime= Runtime.getRuntime();
-            String[] cmd= new String[] { "chmod", String.valueOf(mode), filename };
-            try {
-                Process process= runtime.exec(cmd);
-                return (process.waitFor() == 0) ? true : false;
-            } catch (Exception e) {
-                LOG.warn("Command 'chmod " + mode + " " + filename + "' failed", e);
-                return false;
-            }
-        }
-        // on Windows always return true
-        else {
-            LOG.info("Windows: Not possible to set file permissions " + mode + " on " + filename );
-            return true;
-        }
-        
+        return SecureFileWriter.setPermissions(file, mode);
     }
 
     /**
@@ -0,0 +1,145 @@
+package org.glite.slcs.httpclient;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.glite.slcs.httpclient.ssl.ExtendedProtocolSocketFactory;
+import org.glite.slcs.pki.TestCertificates;
+
+public class PooledHttpClientTest extends TestCase {
+
+    private SSLServerSocket server= null;
+
+    private X509Certificate serverCert= null;
+
+    protected void setUp() throws Exception {
+        KeyPair keyPair= TestCertificates.generateKeyPair(2048);
+        serverCert= TestCertificates.createCertificate("CN=localhost", keyPair, System.nanoTime());
+        KeyStore keystore= KeyStore.getInstance("JKS");
+        keystore.load(null, null);
+        keystore.setKeyEntry("server", keyPair.getPrivate(), "changeit".toCharArray(), new X509Certificate[] { serverCert });
+        KeyManagerFactory kmf= KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keystore, "changeit".toCharArray());
+        SSLContext serverContext= SSLContext.getInstance("TLS");
+        serverContext.init(kmf.getKeyManagers(), null, null);
+        server= (SSLServerSocket) serverContext.getServerSocketFactory().createServerSocket(0);
+        Thread acceptor= new Thread() {
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket= server.accept();
+                        Thread handler= new Thread() {
+                            public void run() {
+                                serveKeepAlive(socket);
+                            }
+                        };
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                } catch (Exception e) {
+                    // server closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    protected void tearDown() throws Exception {
+        server.close();
+    }
+
+    public void testKeepAliveReuse() throws Exception {
+        KeyStore truststore= KeyStore.getInstance("JKS");
+        truststore.load(null, null);
+        truststore.setCertificateEntry("server", serverCert);
+        ExtendedProtocolSocketFactory factory= new ExtendedProtocolSocketFactory(null, null, truststore);
+        PooledHttpClient client= new PooledHttpClientBuilder(factory).setHost("localhost", server.getLocalPort()).setMaxConnectionsPerHost(2).setMaxTotalConnections(4).setSoTimeout(5000).build();
+        try {
+            for (int i= 0; i < 5; i++) {
+                GetMethod get= new GetMethod("/");
+                try {
+                    assertEquals(200, client.executeMethod(get));
+                    assertEquals(1, client.getConnectionManager().getLeasedCount());
+                    // connection released when the body is consumed
+                    assertEquals("ok", get.getResponseBodyAsString());
+                } finally {
+                    get.releaseConnection();
+                }
+            }
+            PooledHttpConnectionManager pool= client.getConnectionManager();
+            assertEquals(5, pool.getLeaseCount());
+            assertEquals(4, pool.getReusedCount());
+            assertEquals(0, pool.getLeasedCount());
+            assertEquals(1, pool.getIdleCount());
+            assertEquals(1, pool.getPeakLeasedCount());
+            assertEquals(0.0, pool.getUtilisation(), 0.0);
+            // one TLS handshake for all requests
+            assertEquals(1, factory.getFullHandshakeCount() + factory.getResumedHandshakeCount());
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    public void testLeasedConnectionReclaimed() throws Exception {
+        PooledHttpConnectionManager pool= new PooledHttpConnectionManager();
+        HostConfiguration host= new HostConfiguration();
+        host.setHost("localhost", server.getLocalPort());
+        try {
+            HttpConnection connection= pool.getConnectionWithTimeout(host, 1000);
+            leaseAndForget(pool, host);
+            assertEquals(2, pool.getLeasedCount());
+            connection.releaseConnection();
+            assertEquals(1, pool.getLeasedCount());
+            assertEquals(1, pool.getIdleCount());
+
+            // reclaimed by the pool when garbage collected, never released
+            for (int i= 0; i < 50 && (pool.getLeasedCount() > 0 || pool.getConnectionsInPool() > 1); i++) {
+                System.gc();
+                Thread.sleep(20);
+            }
+            assertEquals(1, pool.getConnectionsInPool());
+            assertEquals(0, pool.getLeasedCount());
+            assertEquals(1, pool.getIdleCount());
+            assertEquals(0.0, pool.getUtilisation(), 0.0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void leaseAndForget(PooledHttpConnectionManager pool, HostConfiguration host) throws Exception {
+        pool.getConnectionWithTimeout(host, 1000);
+    }
+
+    private void serveKeepAlive(Socket socket) {
+        try {
+            BufferedReader in= new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+            OutputStream out= socket.getOutputStream();
+            String line;
+            while ((line= in.readLine()) != null) {
+                if (line.length() == 0) {
+                    out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes("ISO-8859-1"));
+                    out.flush();
+                }
+            }
+            socket.close();
+        } catch (Exception e) {
+            // connection closed
+        }
+    }
+
+}
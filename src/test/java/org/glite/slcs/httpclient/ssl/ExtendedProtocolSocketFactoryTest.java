@@ -0,0 +1,245 @@
+package org.glite.slcs.httpclient.ssl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.X509KeyManager;
+import javax.net.ssl.X509TrustManager;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.glite.slcs.pki.TestCertificates;
+import org.glite.slcs.pki.bouncycastle.Codec;
+
+public class ExtendedProtocolSocketFactoryTest extends TestCase {
+
+    private File truststoreFile= null;
+
+    protected void setUp() throws Exception {
+        truststoreFile= File.createTempFile("truststore", ".jks");
+    }
+
+    protected void tearDown() throws Exception {
+        truststoreFile.delete();
+    }
+
+    public void testReload() throws Exception {
+        X509Certificate ca1= TestCertificates.createCertificate("CN=CA 1");
+        storeTrustStore(ca1);
+        ExtendedProtocolSocketFactory factory= new ExtendedProtocolSocketFactory(truststoreFile.getAbsolutePath());
+        assertTrue(getAcceptedIssuers(factory).contains(ca1));
+
+        X509Certificate ca2= TestCertificates.createCertificate("CN=CA 2");
+        storeTrustStore(ca2);
+        X509TrustManager previous= factory.getTrustManager().getDelegate();
+        factory.reload();
+        assertNotSame(previous, factory.getTrustManager().getDelegate());
+        assertTrue(getAcceptedIssuers(factory).contains(ca2));
+        assertFalse(getAcceptedIssuers(factory).contains(ca1));
+        // no keystore, no client credential
+        assertNull(factory.getKeyManager().getDelegate());
+    }
+
+    public void testTrustDecisionCacheReload() throws Exception {
+        storeTrustStore(TestCertificates.createCertificate("CN=CA 1"));
+        ExtendedProtocolSocketFactory factory= new ExtendedProtocolSocketFactory(truststoreFile.getAbsolutePath());
+        TrustDecisionCache cache= new TrustDecisionCache(16, 1000, 1000);
+        factory.setTrustDecisionCache(cache);
+        assertSame(cache, getExtendedTrustManager(factory).getTrustDecisionCache());
+
+        factory.reload();
+        assertSame(cache, getExtendedTrustManager(factory).getTrustDecisionCache());
+
+        // disabled
+        factory.setTrustDecisionCache(null);
+        factory.reload();
+        assertNull(getExtendedTrustManager(factory).getTrustDecisionCache());
+    }
+
+    public void testReloadKeyStoreFactory() throws Exception {
+        KeyPair keyPair= TestCertificates.generateKeyPair(512);
+        X509Certificate cert= TestCertificates.createCertificate("CN=Client", keyPair, System.nanoTime());
+        KeyStore keystore= KeyStore.getInstance("JKS");
+        keystore.load(null, null);
+        keystore.setKeyEntry("client", keyPair.getPrivate(), "changeit".toCharArray(), new X509Certificate[] { cert });
+        X509Certificate ca= TestCertificates.createCertificate("CN=CA 1");
+        KeyStore truststore= KeyStore.getInstance("JKS");
+        truststore.load(null, null);
+        truststore.setCertificateEntry("ca", ca);
+        ExtendedProtocolSocketFactory factory= new ExtendedProtocolSocketFactory(keystore, "changeit", truststore);
+        X509KeyManager keyManager= factory.getKeyManager().getDelegate();
+        X509TrustManager trustManager= factory.getTrustManager().getDelegate();
+        assertNotNull(keyManager);
+        try {
+            factory.reload();
+            fail("not created from files");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            factory.startMonitoring(50);
+            fail("not created from files");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertSame(keyManager, factory.getKeyManager().getDelegate());
+        assertSame(trustManager, factory.getTrustManager().getDelegate());
+        assertTrue(getAcceptedIssuers(factory).contains(ca));
+    }
+
+    public void testCABundle() throws Exception {
+        File bundleFile= File.createTempFile("cabundle", ".pem");
+        try {
+            X509Certificate ca1= TestCertificates.createCertificate("CN=CA 1");
+            FileWriter pem= new FileWriter(bundleFile);
+            pem.write(Codec.getPEMEncoded(ca1));
+            pem.close();
+            ExtendedProtocolSocketFactory factory= new ExtendedProtocolSocketFactory(bundleFile.getAbsolutePath());
+            assertTrue(factory.getTrustManager().getDelegate() instanceof ExtendedX509TrustManager);
+            factory.getTrustManager().checkServerTrusted(new X509Certificate[] { ca1 }, "RSA");
+
+            X509Certificate ca2= TestCertificates.createCertificate("CN=CA 2");
+            pem= new FileWriter(bundleFile);
+            pem.write(Codec.getPEMEncoded(ca2));
+            pem.close();
+            factory.reload();
+            factory.getTrustManager().checkServerTrusted(new X509Certificate[] { ca2 }, "RSA");
+            assertTrue(getAcceptedIssuers(factory).contains(ca2));
+            assertFalse(getAcceptedIssuers(factory).contains(ca1));
+        } finally {
+            bundleFile.delete();
+        }
+    }
+
+    public void testMonitoring() throws Exception {
+        X509Certificate ca1= TestCertificates.createCertificate("CN=CA 1");
+        storeTrustStore(ca1);
+        ExtendedProtocolSocketFactory factory= new ExtendedProtocolSocketFactory(truststoreFile.getAbsolutePath());
+        factory.startMonitoring(50);
+        try {
+            X509Certificate ca2= TestCertificates.createCertificate("CN=CA 2");
+            storeTrustStore(ca2);
+            truststoreFile.setLastModified(System.currentTimeMillis() + 10000);
+            long deadline= System.currentTimeMillis() + 10000;
+            while (!getAcceptedIssuers(factory).contains(ca2) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(getAcceptedIssuers(factory).contains(ca2));
+        } finally {
+            factory.stopMonitoring();
+        }
+    }
+
+    public void testSessionResumption() throws Exception {
+        KeyPair keyPair= TestCertificates.generateKeyPair(2048);
+        X509Certificate cert= TestCertificates.createCertificate("CN=localhost", keyPair, System.nanoTime());
+        KeyStore keystore= KeyStore.getInstance("JKS");
+        keystore.load(null, null);
+        keystore.setKeyEntry("server", keyPair.getPrivate(), "changeit".toCharArray(), new X509Certificate[] { cert });
+        KeyManagerFactory kmf= KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keystore, "changeit".toCharArray());
+        SSLContext serverContext= SSLContext.getInstance("TLS");
+        serverContext.init(kmf.getKeyManagers(), null, null);
+        final SSLServerSocket server= (SSLServerSocket) serverContext.getServerSocketFactory().createServerSocket(0);
+        Thread acceptor= new Thread() {
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket= server.accept();
+                        // client reads the session ticket with the data
+                        socket.getOutputStream().write(1);
+                        socket.getOutputStream().flush();
+                        socket.getInputStream().read();
+                        socket.close();
+                    }
+                } catch (Exception e) {
+                    // server closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        KeyStore truststore= KeyStore.getInstance("JKS");
+        truststore.load(null, null);
+        truststore.setCertificateEntry("server", cert);
+        ExtendedProtocolSocketFactory factory= new ExtendedProtocolSocketFactory(null, null, truststore);
+        factory.setSessionCacheSize(10);
+        factory.setSessionTimeout(60);
+        try {
+            for (int i= 0; i < 3; i++) {
+                SSLSocket socket= (SSLSocket) factory.createSocket("localhost", server.getLocalPort());
+                socket.startHandshake();
+                assertEquals(1, socket.getInputStream().read());
+                socket.getOutputStream().write(1);
+                socket.close();
+                Thread.sleep(10);
+            }
+            long deadline= System.currentTimeMillis() + 5000;
+            while (factory.getFullHandshakeCount() + factory.getResumedHandshakeCount() < 3
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, factory.getFullHandshakeCount());
+            assertEquals(2, factory.getResumedHandshakeCount());
+        } finally {
+            server.close();
+        }
+    }
+
+    public void testHandshakeTimeout() throws Exception {
+        // accepts the TCP connection, but never answers the handshake
+        ServerSocket server= new ServerSocket(0);
+        KeyStore truststore= KeyStore.getInstance("JKS");
+        truststore.load(null, null);
+        ExtendedProtocolSocketFactory factory= new ExtendedProtocolSocketFactory(null, null, truststore);
+        factory.setHandshakeTimeout(200);
+        HttpConnectionParams params= new HttpConnectionParams();
+        params.setConnectionTimeout(1000);
+        params.setSoTimeout(5000);
+        long start= System.currentTimeMillis();
+        try {
+            factory.createSocket("localhost", server.getLocalPort(), InetAddress.getByName("localhost"), 0, params);
+            fail("handshake should time out");
+        } catch (ConnectTimeoutException e) {
+            assertTrue(e.getMessage(), e.getMessage().indexOf("TLS handshake timed out") >= 0);
+            assertTrue(System.currentTimeMillis() - start < 5000);
+        } finally {
+            server.close();
+        }
+    }
+
+    private List<X509Certificate> getAcceptedIssuers(ExtendedProtocolSocketFactory factory) {
+        return Arrays.asList(factory.getTrustManager().getAcceptedIssuers());
+    }
+
+    private void storeTrustStore(X509Certificate ca) throws Exception {
+        // JKS: trusted certificates readable without password
+        KeyStore truststore= KeyStore.getInstance("JKS");
+        truststore.load(null, null);
+        truststore.setCertificateEntry("ca", ca);
+        FileOutputStream out= new FileOutputStream(truststoreFile);
+        truststore.store(out, "changeit".toCharArray());
+        out.close();
+    }
+
+    private ExtendedX509TrustManager getExtendedTrustManager(ExtendedProtocolSocketFactory factory) {
+        return (ExtendedX509TrustManager) factory.getTrustManager().getDelegate();
+    }
+
+}
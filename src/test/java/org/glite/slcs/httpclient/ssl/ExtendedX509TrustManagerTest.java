@@ -0,0 +1,205 @@
+package org.glite.slcs.httpclient.ssl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.List;
+
+import javax.net.ssl.X509TrustManager;
+import javax.security.auth.x500.X500Principal;
+
+import junit.framework.TestCase;
+
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+import org.bouncycastle.x509.extension.AuthorityKeyIdentifierStructure;
+import org.bouncycastle.x509.extension.SubjectKeyIdentifierStructure;
+import org.glite.slcs.pki.CertificateBundle;
+import org.glite.slcs.pki.bouncycastle.Codec;
+import org.glite.slcs.pki.bouncycastle.KeyPairGenerator;
+
+public class ExtendedX509TrustManagerTest extends TestCase {
+
+    private KeyPair caKeys= null;
+
+    private X509Certificate ca= null;
+
+    private KeyPair otherCaKeys= null;
+
+    private X509Certificate otherCa= null;
+
+    private ExtendedX509TrustManager trustManager= null;
+
+    protected void setUp() throws Exception {
+        caKeys= generateKeyPair();
+        ca= createCertificate("CN=Test CA", caKeys, null, caKeys.getPrivate(), 1);
+        // same DN, not trusted
+        otherCaKeys= generateKeyPair();
+        otherCa= createCertificate("CN=Test CA", otherCaKeys, null, otherCaKeys.getPrivate(), 2);
+
+        KeyStore truststore= KeyStore.getInstance(KeyStore.getDefaultType());
+        truststore.load(null, null);
+        truststore.setCertificateEntry("ca", ca);
+        for (int i= 0; i < 10; i++) {
+            KeyPair keys= generateKeyPair();
+            truststore.setCertificateEntry("ca" + i, createCertificate("CN=Other CA " + i, keys, null, keys.getPrivate(), 10 + i));
+        }
+        trustManager= new ExtendedX509TrustManager(truststore, new UntrustingTrustManager());
+    }
+
+    public void testCandidateIssuers() throws Exception {
+        X509Certificate cert= createCertificate("CN=Server", generateKeyPair(), ca, caKeys.getPrivate(), 100);
+        List<X509Certificate> candidates= trustManager.getCandidateIssuers(cert);
+        assertEquals(1, candidates.size());
+        assertEquals(ca, candidates.get(0));
+
+        // unknown AKI, fallback on issuer DN
+        X509Certificate other= createCertificate("CN=Server", generateKeyPair(), otherCa, otherCaKeys.getPrivate(), 101);
+        candidates= trustManager.getCandidateIssuers(other);
+        assertEquals(1, candidates.size());
+        assertEquals(ca, candidates.get(0));
+    }
+
+    public void testCheckServerTrusted() throws Exception {
+        X509Certificate cert= createCertificate("CN=Server", generateKeyPair(), ca, caKeys.getPrivate(), 100);
+        trustManager.checkServerTrusted(new X509Certificate[] { cert }, "RSA");
+
+        // trusted certificate itself
+        trustManager.checkServerTrusted(new X509Certificate[] { ca }, "RSA");
+
+        X509Certificate other= createCertificate("CN=Server", generateKeyPair(), otherCa, otherCaKeys.getPrivate(), 101);
+        try {
+            trustManager.checkServerTrusted(new X509Certificate[] { other }, "RSA");
+            fail("issuer not trusted");
+        } catch (CertificateException e) {
+            System.out.println("Expected exception: " + e);
+        }
+    }
+
+    public void testCABundle() throws Exception {
+        File file= File.createTempFile("cabundle", ".pem");
+        try {
+            FileWriter pem= new FileWriter(file);
+            pem.write(Codec.getPEMEncoded(ca));
+            for (int i= 0; i < 10; i++) {
+                KeyPair keys= generateKeyPair();
+                pem.write(Codec.getPEMEncoded(createCertificate("CN=Other CA " + i, keys, null, keys.getPrivate(), 10 + i)));
+            }
+            pem.close();
+            CertificateBundle bundle= new CertificateBundle();
+            assertEquals(11, bundle.load(file));
+            ExtendedX509TrustManager bundleTrustManager= new ExtendedX509TrustManager(bundle, new UntrustingTrustManager());
+            assertEquals(0, bundle.getDecodedCount());
+
+            X509Certificate cert= createCertificate("CN=Server", generateKeyPair(), ca, caKeys.getPrivate(), 100);
+            bundleTrustManager.checkServerTrusted(new X509Certificate[] { cert }, "RSA");
+            // only the issuer is decoded
+            assertEquals(1, bundle.getDecodedCount());
+
+            X509Certificate other= createCertificate("CN=Server", generateKeyPair(), otherCa, otherCaKeys.getPrivate(), 101);
+            try {
+                bundleTrustManager.checkServerTrusted(new X509Certificate[] { other }, "RSA");
+                fail("issuer not trusted");
+            } catch (CertificateException e) {
+                System.out.println("Expected exception: " + e);
+            }
+            assertEquals(1, bundle.getDecodedCount());
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testTrustDecisionCache() throws Exception {
+        TrustDecisionCache cache= trustManager.getTrustDecisionCache();
+        assertNotNull(cache);
+        X509Certificate[] chain= { createCertificate("CN=Server", generateKeyPair(), ca, caKeys.getPrivate(), 100) };
+        long hits= cache.getHitCount();
+        trustManager.checkServerTrusted(chain, "RSA");
+        assertEquals(hits, cache.getHitCount());
+        trustManager.checkServerTrusted(chain, "RSA");
+        assertEquals(hits + 1, cache.getHitCount());
+
+        X509Certificate[] untrusted= { createCertificate("CN=Server", generateKeyPair(), otherCa, otherCaKeys.getPrivate(), 101) };
+        for (int i= 0; i < 2; i++) {
+            try {
+                trustManager.checkServerTrusted(untrusted, "RSA");
+                fail("issuer not trusted");
+            } catch (CertificateException e) {
+                System.out.println("Expected exception: " + e);
+            }
+        }
+        assertEquals(hits + 2, cache.getHitCount());
+    }
+
+    public void testTrustDecisionExpiration() throws Exception {
+        TrustDecisionCache cache= new TrustDecisionCache(10, 50, 50);
+        X509Certificate[] chain= { createCertificate("CN=Server", generateKeyPair(), ca, caKeys.getPrivate(), 100) };
+        cache.putTrusted(chain, "RSA");
+        assertTrue(cache.get(chain, "RSA").isTrusted());
+        assertNull(cache.get(chain, "DHE_RSA"));
+        Thread.sleep(100);
+        assertNull(cache.get(chain, "RSA"));
+
+        // never after notAfter
+        cache= new TrustDecisionCache(10, 3600000, 3600000);
+        X509Certificate[] expired= { createCertificate("CN=Expired", generateKeyPair(), ca, caKeys.getPrivate(), 102, -1000) };
+        cache.putTrusted(expired, "RSA");
+        assertNull(cache.get(expired, "RSA"));
+    }
+
+    private KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator generator= new KeyPairGenerator("RSA");
+        generator.initialize(512);
+        return generator.generateKeyPair();
+    }
+
+    private X509Certificate createCertificate(String subject, KeyPair keys,
+            X509Certificate issuer, PrivateKey issuerKey, int serial) throws Exception {
+        return createCertificate(subject, keys, issuer, issuerKey, serial, 3600000);
+    }
+
+    private X509Certificate createCertificate(String subject, KeyPair keys,
+            X509Certificate issuer, PrivateKey issuerKey, int serial, long validity) throws Exception {
+        X509V3CertificateGenerator generator= new X509V3CertificateGenerator();
+        X500Principal dn= new X500Principal(subject);
+        generator.setSerialNumber(BigInteger.valueOf(serial));
+        generator.setIssuerDN(issuer != null ? issuer.getSubjectX500Principal() : dn);
+        generator.setSubjectDN(dn);
+        generator.setNotBefore(new Date(System.currentTimeMillis() - 60000));
+        generator.setNotAfter(new Date(System.currentTimeMillis() + validity));
+        generator.setPublicKey(keys.getPublic());
+        generator.setSignatureAlgorithm("SHA1WithRSA");
+        generator.addExtension(X509Extensions.SubjectKeyIdentifier, false, new SubjectKeyIdentifierStructure(keys.getPublic()));
+        if (issuer != null) {
+            generator.addExtension(X509Extensions.AuthorityKeyIdentifier, false, new AuthorityKeyIdentifierStructure(issuer));
+        }
+        return generator.generate(issuerKey, "BC");
+    }
+
+    /**
+     * Default trust manager rejecting all chains.
+     */
+    private static class UntrustingTrustManager implements X509TrustManager {
+
+        public void checkClientTrusted(X509Certificate[] chain, String authType)
+                throws CertificateException {
+            throw new CertificateException("not trusted");
+        }
+
+        public void checkServerTrusted(X509Certificate[] chain, String authType)
+                throws CertificateException {
+            throw new CertificateException("not trusted");
+        }
+
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+
+}
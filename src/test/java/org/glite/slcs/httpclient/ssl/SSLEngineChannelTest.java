@@ -0,0 +1,176 @@
+package org.glite.slcs.httpclient.ssl;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Iterator;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+
+import junit.framework.TestCase;
+
+import org.glite.slcs.pki.TestCertificates;
+
+public class SSLEngineChannelTest extends TestCase {
+
+    private static int CONNECTIONS= 5;
+
+    private SSLServerSocket server= null;
+
+    private X509Certificate serverCert= null;
+
+    protected void setUp() throws Exception {
+        KeyPair keyPair= TestCertificates.generateKeyPair(2048);
+        serverCert= TestCertificates.createCertificate("CN=localhost", keyPair, 1);
+
+        KeyStore keystore= KeyStore.getInstance("JKS");
+        keystore.load(null, null);
+        keystore.setKeyEntry("server", keyPair.getPrivate(), "changeit".toCharArray(), new X509Certificate[] { serverCert });
+        KeyManagerFactory kmf= KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keystore, "changeit".toCharArray());
+        SSLContext serverContext= SSLContext.getInstance("TLS");
+        serverContext.init(kmf.getKeyManagers(), null, null);
+        server= (SSLServerSocket) serverContext.getServerSocketFactory().createServerSocket(0);
+        Thread acceptor= new Thread() {
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket= server.accept();
+                        Thread echo= new Thread() {
+                            public void run() {
+                                try {
+                                    BufferedReader in= new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                                    String line= in.readLine();
+                                    OutputStream out= socket.getOutputStream();
+                                    out.write(("echo " + line + "\n").getBytes("US-ASCII"));
+                                    out.flush();
+                                    in.read();
+                                    socket.close();
+                                } catch (Exception e) {
+                                    // client closed
+                                }
+                            }
+                        };
+                        echo.setDaemon(true);
+                        echo.start();
+                    }
+                } catch (Exception e) {
+                    // server closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    protected void tearDown() throws Exception {
+        server.close();
+    }
+
+    public void testConcurrentChannels() throws Exception {
+        KeyStore truststore= KeyStore.getInstance("JKS");
+        truststore.load(null, null);
+        truststore.setCertificateEntry("server", serverCert);
+        ExtendedProtocolSocketFactory factory= new ExtendedProtocolSocketFactory(null, null, truststore);
+
+        Selector selector= Selector.open();
+        InetSocketAddress address= new InetSocketAddress("localhost", server.getLocalPort());
+        for (int i= 0; i < CONNECTIONS; i++) {
+            SocketChannel socketChannel= SocketChannel.open();
+            socketChannel.configureBlocking(false);
+            socketChannel.connect(address);
+            SSLEngineChannel channel= new SSLEngineChannel(socketChannel, factory.createSSLEngine("localhost", server.getLocalPort()));
+            Exchange exchange= new Exchange(channel, "hello " + i);
+            socketChannel.register(selector, channel.getInterestOps(), exchange);
+        }
+
+        int done= 0;
+        long deadline= System.currentTimeMillis() + 30000;
+        while (done < CONNECTIONS && System.currentTimeMillis() < deadline) {
+            selector.select(100);
+            Iterator<SelectionKey> keys= selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key= keys.next();
+                keys.remove();
+                Exchange exchange= (Exchange) key.attachment();
+                if (exchange.step()) {
+                    assertEquals("echo " + exchange.request_, exchange.getResponse());
+                    assertTrue(exchange.channel_.isHandshakeCompleted());
+                    exchange.channel_.close();
+                    done++;
+                }
+                else {
+                    key.interestOps(exchange.channel_.getInterestOps());
+                }
+            }
+        }
+        selector.close();
+        assertEquals(CONNECTIONS, done);
+    }
+
+    /**
+     * One request/response exchange on a channel.
+     */
+    private static class Exchange {
+
+        SSLEngineChannel channel_;
+
+        String request_;
+
+        ByteBuffer out_;
+
+        ByteBuffer in_= ByteBuffer.allocate(1024);
+
+        Exchange(SSLEngineChannel channel, String request) throws Exception {
+            this.channel_= channel;
+            this.request_= request;
+            this.out_= ByteBuffer.wrap((request + "\n").getBytes("US-ASCII"));
+        }
+
+        /**
+         * @return true when the response line is received
+         */
+        boolean step() throws Exception {
+            if (!channel_.doHandshake()) {
+                return false;
+            }
+            if (out_.hasRemaining()) {
+                channel_.write(out_);
+            }
+            if (!channel_.flush()) {
+                return false;
+            }
+            int read;
+            while ((read= channel_.read(in_)) > 0) {
+                if (getResponse() != null) {
+                    return true;
+                }
+            }
+            if (read < 0) {
+                throw new Exception("connection closed");
+            }
+            return false;
+        }
+
+        String getResponse() throws Exception {
+            String received= new String(in_.array(), 0, in_.position(), "US-ASCII");
+            int eol= received.indexOf('\n');
+            if (eol < 0) {
+                return null;
+            }
+            return received.substring(0, eol);
+        }
+    }
+
+}
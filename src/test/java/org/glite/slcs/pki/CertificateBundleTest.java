@@ -0,0 +1,123 @@
+package org.glite.slcs.pki;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import javax.security.auth.x500.X500Principal;
+
+import junit.framework.TestCase;
+
+import org.glite.slcs.pki.bouncycastle.Codec;
+
+public class CertificateBundleTest extends TestCase {
+
+    private File dir= null;
+
+    private X509Certificate[] certificates= null;
+
+    protected void setUp() throws Exception {
+        KeyPair keyPair= TestCertificates.generateKeyPair(512);
+        certificates= new X509Certificate[4];
+        for (int i= 0; i < certificates.length; i++) {
+            certificates[i]= TestCertificates.createCertificate("CN=CA " + (i % 3) + ",O=Test", keyPair, i + 1);
+        }
+        dir= File.createTempFile("bundle", "");
+        dir.delete();
+        dir.mkdir();
+        // PEM bundle with CA 0, 1 and 2
+        FileWriter pem= new FileWriter(new File(dir, "bundle.pem"));
+        pem.write("# CA bundle\n");
+        for (int i= 0; i < 3; i++) {
+            pem.write(Codec.getPEMEncoded(certificates[i]));
+        }
+        pem.close();
+        // DER file with CA 0 (renewed)
+        FileOutputStream der= new FileOutputStream(new File(dir, "renewed.der"));
+        der.write(certificates[3].getEncoded());
+        der.close();
+        // ignored
+        FileWriter readme= new FileWriter(new File(dir, "README"));
+        readme.write("not a certificate\n");
+        readme.close();
+    }
+
+    protected void tearDown() throws Exception {
+        File[] files= dir.listFiles();
+        for (int i= 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    public void testLazyLookup() throws Exception {
+        CertificateBundle bundle= new CertificateBundle();
+        assertEquals(4, bundle.load(dir));
+        assertEquals(4, bundle.size());
+        assertEquals(0, bundle.getDecodedCount());
+
+        assertTrue(bundle.containsSubject(certificates[1].getSubjectX500Principal()));
+        assertEquals(0, bundle.getDecodedCount());
+
+        List<X509Certificate> found= bundle.getCertificates(certificates[1].getIssuerX500Principal());
+        assertEquals(1, found.size());
+        assertEquals(certificates[1], found.get(0));
+        assertEquals(1, bundle.getDecodedCount());
+
+        found= bundle.getCertificates(certificates[0].getSubjectX500Principal());
+        assertEquals(2, found.size());
+        assertEquals(certificates[0], found.get(0));
+        assertEquals(certificates[3], found.get(1));
+        assertEquals(3, bundle.getDecodedCount());
+
+        // decoded only once
+        bundle.getCertificates(certificates[0].getSubjectX500Principal());
+        assertEquals(3, bundle.getDecodedCount());
+
+        assertTrue(bundle.getCertificates(new X500Principal("CN=Unknown")).isEmpty());
+    }
+
+    public void testPEMFirstLineStartingWithZero() throws Exception {
+        File file= new File(dir, "zero.pem");
+        FileWriter pem= new FileWriter(file);
+        pem.write("0 comment, first byte is a DER SEQUENCE tag\n");
+        pem.write(Codec.getPEMEncoded(certificates[1]));
+        pem.close();
+        CertificateBundle bundle= new CertificateBundle();
+        assertEquals(1, bundle.load(file));
+        assertTrue(bundle.containsSubject(certificates[1].getSubjectX500Principal()));
+    }
+
+    public void testPEMSubjectBeyondPrefix() throws Exception {
+        StringBuffer dn= new StringBuffer("CN=Long");
+        for (int i= 0; i < 40; i++) {
+            dn.append(",OU=Organizational Unit Number ").append(i);
+        }
+        KeyPair keyPair= TestCertificates.generateKeyPair(512);
+        X509Certificate cert= TestCertificates.createCertificate(dn.toString(), keyPair, 1);
+        assertTrue(cert.getIssuerX500Principal().getEncoded().length > 1024);
+        File file= new File(dir, "long.pem");
+        FileWriter pem= new FileWriter(file);
+        pem.write(Codec.getPEMEncoded(cert));
+        pem.close();
+        CertificateBundle bundle= new CertificateBundle();
+        assertEquals(1, bundle.load(file));
+        assertEquals(0, bundle.getDecodedCount());
+        List<X509Certificate> found= bundle.getCertificates(cert.getSubjectX500Principal());
+        assertEquals(1, found.size());
+        assertEquals(cert, found.get(0));
+    }
+
+    public void testCreateTrustStore() throws Exception {
+        CertificateBundle bundle= new CertificateBundle();
+        bundle.load(new File(dir, "bundle.pem"));
+        KeyStore truststore= bundle.createTrustStore();
+        assertEquals(3, truststore.size());
+        assertNotNull(truststore.getCertificateAlias(certificates[2]));
+    }
+
+}
@@ -0,0 +1,69 @@
+package org.glite.slcs.pki;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.asn1.x509.X509Extension;
+import org.bouncycastle.asn1.x509.X509Extensions;
+
+public class CertificateExtensionProfileTest extends TestCase {
+
+    public void testCachedExtension() {
+        CertificateExtension keyUsage= CertificateExtensionFactory.createCertificateExtension("KeyUsage", "DigitalSignature, keyEncipherment");
+        assertSame(keyUsage, CertificateExtensionFactory.createCertificateExtension("KeyUsage", "DigitalSignature, keyEncipherment"));
+        assertEquals(CertificateExtensionFactory.createKeyUsageExtension(KeyUsage.digitalSignature + KeyUsage.keyEncipherment, "DigitalSignature,KeyEncipherment"), keyUsage);
+        assertEquals(keyUsage, CertificateExtensionFactory.createCertificateExtension(X509Extension.keyUsage.getId(), "DigitalSignature,KeyEncipherment"));
+        assertNull(CertificateExtensionFactory.createCertificateExtension("Unknown", "Foo"));
+    }
+
+    public void testProfile() throws Exception {
+        Map<String, String> extensions= new LinkedHashMap<String, String>();
+        extensions.put("KeyUsage", "DigitalSignature,KeyEncipherment");
+        extensions.put("ExtendedKeyUsage", "ClientAuth");
+        extensions.put("SubjectAltName", "email:john.doe@example.com");
+        CertificateExtensionProfile profile= CertificateExtensionFactory.createCertificateExtensionProfile(extensions);
+        assertSame(profile, CertificateExtensionFactory.createCertificateExtensionProfile(new LinkedHashMap<String, String>(extensions)));
+        assertEquals(3, profile.size());
+
+        X509Extensions decoded= X509Extensions.getInstance(ASN1Object.fromByteArray(profile.getEncoded()));
+        assertEquals(profile.getX509Extensions(), decoded);
+
+        CertificateKeys keys= new CertificateKeys(1024, "password".toCharArray());
+        CertificateRequest csr= CertificateRequest.createCertificateRequest(keys, "CN=John Doe,O=SWITCH,C=CH", profile);
+        List<CertificateExtension> csrExtensions= csr.getCertificateExtensions();
+        assertEquals(3, csrExtensions.size());
+        assertTrue(csrExtensions.containsAll(profile.getCertificateExtensions()));
+    }
+
+    public void testAmbiguousProfileKey() {
+        // both maps render as {KeyUsage=DigitalSignature, ExtendedKeyUsage=ClientAuth}
+        Map<String, String> single= new LinkedHashMap<String, String>();
+        single.put("KeyUsage", "DigitalSignature, ExtendedKeyUsage=ClientAuth");
+        Map<String, String> pair= new LinkedHashMap<String, String>();
+        pair.put("KeyUsage", "DigitalSignature");
+        pair.put("ExtendedKeyUsage", "ClientAuth");
+        assertEquals(single.toString(), pair.toString());
+        CertificateExtensionProfile singleProfile= CertificateExtensionFactory.createCertificateExtensionProfile(single);
+        CertificateExtensionProfile pairProfile= CertificateExtensionFactory.createCertificateExtensionProfile(pair);
+        assertNotSame(singleProfile, pairProfile);
+        assertEquals(1, singleProfile.size());
+        assertEquals(2, pairProfile.size());
+    }
+
+    public void testUnsupported() {
+        Map<String, String> extensions= new LinkedHashMap<String, String>();
+        extensions.put("NameConstraints", "dns:example.com");
+        try {
+            CertificateExtensionFactory.createCertificateExtensionProfile(extensions);
+            fail("unsupported extension");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.glite.slcs.pki;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.asn1.x509.X509Extension;
+
+public class CertificateExtensionTest extends TestCase {
+
+    public void testDecode() {
+        CertificateExtension keyUsage= CertificateExtensionFactory.createCertificateExtension("KeyUsage", "DigitalSignature,KeyEncipherment,DecipherOnly");
+        assertEquals(KeyUsage.digitalSignature | KeyUsage.keyEncipherment | KeyUsage.decipherOnly, keyUsage.getKeyUsage());
+        assertNull(keyUsage.getKeyPurposeIds());
+
+        CertificateExtension extendedKeyUsage= CertificateExtensionFactory.createCertificateExtension("ExtendedKeyUsage", "ClientAuth,ServerAuth");
+        assertEquals(new HashSet<String>(Arrays.asList(KeyPurposeId.id_kp_clientAuth.getId(), KeyPurposeId.id_kp_serverAuth.getId())), extendedKeyUsage.getKeyPurposeIds());
+        assertEquals(-1, extendedKeyUsage.getKeyUsage());
+
+        CertificateExtension subjectAltName= CertificateExtensionFactory.createCertificateExtension("SubjectAltName", "email:john.doe@example.com, dns:www.example.com");
+        assertEquals(Arrays.asList("email:john.doe@example.com", "dns:www.example.com"), subjectAltName.getSubjectAltNames());
+
+        CertificateExtension policies= CertificateExtensionFactory.createCertificateExtension("CertificatePolicies", "2.16.756.1.2.6.3,2.16.756.1.2.6.4");
+        assertEquals(Arrays.asList("2.16.756.1.2.6.3", "2.16.756.1.2.6.4"), policies.getPolicyOIDs());
+    }
+
+    public void testNamesRoundTrip() {
+        // the factory lookups are built from the decoder tables
+        assertEquals(CertificateExtensionDecoder.KEY_USAGE_NAMES.length, CertificateExtensionDecoder.KEY_USAGE_BITS.length);
+        for (String name : CertificateExtensionDecoder.KEY_USAGE_NAMES) {
+            CertificateExtension keyUsage= CertificateExtensionFactory.createCertificateExtension("KeyUsage", name.toUpperCase());
+            assertEquals(name, CertificateExtensionDecoder.getFormalValue(X509Extension.keyUsage, Integer.valueOf(keyUsage.getKeyUsage())));
+        }
+        assertEquals(CertificateExtensionDecoder.KEY_PURPOSE_NAMES.length, CertificateExtensionDecoder.KEY_PURPOSE_IDS.length);
+        for (String name : CertificateExtensionDecoder.KEY_PURPOSE_NAMES) {
+            CertificateExtension extendedKeyUsage= CertificateExtensionFactory.createCertificateExtension("ExtendedKeyUsage", name.toLowerCase());
+            assertEquals(name, CertificateExtensionDecoder.getFormalValue(X509Extension.extendedKeyUsage, extendedKeyUsage.getKeyPurposeIds()));
+        }
+    }
+
+    public void testParsedExtensions() throws Exception {
+        List<CertificateExtension> extensions= new ArrayList<CertificateExtension>();
+        extensions.add(CertificateExtensionFactory.createCertificateExtension("KeyUsage", "DigitalSignature,KeyEncipherment"));
+        extensions.add(CertificateExtensionFactory.createCertificateExtension("ExtendedKeyUsage", "ClientAuth"));
+        extensions.add(CertificateExtensionFactory.createCertificateExtension("SubjectAltName", "email:john.doe@example.com"));
+        CertificateKeys keys= new CertificateKeys(1024, "password".toCharArray());
+        CertificateRequest csr0= new CertificateRequest(keys, "CN=John Doe,O=SWITCH,C=CH", extensions);
+        CertificateRequest csr= CertificateRequest.readPEM(new StringReader(csr0.getPEMEncoded()));
+
+        CertificateExtension keyUsage= csr.getExtension(X509Extension.keyUsage);
+        assertEquals("KeyUsage", keyUsage.getName());
+        assertEquals("DigitalSignature,KeyEncipherment", keyUsage.getValue());
+        assertTrue(keyUsage.hasSameValue(extensions.get(0)));
+        assertFalse(keyUsage.hasSameValue(CertificateExtensionFactory.createCertificateExtension("KeyUsage", "DigitalSignature")));
+
+        CertificateExtension extendedKeyUsage= csr.getExtension(X509Extension.extendedKeyUsage);
+        assertEquals("ClientAuth", extendedKeyUsage.getValue());
+        assertTrue(extendedKeyUsage.hasSameValue(extensions.get(1)));
+        assertFalse(extendedKeyUsage.hasSameValue(keyUsage));
+
+        CertificateExtension subjectAltName= csr.getExtension(X509Extension.subjectAlternativeName);
+        assertEquals("email:john.doe@example.com", subjectAltName.getValue());
+        assertSame(subjectAltName.getSubjectAltNames(), subjectAltName.getSubjectAltNames());
+    }
+
+}
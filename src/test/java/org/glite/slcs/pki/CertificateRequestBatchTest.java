@@ -0,0 +1,132 @@
+package org.glite.slcs.pki;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class CertificateRequestBatchTest extends TestCase {
+
+    private List<CertificateExtension> extensions= null;
+
+    private ExecutorService executor= null;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.extensions= new ArrayList<CertificateExtension>();
+        extensions.add(CertificateExtensionFactory.createCertificateExtension("KeyUsage", "DigitalSignature,KeyEncipherment"));
+        extensions.add(CertificateExtensionFactory.createCertificateExtension("ExtendedKeyUsage", "ClientAuth"));
+        this.executor= Executors.newFixedThreadPool(4);
+    }
+
+    protected void tearDown() throws Exception {
+        executor.shutdown();
+        super.tearDown();
+    }
+
+    public void testBatchWithFailure() throws Exception {
+        List<String> subjects= new ArrayList<String>();
+        for (int i= 0; i < 8; i++) {
+            subjects.add("C=CH,O=SWITCH,CN=Batch User " + i);
+        }
+        // invalid DN
+        subjects.add("DC=CH,hello");
+
+        CertificateRequestBatch batch= new CertificateRequestBatch(CertificateKeys.ECDSA,
+                                                                   256,
+                                                                   "password".toCharArray(),
+                                                                   extensions);
+        List<CertificateRequestBatch.Result> results= batch.createCertificateRequests(subjects,
+                                                                                       executor);
+        assertEquals(subjects.size(), results.size());
+        for (int i= 0; i < 8; i++) {
+            CertificateRequestBatch.Result result= results.get(i);
+            assertTrue(result.isSuccess());
+            assertEquals(subjects.get(i), result.getSubject());
+            CertificateRequest csr= result.getCertificateRequest();
+            assertEquals(subjects.get(i), csr.getPrincipal().getName());
+            assertEquals(2, csr.getCertificateExtensions().size());
+        }
+        CertificateRequestBatch.Result failed= results.get(8);
+        assertFalse(failed.isSuccess());
+        assertNull(failed.getCertificateRequest());
+        assertNotNull(failed.getFailure());
+    }
+
+    public void testRejectedRequests() throws Exception {
+        // one busy thread, one queued request, the others are rejected
+        ThreadPoolExecutor busy= createBusyExecutor(new ThreadPoolExecutor.AbortPolicy());
+        try {
+            List<CertificateRequestBatch.Result> results= createBatch().createCertificateRequests(createSubjects(4),
+                                                                                                  busy);
+            assertEquals(4, results.size());
+            assertTrue(results.get(0).isSuccess());
+            for (int i= 1; i < 4; i++) {
+                assertFalse(results.get(i).isSuccess());
+                assertTrue(results.get(i).getFailure() instanceof RejectedExecutionException);
+            }
+        } finally {
+            busy.shutdown();
+        }
+    }
+
+    public void testCancelledRequests() throws Exception {
+        ThreadPoolExecutor busy= createBusyExecutor(new RejectedExecutionHandler() {
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                ((Future<?>) r).cancel(false);
+            }
+        });
+        try {
+            List<CertificateRequestBatch.Result> results= createBatch().createCertificateRequests(createSubjects(4),
+                                                                                                  busy);
+            assertEquals(4, results.size());
+            assertTrue(results.get(0).isSuccess());
+            for (int i= 1; i < 4; i++) {
+                assertFalse(results.get(i).isSuccess());
+                assertTrue(results.get(i).getFailure() instanceof CancellationException);
+            }
+        } finally {
+            busy.shutdown();
+        }
+    }
+
+    private CertificateRequestBatch createBatch() {
+        return new CertificateRequestBatch(CertificateKeys.ECDSA, 256, "password".toCharArray(), extensions);
+    }
+
+    private List<String> createSubjects(int count) {
+        List<String> subjects= new ArrayList<String>();
+        for (int i= 0; i < count; i++) {
+            subjects.add("C=CH,O=SWITCH,CN=Batch User " + i);
+        }
+        return subjects;
+    }
+
+    /**
+     * @return A single thread executor with a queue of one task, its thread
+     *         busy for a while.
+     */
+    private ThreadPoolExecutor createBusyExecutor(RejectedExecutionHandler handler) {
+        ThreadPoolExecutor busy= new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(1), handler);
+        busy.execute(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    // done
+                }
+            }
+        });
+        return busy;
+    }
+
+}
@@ -0,0 +1,84 @@
+package org.glite.slcs.pki;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.glite.slcs.pki.bouncycastle.PKCS10;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Assembling a certificate request with the extensions rebuilt for each
+ * request, and with a shared {@link CertificateExtensionProfile}. Compare the
+ * allocation per request (<code>gc.alloc.rate.norm</code>).
+ * <p>
+ * Run with: <code>mvn -Pbenchmark test -Dbenchmark=CertificateRequestBenchmark</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations= 3, time= 1)
+@Measurement(iterations= 5, time= 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CertificateRequestBenchmark {
+
+    private CertificateKeys keys;
+
+    private String signatureAlgorithm;
+
+    private String subject= "C=CH,O=SWITCH,CN=Benchmark User";
+
+    private List<CertificateExtension> extensions;
+
+    private CertificateExtensionProfile profile;
+
+    private boolean verify;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        keys= new CertificateKeys(CertificateKeys.ECDSA, 256, null);
+        signatureAlgorithm= PKCS10.getSignatureAlgorithm(keys.getPublic());
+        Map<String, String> idValues= new LinkedHashMap<String, String>();
+        idValues.put("KeyUsage", "DigitalSignature,KeyEncipherment");
+        idValues.put("ExtendedKeyUsage", "ClientAuth");
+        idValues.put("CertificatePolicies", "2.16.756.1.2.6.3");
+        idValues.put("SubjectAltName", "email:benchmark@example.com");
+        extensions= new ArrayList<CertificateExtension>();
+        for (Map.Entry<String, String> idValue : idValues.entrySet()) {
+            extensions.add(CertificateExtensionFactory.createCertificateExtension(idValue.getKey(), idValue.getValue()));
+        }
+        profile= CertificateExtensionFactory.createCertificateExtensionProfile(idValues);
+        // measure the request assembly and signature only
+        verify= PKCS10.VERIFY_SIGNED_REQUEST;
+        PKCS10.VERIFY_SIGNED_REQUEST= false;
+    }
+
+    @TearDown
+    public void tearDown() {
+        PKCS10.VERIFY_SIGNED_REQUEST= verify;
+    }
+
+    @Benchmark
+    public CertificateRequest perRequestExtensions() throws GeneralSecurityException {
+        return new CertificateRequest(keys, subject, extensions, signatureAlgorithm);
+    }
+
+    @Benchmark
+    public CertificateRequest sharedProfile() throws GeneralSecurityException {
+        return CertificateRequest.createCertificateRequest(keys, subject, profile, signatureAlgorithm);
+    }
+
+}
@@ -8,12 +8,15 @@
 package org.glite.slcs.pki;
 
 import java.io.File;
+import java.io.StringReader;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.List;
 
 import junit.framework.TestCase;
 
+import org.bouncycastle.asn1.x509.X509Extension;
+
 public class CertificateRequestTest extends TestCase {
 
     private String password= null;
@@ -109,4 +112,39 @@ public class CertificateRequestTest extends TestCase {
         }
 
     }
+
+    public void testECCertificateRequest() throws Exception {
+        int[] curveSizes= { 256, 384 };
+        for (int i= 0; i < curveSizes.length; i++) {
+            int size= curveSizes[i];
+            CertificateKeys keys= new CertificateKeys(CertificateKeys.ECDSA,
+                                                      size,
+                                                      this.password.toCharArray());
+            keys.getPEMPrivate();
+            CertificateRequest csr0= new CertificateRequest(keys,
+                                                            this.subject,
+                                                            this.extensions);
+            String pem0= csr0.getPEMEncoded();
+            System.out.println("PEM:\n" + pem0);
+            CertificateRequest csr1= CertificateRequest.readPEM(new StringReader(pem0));
+            assertEquals("Not the same Principal", csr0.getPrincipal(), csr1.getPrincipal());
+            assertEquals("Not the same PEM encoded", pem0, csr1.getPEMEncoded());
+        }
+    }
+
+    public void testGetExtension() throws Exception {
+        CertificateKeys keys= new CertificateKeys(1024, this.password.toCharArray());
+        CertificateRequest csr0= new CertificateRequest(keys,
+                                                        this.subject,
+                                                        this.extensions);
+        CertificateRequest csr= CertificateRequest.readPEM(new StringReader(csr0.getPEMEncoded()));
+        assertEquals(4, csr.getCertificateExtensions().size());
+        CertificateExtension keyUsage= csr.getExtension(X509Extension.keyUsage);
+        assertNotNull(keyUsage);
+        assertTrue(keyUsage.isCritical());
+        assertSame(keyUsage, csr.getExtension(X509Extension.keyUsage.getId()));
+        assertEquals(this.extensions.get(0).getExtension(), keyUsage.getExtension());
+        assertNull(csr.getExtension(X509Extension.basicConstraints));
+        assertSame(csr.getPrincipal(), csr.getPrincipal());
+    }
 }
@@ -0,0 +1,43 @@
+package org.glite.slcs.pki;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class CertificateTest extends TestCase {
+
+    private X509Certificate cert= null;
+
+    protected void setUp() throws Exception {
+        cert= TestCertificates.createCertificate("CN=Test,O=Test", TestCertificates.generateKeyPair(512), 1);
+    }
+
+    public void testDEREncoded() throws Exception {
+        Certificate certificate= new Certificate(cert);
+        byte[] der= certificate.getDEREncoded();
+        assertTrue(Arrays.equals(cert.getEncoded(), der));
+        // copies are independent
+        der[0]= 0;
+        assertTrue(Arrays.equals(cert.getEncoded(), certificate.getDEREncoded()));
+
+        ByteArrayOutputStream out= new ByteArrayOutputStream();
+        certificate.writeTo(out);
+        assertTrue(Arrays.equals(cert.getEncoded(), out.toByteArray()));
+        out.reset();
+        certificate.writeTo(Channels.newChannel(out));
+        assertTrue(Arrays.equals(cert.getEncoded(), out.toByteArray()));
+
+        ByteBuffer buffer= certificate.getDEREncodedBuffer();
+        assertTrue(buffer.isReadOnly());
+        byte[] bytes= new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertTrue(Arrays.equals(cert.getEncoded(), bytes));
+        // new view on each call
+        assertEquals(bytes.length, certificate.getDEREncodedBuffer().remaining());
+    }
+
+}
@@ -0,0 +1,84 @@
+package org.glite.slcs.pki;
+
+import java.security.KeyPair;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class KeyPairPoolTest extends TestCase {
+
+    public void testBlockingPoolHandsOutOnce() throws Exception {
+        KeyPairPool pool= new KeyPairPool("RSA", 512, 2, 4, 2, true);
+        pool.start();
+        try {
+            Set<KeyPair> seen= Collections.newSetFromMap(new IdentityHashMap<KeyPair, Boolean>());
+            for (int i= 0; i < 10; i++) {
+                KeyPair keyPair= pool.acquire();
+                assertTrue("key pair handed out twice", seen.add(keyPair));
+            }
+            assertEquals(10, pool.getPooledCount());
+            assertEquals(0, pool.getGeneratedInlineCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testNonBlockingPool() throws Exception {
+        KeyPairPool pool= new KeyPairPool("RSA", 512, 1, 2, 1, false);
+        pool.start();
+        try {
+            assertTrue(pool.awaitAvailable(2, 30, TimeUnit.SECONDS));
+            CertificateKeys keys= new CertificateKeys(pool, "password".toCharArray());
+            assertNotNull(keys.getPrivate());
+            assertNotNull(keys.getPublic());
+            assertEquals("RSA", keys.getPublic().getAlgorithm());
+            assertEquals(1, pool.getPooledCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testRefillBelowLowWatermark() throws Exception {
+        KeyPairPool pool= new KeyPairPool("RSA", 512, 4, 8, 2, false);
+        pool.start();
+        try {
+            assertTrue(pool.awaitAvailable(8, 30, TimeUnit.SECONDS));
+            // the 5th poll drops the pool below the low watermark
+            for (int i= 0; i < 5; i++) {
+                assertNotNull(pool.poll());
+            }
+            // refilled up to the high watermark, without any other poll
+            assertTrue(pool.awaitAvailable(8, 30, TimeUnit.SECONDS));
+            assertEquals(8, pool.getAvailable());
+            assertEquals(0, pool.getGeneratedInlineCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testInvalidWatermarks() {
+        try {
+            new KeyPairPool("RSA", 512, 8, 4, 1, false);
+            fail("low watermark above high watermark");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Expected exception: " + e);
+        }
+    }
+
+    public void testInvalidAlgorithm() {
+        String[] algorithms= { "NoSuchAlgorithm", "ECDSA" };
+        int[] keySizes= { 1024, 123 };
+        for (int i= 0; i < algorithms.length; i++) {
+            try {
+                new KeyPairPool(algorithms[i], keySizes[i], 1, 2, 1, true);
+                fail("invalid key algorithm: " + algorithms[i] + "/" + keySizes[i]);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Expected exception: " + e);
+            }
+        }
+    }
+
+}
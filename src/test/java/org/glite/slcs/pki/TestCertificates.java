@@ -0,0 +1,67 @@
+package org.glite.slcs.pki;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.x509.X509V1CertificateGenerator;
+import org.glite.slcs.pki.bouncycastle.KeyPairGenerator;
+
+/**
+ * X509 certificates and RSA key pairs for the tests. The certificates are
+ * valid for one hour.
+ */
+public class TestCertificates {
+
+    private TestCertificates() {
+    }
+
+    /**
+     * @return A new RSA key pair.
+     */
+    static public KeyPair generateKeyPair(int keySize)
+            throws GeneralSecurityException {
+        KeyPairGenerator generator= new KeyPairGenerator("RSA");
+        generator.initialize(keySize);
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * @return A self-signed certificate with a new 512 bits RSA key.
+     */
+    static public X509Certificate createCertificate(String subject)
+            throws GeneralSecurityException {
+        return createCertificate(subject, generateKeyPair(512), System.nanoTime());
+    }
+
+    /**
+     * @return A self-signed certificate for the key pair.
+     */
+    static public X509Certificate createCertificate(String subject,
+            KeyPair keyPair, long serial) throws GeneralSecurityException {
+        return createCertificate(subject, subject, keyPair, serial);
+    }
+
+    /**
+     * @return A certificate for the key pair, with the issuer DN, signed by
+     *         the key pair.
+     */
+    static public X509Certificate createCertificate(String subject,
+            String issuer, KeyPair keyPair, long serial)
+            throws GeneralSecurityException {
+        X509V1CertificateGenerator certGenerator= new X509V1CertificateGenerator();
+        certGenerator.setSerialNumber(BigInteger.valueOf(serial));
+        certGenerator.setIssuerDN(new X500Principal(issuer));
+        certGenerator.setSubjectDN(new X500Principal(subject));
+        certGenerator.setNotBefore(new Date(System.currentTimeMillis() - 60000));
+        certGenerator.setNotAfter(new Date(System.currentTimeMillis() + 3600000));
+        certGenerator.setPublicKey(keyPair.getPublic());
+        certGenerator.setSignatureAlgorithm("SHA256WithRSA");
+        return certGenerator.generate(keyPair.getPrivate(), "BC");
+    }
+
+}
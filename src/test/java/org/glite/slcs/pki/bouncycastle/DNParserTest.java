@@ -0,0 +1,52 @@
+package org.glite.slcs.pki.bouncycastle;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.bouncycastle.jce.X509Principal;
+
+@SuppressWarnings("deprecation")
+public class DNParserTest extends TestCase {
+
+    public void testSameAsBouncyCastle() throws Exception {
+        String[] dns= { "CN=C+CN=A+CN=B,O=SWITCH,C=CH",
+                "CN=Valery Tschopp,OU=Staff,O=SWITCH,DC=slcs,DC=switch,DC=ch",
+                "E=tschopp@switch.ch,CN=Test,C=CH" };
+        for (int i= 0; i < dns.length; i++) {
+            X509Principal expected= new X509Principal(dns[i]);
+            assertTrue(dns[i], Arrays.equals(expected.getEncoded(), DNParser.encode(dns[i])));
+        }
+    }
+
+    public void testEscaped() throws Exception {
+        String dn= "DC=Hello\\; World!,CN=Foo\\+Bar,O=A+O=B+O=C,O=Test+OU=Java,C=CH";
+        X509Principal p= new X509Principal(DNParser.encode(dn));
+        assertEquals(dn, p.getName());
+    }
+
+    public void testSpacesAndQuotes() throws Exception {
+        X509Principal expected= new X509Principal(DNParser.encode("CN=Foo Bar,O=SWITCH,C=CH"));
+        assertEquals(expected, new X509Principal(DNParser.encode(" cn = Foo Bar , o=\"SWITCH\";C=CH ")));
+        assertEquals(expected, new X509Principal(DNParser.encode("OID.2.5.4.3=Foo\\20Bar,2.5.4.10=SWITCH,C=CH")));
+    }
+
+    public void testHexEscapedUTF8() throws Exception {
+        X509Principal p= new X509Principal(DNParser.encode("CN=Z\\C3\\BCrich,C=CH"));
+        assertEquals("CN=Z\u00fcrich,C=CH", p.getName());
+    }
+
+    public void testInvalid() {
+        String[] dns= { "CN", "CN=Foo,", "XYZ=Foo", "CN=\"Foo", "CN=Foo\\" };
+        for (int i= 0; i < dns.length; i++) {
+            try {
+                DNParser.encode(dns[i]);
+                fail("invalid DN: " + dns[i]);
+            } catch (GeneralSecurityException e) {
+                // expected
+            }
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package org.glite.slcs.pki.bouncycastle;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encrypting a PEM private key with the legacy OpenSSL DES-EDE3 encryption
+ * and with the PKCS#8 AES encryptions, for different PBKDF2 iteration counts.
+ * <p>
+ * Run with: <code>mvn -Pbenchmark test -Dbenchmark=KeyEncryptionBenchmark</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations= 3, time= 1)
+@Measurement(iterations= 5, time= 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyEncryptionBenchmark {
+
+    @Param({ "DESEDE", "AES-128-CBC", "AES-256-CBC" })
+    public String mode;
+
+    @Param({ "2048", "10000" })
+    public int iterationCount;
+
+    private KeyPair keyPair;
+
+    private String algorithm;
+
+    private char[] password= "benchmark".toCharArray();
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        KeyPairGenerator generator= new KeyPairGenerator("RSA");
+        generator.initialize(2048);
+        keyPair= generator.generateKeyPair();
+        if ("AES-128-CBC".equals(mode)) {
+            algorithm= Codec.KEY_ENCRYPTION_AES_128_CBC;
+        }
+        else if ("AES-256-CBC".equals(mode)) {
+            algorithm= Codec.KEY_ENCRYPTION_AES_256_CBC;
+        }
+        else {
+            algorithm= Codec.KEY_ENCRYPTION_DESEDE;
+        }
+    }
+
+    @Benchmark
+    public String encrypt() throws IOException {
+        return Codec.getPEMEncoded(keyPair.getPrivate(), password, algorithm, iterationCount);
+    }
+
+}
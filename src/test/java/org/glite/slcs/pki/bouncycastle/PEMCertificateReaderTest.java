@@ -0,0 +1,78 @@
+package org.glite.slcs.pki.bouncycastle;
+
+import java.io.StringReader;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.NoSuchElementException;
+
+import junit.framework.TestCase;
+
+import org.glite.slcs.pki.Certificate;
+import org.glite.slcs.pki.TestCertificates;
+
+public class PEMCertificateReaderTest extends TestCase {
+
+    private X509Certificate[] certificates= null;
+
+    private String pem= null;
+
+    protected void setUp() throws Exception {
+        KeyPair keyPair= TestCertificates.generateKeyPair(512);
+        certificates= new X509Certificate[3];
+        StringBuffer sb= new StringBuffer();
+        for (int i= 0; i < certificates.length; i++) {
+            certificates[i]= TestCertificates.createCertificate("CN=Test " + i, keyPair, i + 1);
+            sb.append(Codec.getPEMEncoded(certificates[i]));
+            if (i == 0) {
+                // not a certificate, skipped
+                sb.append(Codec.getPEMEncoded(keyPair.getPublic()));
+            }
+        }
+        pem= sb.toString();
+    }
+
+    public void testIterate() throws Exception {
+        PEMCertificateReader reader= new PEMCertificateReader(new StringReader(pem));
+        try {
+            for (int i= 0; i < certificates.length; i++) {
+                assertTrue(reader.hasNext());
+                assertEquals(certificates[i], reader.next());
+            }
+            assertFalse(reader.hasNext());
+            assertEquals(certificates.length, reader.getCount());
+            try {
+                reader.next();
+                fail("no more certificates");
+            } catch (NoSuchElementException e) {
+                System.out.println("Expected exception: " + e);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testEarlyTermination() throws Exception {
+        PEMCertificateReader reader= new PEMCertificateReader(new StringReader(pem));
+        assertEquals(certificates[0], reader.readCertificate());
+        reader.close();
+        assertEquals(1, reader.getCount());
+        assertFalse(reader.hasNext());
+    }
+
+    public void testReadPEMEncodedCertificates() throws Exception {
+        X509Certificate[] read= Codec.readPEMEncodedCertificates(new StringReader(pem));
+        assertEquals(certificates.length, read.length);
+        assertEquals(certificates[2], read[2]);
+    }
+
+    public void testCertificateReadPEM() throws Exception {
+        Certificate certificate= Certificate.readPEM(new StringReader(pem));
+        assertEquals(certificates[0], certificate.getCertificate());
+        assertEquals(2, certificate.getCertificateChain().length);
+        assertEquals(certificates[1], certificate.getCertificateChain()[0]);
+
+        certificate= Certificate.readPEM(new StringReader(Codec.getPEMEncoded(certificates[0])));
+        assertNull(certificate.getCertificateChain());
+    }
+
+}
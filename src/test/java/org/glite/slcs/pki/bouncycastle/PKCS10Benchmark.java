@@ -0,0 +1,60 @@
+package org.glite.slcs.pki.bouncycastle;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Signing a PKCS#10 request with and without the self-verification of the
+ * signature.
+ * <p>
+ * Run with: <code>mvn -Pbenchmark test -Dbenchmark=PKCS10Benchmark</code>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations= 3, time= 1)
+@Measurement(iterations= 5, time= 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PKCS10Benchmark {
+
+    @Param({ "RSA:2048", "ECDSA:256" })
+    public String key;
+
+    private KeyPair keyPair;
+
+    private String subject= "C=CH,O=SWITCH,CN=Benchmark User";
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        String[] algorithmAndSize= key.split(":");
+        KeyPairGenerator generator= new KeyPairGenerator(algorithmAndSize[0]);
+        generator.initialize(Integer.parseInt(algorithmAndSize[1]));
+        keyPair= generator.generateKeyPair();
+    }
+
+    @Benchmark
+    public PKCS10 signAndVerify() throws GeneralSecurityException {
+        return new PKCS10(subject, keyPair.getPublic(), keyPair.getPrivate(), null,
+                          PKCS10.getSignatureAlgorithm(keyPair.getPublic()), true);
+    }
+
+    @Benchmark
+    public PKCS10 signOnly() throws GeneralSecurityException {
+        return new PKCS10(subject, keyPair.getPublic(), keyPair.getPrivate(), null,
+                          PKCS10.getSignatureAlgorithm(keyPair.getPublic()), false);
+    }
+
+}
@@ -7,12 +7,17 @@
  */
 package org.glite.slcs.pki.bouncycastle;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.List;
@@ -41,6 +46,7 @@ import org.bouncycastle.asn1.x509.X509Extension;
 import org.bouncycastle.asn1.x509.X509Extensions;
 import org.bouncycastle.asn1.x509.X509Name;
 import org.bouncycastle.asn1.x509.X509NameTokenizer;
+import org.bouncycastle.jce.PKCS10CertificationRequest;
 import org.bouncycastle.jce.X509Principal;
 import org.bouncycastle.util.Strings;
 
@@ -173,6 +179,62 @@ public class PKCS10Test extends TestCase {
 
     }
 
+    public void testSkipVerify() throws GeneralSecurityException, IOException {
+        long verified = PKCS10.getVerifiedCount();
+        long skipped = PKCS10.getSkippedVerifyCount();
+        PKCS10 pkcs10 = new PKCS10(subject, keys.getPublic(),
+                keys.getPrivate(), null, PKCS10.SIGNATURE_ALGORITHM, false);
+        assertEquals(verified, PKCS10.getVerifiedCount());
+        assertEquals(skipped + 1, PKCS10.getSkippedVerifyCount());
+
+        // parsed request is always verified
+        PKCS10.readPEMEncoded(new StringReader(pkcs10.getPEMEncoded()));
+        assertEquals(verified + 1, PKCS10.getVerifiedCount());
+        assertEquals(skipped + 1, PKCS10.getSkippedVerifyCount());
+    }
+
+    public void testECSignatureAlgorithm() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("ECDSA", "BC");
+        generator.initialize(256);
+        assertEquals(PKCS10.EC256_SIGNATURE_ALGORITHM,
+                PKCS10.getSignatureAlgorithm(generator.generateKeyPair().getPublic()));
+        generator.initialize(384);
+        assertEquals(PKCS10.EC384_SIGNATURE_ALGORITHM,
+                PKCS10.getSignatureAlgorithm(generator.generateKeyPair().getPublic()));
+        generator.initialize(521);
+        try {
+            PKCS10.getSignatureAlgorithm(generator.generateKeyPair().getPublic());
+            fail("P-521 not supported");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testWriteTo() throws GeneralSecurityException, IOException {
+        PKCS10 pkcs10 = new PKCS10(subject, keys.getPublic(),
+                keys.getPrivate(), null, PKCS10.SIGNATURE_ALGORITHM, false);
+        byte[] der = pkcs10.getDEREncoded();
+        assertTrue(Arrays.equals(new PKCS10CertificationRequest(der).getEncoded(), der));
+        // copies are independent
+        der[0] = 0;
+        assertEquals(0x30, pkcs10.getDEREncoded()[0]);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pkcs10.writeTo(out);
+        assertTrue(Arrays.equals(pkcs10.getDEREncoded(), out.toByteArray()));
+        out.reset();
+        pkcs10.writeTo(Channels.newChannel(out));
+        assertTrue(Arrays.equals(pkcs10.getDEREncoded(), out.toByteArray()));
+
+        ByteBuffer buffer = pkcs10.getDEREncodedBuffer();
+        assertTrue(buffer.isReadOnly());
+        assertEquals(out.size(), buffer.remaining());
+
+        // PEM written from the cached encoding
+        PKCS10 read = PKCS10.readPEMEncoded(new StringReader(pkcs10.getPEMEncoded()));
+        assertTrue(Arrays.equals(pkcs10.getDEREncoded(), read.getDEREncoded()));
+    }
+
     @SuppressWarnings({ "rawtypes" })
 	public void testGetX509Extensions() throws GeneralSecurityException,
             IOException {
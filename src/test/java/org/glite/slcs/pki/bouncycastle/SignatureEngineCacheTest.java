@@ -0,0 +1,87 @@
+package org.glite.slcs.pki.bouncycastle;
+
+import java.io.StringReader;
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.security.interfaces.RSAPrivateKey;
+
+import junit.framework.TestCase;
+
+import org.bouncycastle.jce.PKCS10CertificationRequest;
+import org.bouncycastle.openssl.PEMReader;
+
+public class SignatureEngineCacheTest extends TestCase {
+
+    public void testSameThreadSameEngine() throws Exception {
+        Signature signature= SignatureEngineCache.getSignature("SHA256WithRSA");
+        long hits= SignatureEngineCache.getHitCount();
+        long lookups= SignatureEngineCache.getLookupCount();
+        assertSame(signature, SignatureEngineCache.getSignature("SHA256WithRSA"));
+        assertEquals(hits + 1, SignatureEngineCache.getHitCount());
+        assertEquals(lookups, SignatureEngineCache.getLookupCount());
+    }
+
+    public void testOtherThreadOtherEngine() throws Exception {
+        final Signature signature= SignatureEngineCache.getSignature("SHA256WithRSA");
+        final Signature[] other= new Signature[1];
+        Thread thread= new Thread() {
+            public void run() {
+                try {
+                    other[0]= SignatureEngineCache.getSignature("SHA256WithRSA");
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        assertNotNull(other[0]);
+        assertNotSame(signature, other[0]);
+    }
+
+    public void testPKCS10UsesCachedEngines() throws Exception {
+        String[][] keys= { { "RSA", "1024" }, { "ECDSA", "256" }, { "ECDSA", "384" } };
+        for (int i= 0; i < keys.length; i++) {
+            KeyPairGenerator generator= new KeyPairGenerator(keys[i][0]);
+            generator.initialize(Integer.parseInt(keys[i][1]));
+            KeyPair keyPair= generator.generateKeyPair();
+            String signatureAlgorithm= PKCS10.getSignatureAlgorithm(keyPair.getPublic());
+            // first request may lookup the engines
+            new PKCS10("CN=First", keyPair.getPublic(), keyPair.getPrivate(), null, signatureAlgorithm);
+            long lookups= SignatureEngineCache.getLookupCount();
+            PKCS10 pkcs10= new PKCS10("CN=Second", keyPair.getPublic(), keyPair.getPrivate(), null, signatureAlgorithm);
+            assertEquals(lookups, SignatureEngineCache.getLookupCount());
+
+            // signature also valid for BouncyCastle
+            PEMReader pem= new PEMReader(new StringReader(pkcs10.getPEMEncoded()));
+            PKCS10CertificationRequest csr= (PKCS10CertificationRequest) pem.readObject();
+            pem.close();
+            assertTrue(signatureAlgorithm, csr.verify());
+        }
+    }
+
+    public void testPrivateKeyReleasedAfterSign() throws Exception {
+        WeakReference<BigInteger> privateExponent= signWithNewKey();
+        for (int i= 0; i < 50 && privateExponent.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull("private key still reachable", privateExponent.get());
+    }
+
+    /**
+     * Signs a request with a new RSA key, the engine key parameters share the
+     * private exponent of the key.
+     */
+    private WeakReference<BigInteger> signWithNewKey() throws Exception {
+        KeyPairGenerator generator= new KeyPairGenerator("RSA");
+        generator.initialize(1024);
+        KeyPair keyPair= generator.generateKeyPair();
+        // not verified, the engine is not reinitialized by the verification
+        new PKCS10("CN=Released", keyPair.getPublic(), keyPair.getPrivate(), "SHA256WithRSA", null, false);
+        return new WeakReference<BigInteger>(((RSAPrivateKey) keyPair.getPrivate()).getPrivateExponent());
+    }
+
+}
@@ -50,6 +50,22 @@ public class X509PrincipalUtilTest extends TestCase {
 
     }
 
+    public void testCache() throws GeneralSecurityException {
+        String dn = "CN=Cached User+CN=Alias,O=SWITCH,C=CH";
+        X509PrincipalUtil.clearCache();
+        long hits = X509PrincipalUtil.getCacheHitCount();
+        long misses = X509PrincipalUtil.getCacheMissCount();
+
+        X509Principal p1 = x509PrincipalUtil_.createX509Principal(dn);
+        X509Principal p2 = new X509PrincipalUtil().createX509Principal(dn);
+
+        assertEquals(misses + 1, X509PrincipalUtil.getCacheMissCount());
+        assertEquals(hits + 1, X509PrincipalUtil.getCacheHitCount());
+        assertNotSame(p1, p2);
+        assertEquals(p1, p2);
+        assertTrue(X509PrincipalUtil.getCacheHitRate() > 0.0);
+    }
+
 	public void no_testBouncyVsMy() throws GeneralSecurityException {
         String dn = "DC=A+DC=B+DC=E,DC=JUnitTest,CN=X+CN=Y+CN=Y+DC=Z+O=AU";
         // String certificateSubject_ =" C=AU, ST=VIC, L=Mel\\,Bourne,
@@ -0,0 +1,40 @@
+package org.glite.slcs.util;
+
+import junit.framework.TestCase;
+
+public class LRUCacheTest extends TestCase {
+
+    public void testLeastRecentlyUsedEvicted() {
+        LRUCache<String, Integer> cache= new LRUCache<String, Integer>(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        cache.put("c", 3);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertEquals(Integer.valueOf(3), cache.get("c"));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    public void testExpiration() {
+        final long[] now= { 1000 };
+        LRUCache<String, String> cache= new LRUCache<String, String>(10) {
+            protected long currentTimeMillis() {
+                return now[0];
+            }
+        };
+        cache.put("a", "A", 2000);
+        cache.put("b", "B");
+        cache.put("c", "C", 500);
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("c"));
+        now[0]= 2000;
+        assertNull(cache.get("a"));
+        assertEquals("B", cache.get("b"));
+        assertEquals(1, cache.size());
+    }
+
+}
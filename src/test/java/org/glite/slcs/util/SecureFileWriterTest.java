@@ -0,0 +1,83 @@
+package org.glite.slcs.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import junit.framework.TestCase;
+
+public class SecureFileWriterTest extends TestCase {
+
+    static private final boolean POSIX= FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+    private File dir_;
+
+    protected void setUp() throws Exception {
+        dir_= Files.createTempDirectory("slcs-test").toFile();
+    }
+
+    protected void tearDown() throws Exception {
+        File[] files= dir_.listFiles();
+        for (int i= 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir_.delete();
+    }
+
+    public void testToPosixPermissions() {
+        assertEquals("rw-------", PosixFilePermissions.toString(SecureFileWriter.toPosixPermissions(600)));
+        assertEquals("rw-r-----", PosixFilePermissions.toString(SecureFileWriter.toPosixPermissions(640)));
+        assertEquals("rwxr-xr-x", PosixFilePermissions.toString(SecureFileWriter.toPosixPermissions(755)));
+        int[] invalids= { -1, 800, 680, 1000 };
+        for (int i= 0; i < invalids.length; i++) {
+            try {
+                SecureFileWriter.toPosixPermissions(invalids[i]);
+                fail("invalid mode: " + invalids[i]);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testWrite() throws Exception {
+        File file= new File(dir_, "userkey.pem");
+        SecureFileWriter.write(file, "first", 600);
+        assertEquals("first", new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+        assertPermissions("rw-------", file);
+
+        SecureFileWriter.write(file, "second", 640);
+        assertEquals("second", new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+        assertPermissions("rw-r-----", file);
+
+        // no temporary file left
+        assertEquals(1, dir_.listFiles().length);
+    }
+
+    public void testWriteFailure() throws Exception {
+        File file= new File(new File(dir_, "missing"), "usercert.pem");
+        try {
+            SecureFileWriter.write(file, "content", 640);
+            fail("directory doesn't exist");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, dir_.listFiles().length);
+    }
+
+    public void testSetFilePermissions() throws Exception {
+        File file= new File(dir_, "usercert.pem");
+        assertTrue(Utils.setFilePermissions(file, 640));
+        assertTrue(file.exists());
+        assertPermissions("rw-r-----", file);
+    }
+
+    private void assertPermissions(String expected, File file)
+            throws Exception {
+        if (POSIX) {
+            assertEquals(expected, PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())));
+        }
+    }
+
+}
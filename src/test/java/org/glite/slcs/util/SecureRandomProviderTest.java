@@ -0,0 +1,45 @@
+package org.glite.slcs.util;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+
+public class SecureRandomProviderTest extends TestCase {
+
+    protected void tearDown() throws Exception {
+        SecureRandomProvider.setAlgorithm(null);
+    }
+
+    public void testPerThreadInstance() throws Exception {
+        final SecureRandom random= SecureRandomProvider.getSecureRandom();
+        assertSame(random, SecureRandomProvider.getSecureRandom());
+        final SecureRandom[] other= new SecureRandom[1];
+        Thread thread= new Thread() {
+            public void run() {
+                other[0]= SecureRandomProvider.getSecureRandom();
+            }
+        };
+        thread.start();
+        thread.join();
+        assertNotNull(other[0]);
+        assertNotSame(random, other[0]);
+        assertTrue(SecureRandomProvider.getInstanceCount() >= 2);
+        assertTrue(SecureRandomProvider.getMaxSeedTime() <= SecureRandomProvider.getSeedTime());
+    }
+
+    public void testSetAlgorithm() throws Exception {
+        SecureRandom random= SecureRandomProvider.getSecureRandom();
+        SecureRandomProvider.setAlgorithm("SHA1PRNG");
+        assertNotSame(random, SecureRandomProvider.getSecureRandom());
+        assertEquals("SHA1PRNG", SecureRandomProvider.getAlgorithm());
+        try {
+            SecureRandomProvider.setAlgorithm("NoSuchPRNG");
+            fail("invalid algorithm");
+        } catch (NoSuchAlgorithmException e) {
+            // expected
+        }
+        assertEquals("SHA1PRNG", SecureRandomProvider.getAlgorithm());
+    }
+
+}